@@ -1,34 +1,106 @@
 package me.tombailey.store.http;
 
 import android.content.Context;
+import android.util.Log;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import io.realm.Realm;
 import io.realm.RealmConfiguration;
 import me.tombailey.store.http.internal.RealmLibraryModule;
+import me.tombailey.store.http.internal.cache.CacheMigration;
+import me.tombailey.store.http.internal.cache.JournalCacheStore;
+import me.tombailey.store.http.internal.cache.MemoryCache;
+import me.tombailey.store.http.internal.cache.RealmCacheStore;
 
 /**
  * Created by tomba on 25/02/2017.
  */
 
-public class Cache {
+public class Cache implements Closeable {
+
+    private static final String LOG_TAG = Cache.class.getName();
+
+    private static final int DEFAULT_MEMORY_SIZE = 1024 * 1024; //1mb
+
+    private static final String JOURNAL_FILE_NAME = "cache.journal";
+
+    private static final int DEFAULT_SWEEP_INTERVAL = 5 * 60 * 1000; //5 minutes
+
+    //sweeping keeps this fraction of the max size free, so that responses can usually be cached
+    //without removing anything first
+    private static final int FREE_SPACE_DIVISOR = 10;
+
+    //temporary files left behind by writes which never finished, such as when the process was
+    //killed, are deleted once they haven't been written to for this long
+    private static final long TEMPORARY_FILE_MAX_AGE = 60 * 60 * 1000L; //1 hour
+
 
     private File mCacheDirectory;
     private int mMaxSize;
-    private RealmConfiguration mRealmConfiguration;
+    private CacheStore mCacheStore;
+
+    private MemoryCache<Response> mMemoryCache;
+    //when responses were last served from memory, by identifier. These are written to the cache
+    //store before choosing which files to remove, rather than on every hit
+    private Map<String, Long> mMemoryLastUsed;
+
+    //running total of cached file sizes, so that space can be checked without a query
+    private long mSizeInUse;
+
+    private ScheduledExecutorService mSweeper;
 
     /**
      *
      * @param cacheDirectory the directory to store cached files in
      * @param maxSize the max size, in bytes, that all files in the cache directory should not
      *                exceed
+     * @param memorySize the max size, in bytes, of responses kept in memory in front of the cache
+     *                   directory
+     * @param cacheStore keeps track of the files in the cache directory
+     * @param sweepInterval the time, in milliseconds, between removing expired and least recently
+     *                      used files in the background or 0 to only remove them when needed
      */
-    private Cache(File cacheDirectory, int maxSize, RealmConfiguration realmConfiguration) {
+    private Cache(File cacheDirectory, int maxSize, int memorySize, CacheStore cacheStore,
+                  int sweepInterval) {
         mCacheDirectory = cacheDirectory;
         mMaxSize = maxSize;
 
-        mRealmConfiguration = realmConfiguration;
+        mCacheStore = cacheStore;
+
+        mMemoryCache = new MemoryCache<Response>(memorySize);
+        mMemoryLastUsed = new HashMap<String, Long>();
+
+        mSizeInUse = calculateSizeInUse();
+
+        if (sweepInterval > 0) {
+            mSweeper = Executors.newSingleThreadScheduledExecutor(new SweeperThreadFactory());
+            mSweeper.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    sweep();
+                }
+            }, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private long calculateSizeInUse() {
+        long sizeInUse = 0;
+        for (CacheEntry cacheEntry : mCacheStore.getAll()) {
+            sizeInUse += cacheEntry.getSize();
+        }
+        return sizeInUse;
     }
 
     protected File getCacheDirectory() {
@@ -39,18 +111,259 @@ public class Cache {
         return mMaxSize;
     }
 
-    protected Realm getRealm() {
-        return Realm.getInstance(mRealmConfiguration);
+    /**
+     * @return the size, in bytes, of all files in the cache directory
+     */
+    public synchronized long getSizeInUse() {
+        return mSizeInUse;
+    }
+
+    /**
+     * @return the size, in bytes, which can be cached before files have to be removed
+     */
+    protected synchronized long getRemainingSpace() {
+        return mMaxSize - mSizeInUse;
+    }
+
+    /**
+     * @param cacheEntry details of a response which has been written to the cache directory
+     */
+    protected synchronized void addCachedFile(CacheEntry cacheEntry) {
+        CacheEntry replaced = mCacheStore.put(cacheEntry);
+        int replacedSize = replaced == null ? 0 : replaced.getSize();
+        mSizeInUse += cacheEntry.getSize() - replacedSize;
+
+        if (replaced != null && !replaced.getFilePath().equals(cacheEntry.getFilePath())) {
+            //files named by an older naming scheme would otherwise never be removed
+            new File(replaced.getFilePath()).delete();
+        }
+    }
+
+    /**
+     * Moves a completely written response into place and records it as one step, so that files
+     * can't be removed, by the sweeper for example, part way through. Renaming replaces any older
+     * version of the file at the same path without truncating it, which would break responses
+     * still memory-mapped from it
+     * @param file the written response
+     * @param cacheEntry details of the response, whose file path is where to move it to
+     * @return true if the response was cached
+     */
+    protected synchronized boolean moveCachedFile(File file, CacheEntry cacheEntry) {
+        if (!file.renameTo(new File(cacheEntry.getFilePath()))) {
+            file.delete();
+            return false;
+        }
+
+        addCachedFile(cacheEntry);
+        return true;
+    }
+
+    /**
+     * @param identifier the identifier of the cached response
+     * @return the cached file's details or null if the response isn't cached
+     */
+    protected CacheEntry getCachedFile(String identifier) {
+        return mCacheStore.get(identifier);
+    }
+
+    /**
+     * @param identifier the identifier of the cached response
+     * @param lastUsed the time, in milliseconds, the cached response was used
+     */
+    protected void setLastUsed(String identifier, long lastUsed) {
+        mCacheStore.setLastUsed(identifier, lastUsed);
+    }
+
+    /**
+     * Extends the life of a cached response after the server confirmed it hasn't changed
+     * @param identifier the identifier of the cached response
+     * @param validUntil the time, in milliseconds, when the response should no longer be used
+     *                   without being revalidated
+     * @param staleUntil the time, in milliseconds, until which the response can still be served
+     *                   stale
+     * @param etag the new ETag or null to keep the current one
+     * @param lastModified the new Last-Modified date or null to keep the current one
+     */
+    protected synchronized void refreshCachedFile(String identifier, long validUntil,
+                                                  long staleUntil, String etag,
+                                                  String lastModified) {
+        CacheEntry cacheEntry = mCacheStore.get(identifier);
+        if (cacheEntry != null) {
+            mCacheStore.put(new CacheEntry(identifier, validUntil, staleUntil,
+                    System.currentTimeMillis(),
+                    cacheEntry.getSize(), cacheEntry.getFilePath(),
+                    etag == null ? cacheEntry.getEtag() : etag,
+                    lastModified == null ? cacheEntry.getLastModified() : lastModified));
+        }
+    }
+
+    /**
+     * Deletes a cached response, along with its file in the cache directory, unless it has been
+     * replaced since the entry was read. A replacement is written to the same file path, so
+     * deleting the file for an out of date entry would delete the replacement's file
+     * @param cacheEntry the entry of the cached response, as it was read from the cache
+     */
+    protected synchronized void removeCachedFile(CacheEntry cacheEntry) {
+        CacheEntry current = mCacheStore.get(cacheEntry.getId());
+        if (current == null || !isSameResponse(current, cacheEntry)) {
+            return;
+        }
+
+        mCacheStore.remove(cacheEntry.getId());
+        removeFromMemory(cacheEntry.getId());
+        new File(current.getFilePath()).delete();
+        mSizeInUse -= current.getSize();
+    }
+
+    /**
+     * @return true if the entries are for the same response, even if it has been used since
+     */
+    private static boolean isSameResponse(CacheEntry cacheEntry, CacheEntry otherCacheEntry) {
+        return cacheEntry.getFilePath().equals(otherCacheEntry.getFilePath()) &&
+                cacheEntry.getSize() == otherCacheEntry.getSize() &&
+                cacheEntry.getValidUntil() == otherCacheEntry.getValidUntil() &&
+                cacheEntry.getStaleUntil() == otherCacheEntry.getStaleUntil();
+    }
+
+    /**
+     * Removes the least recently used cached files until there is enough space
+     * @param requiredSpace the space, in bytes, needed
+     */
+    protected void removeCachedFilesForSpace(int requiredSpace) {
+        writeMemoryLastUsed();
+        List<CacheEntry> leastRecentlyUsed = mCacheStore.getAll();
+        Collections.sort(leastRecentlyUsed, new Comparator<CacheEntry>() {
+            @Override
+            public int compare(CacheEntry cacheEntry, CacheEntry otherCacheEntry) {
+                long lastUsed = cacheEntry.getLastUsed();
+                long otherLastUsed = otherCacheEntry.getLastUsed();
+                return lastUsed < otherLastUsed ? -1 : (lastUsed == otherLastUsed ? 0 : 1);
+            }
+        });
+
+        long spaceToFree = requiredSpace - getRemainingSpace();
+        for (int index = 0; index < leastRecentlyUsed.size() && spaceToFree > 0; index++) {
+            CacheEntry cacheEntry = leastRecentlyUsed.get(index);
+            removeCachedFile(cacheEntry);
+            spaceToFree -= cacheEntry.getSize();
+        }
+    }
+
+    /**
+     * Removes expired files which can't be revalidated or served stale, then the least recently
+     * used files until there is some free space, and finally any abandoned temporary files. This
+     * runs in the background so that requests rarely have to remove files before caching a
+     * response
+     */
+    protected void sweep() {
+        try {
+            writeMemoryLastUsed();
+
+            long now = System.currentTimeMillis();
+            for (CacheEntry cacheEntry : mCacheStore.getAll()) {
+                if (cacheEntry.isExpired(now)) {
+                    removeCachedFile(cacheEntry);
+                }
+            }
+
+            int freeSpace = mMaxSize / FREE_SPACE_DIVISOR;
+            if (getRemainingSpace() < freeSpace) {
+                removeCachedFilesForSpace(freeSpace);
+            }
+
+            removeAbandonedTemporaryFiles(now);
+        } catch (RuntimeException re) {
+            //an exception would stop the sweeper from running again
+            Log.w(LOG_TAG, "failed to sweep the cache");
+            re.printStackTrace();
+        }
+    }
+
+    private void removeAbandonedTemporaryFiles(long now) {
+        File[] files = mCacheDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp") && now - file.lastModified() > TEMPORARY_FILE_MAX_AGE) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @param identifier the identifier of the cached response
+     * @return the response, if it is held in memory and still valid, or null
+     */
+    protected Response getFromMemory(String identifier) {
+        long now = System.currentTimeMillis();
+        Response response = mMemoryCache.get(identifier, now);
+        if (response != null) {
+            //the cached file is being used too, so it mustn't look unused when removing files
+            synchronized (mMemoryLastUsed) {
+                mMemoryLastUsed.put(identifier, now);
+            }
+        }
+        return response;
+    }
+
+    private void writeMemoryLastUsed() {
+        Map<String, Long> memoryLastUsed;
+        synchronized (mMemoryLastUsed) {
+            if (mMemoryLastUsed.isEmpty()) {
+                return;
+            }
+            memoryLastUsed = new HashMap<String, Long>(mMemoryLastUsed);
+            mMemoryLastUsed.clear();
+        }
+
+        for (Map.Entry<String, Long> lastUsed : memoryLastUsed.entrySet()) {
+            mCacheStore.setLastUsed(lastUsed.getKey(), lastUsed.getValue());
+        }
+    }
+
+    /**
+     * @param identifier the identifier of the cached response
+     * @param response the (buffered) response to hold in memory
+     * @param validUntil the time, in milliseconds, when the response should no longer be used
+     */
+    protected void putInMemory(String identifier, Response response, long validUntil) {
+        mMemoryCache.put(identifier, response, response.sizeInMemory(), validUntil);
+    }
+
+    protected void removeFromMemory(String identifier) {
+        mMemoryCache.remove(identifier);
+    }
+
+    /**
+     * Stops sweeping in the background, empties the memory cache and closes the cache store if it
+     * can be closed. Cached files are kept for the next cache built with the same directory
+     * @throws IOException if the cache store could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (mSweeper != null) {
+            mSweeper.shutdownNow();
+        }
+        writeMemoryLastUsed();
+        mMemoryCache.clear();
+        if (mCacheStore instanceof Closeable) {
+            ((Closeable) mCacheStore).close();
+        }
     }
 
     public static class Builder {
 
         private File mCacheDirectory;
         private int mMaxSize;
-        private RealmConfiguration mRealmConfiguration;
+        private int mMemorySize;
+        private CacheStore mCacheStore;
+        private int mSweepInterval;
 
         public Builder() {
-
+            mMemorySize = DEFAULT_MEMORY_SIZE;
+            mSweepInterval = DEFAULT_SWEEP_INTERVAL;
         }
 
         public Builder cacheDirectory(File cacheDirectory) {
@@ -63,18 +376,73 @@ public class Cache {
             return this;
         }
 
+        /**
+         * @param memorySize the max size, in bytes, of responses kept in memory so that they can
+         *                   be used without reading the cache directory, or 0 to disable
+         * @return the builder
+         */
+        public Builder memorySize(int memorySize) {
+            mMemorySize = memorySize;
+            return this;
+        }
+
+        /**
+         * @param milliseconds the time between removing expired and least recently used files
+         *                     on a low priority background thread, or 0 to only remove them when
+         *                     a response is requested or there isn't space to cache it
+         * @return the builder
+         */
+        public Builder sweepInterval(int milliseconds) {
+            mSweepInterval = milliseconds;
+            return this;
+        }
+
+        /**
+         * Keeps track of cached files with Realm. Without this (or
+         * {@link #cacheStore(CacheStore)}) they are kept track of in a journal file in the cache
+         * directory, which doesn't need Realm
+         * @param context used to initialize Realm
+         * @return the builder
+         */
         public Builder context(Context context) {
             Realm.init(context);
-            mRealmConfiguration = new RealmConfiguration.Builder()
+            RealmConfiguration realmConfiguration = new RealmConfiguration.Builder()
                     .modules(new RealmLibraryModule())
                     .name("me.tombailey.store.http.cache")
+                    .schemaVersion(CacheMigration.SCHEMA_VERSION)
+                    .migration(new CacheMigration())
                     .build();
+            mCacheStore = new RealmCacheStore(realmConfiguration);
+            return this;
+        }
+
+        /**
+         * @param cacheStore keeps track of the files in the cache directory
+         * @return the builder
+         */
+        public Builder cacheStore(CacheStore cacheStore) {
+            mCacheStore = cacheStore;
             return this;
         }
 
         public Cache build() {
-            return new Cache(mCacheDirectory, mMaxSize, mRealmConfiguration);
+            CacheStore cacheStore = mCacheStore;
+            if (cacheStore == null) {
+                cacheStore = new JournalCacheStore(new File(mCacheDirectory, JOURNAL_FILE_NAME));
+            }
+            return new Cache(mCacheDirectory, mMaxSize, mMemorySize, cacheStore, mSweepInterval);
         }
 
     }
+
+    private static class SweeperThreadFactory implements ThreadFactory {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "store-http-cache-sweeper");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }
 }
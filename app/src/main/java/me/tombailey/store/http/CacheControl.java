@@ -0,0 +1,287 @@
+package me.tombailey.store.http;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The caching directives of a response, parsed once from its Cache-Control, Expires, Date and
+ * Age headers, see https://tools.ietf.org/html/rfc7234.
+ */
+public class CacheControl {
+
+    //preferred format first, then the obsolete formats which must still be accepted
+    private static final String[] HTTP_DATE_FORMATS = {
+            "EEE, dd MMM yyyy HH:mm:ss zzz",
+            "EEEE, dd-MMM-yy HH:mm:ss zzz",
+            "EEE MMM d HH:mm:ss yyyy"
+    };
+
+
+    private int mMaxAge;
+    private int mSMaxAge;
+    private boolean mNoStore;
+    private boolean mNoCache;
+    private boolean mMustRevalidate;
+    private boolean mPublic;
+    private boolean mPrivate;
+    private int mStaleWhileRevalidate;
+    private int mStaleIfError;
+
+    private boolean mHasExpires;
+    //-1 if the Expires header is invalid, which means the response has already expired
+    private long mExpires;
+    private long mDate;
+    private int mAge;
+
+    private CacheControl() {
+        mMaxAge = -1;
+        mSMaxAge = -1;
+        mStaleWhileRevalidate = -1;
+        mStaleIfError = -1;
+
+        mExpires = -1;
+        mDate = -1;
+        mAge = -1;
+    }
+
+    /**
+     * @param headers the headers of a response
+     * @return the caching directives of the response
+     */
+    public static CacheControl parse(Headers headers) {
+        CacheControl cacheControl = new CacheControl();
+        for (Header header : headers.getAll("cache-control")) {
+            cacheControl.parseDirectives(header.getValue());
+        }
+
+        String expires = headers.getValue("expires");
+        if (expires != null) {
+            cacheControl.mHasExpires = true;
+            cacheControl.mExpires = parseHttpDate(expires);
+        }
+        String date = headers.getValue("date");
+        if (date != null) {
+            cacheControl.mDate = parseHttpDate(date);
+        }
+        String age = headers.getValue("age");
+        if (age != null) {
+            cacheControl.mAge = parseSeconds(age);
+        }
+
+        return cacheControl;
+    }
+
+    private void parseDirectives(String value) {
+        int start = 0;
+        while (start < value.length()) {
+            int end = findDirectiveEnd(value, start);
+            String directive = value.substring(start, end).trim();
+            start = end + 1;
+
+            String name = directive;
+            String argument = null;
+            int equalsIndex = directive.indexOf('=');
+            if (equalsIndex >= 0) {
+                name = directive.substring(0, equalsIndex).trim();
+                argument = unquote(directive.substring(equalsIndex + 1).trim());
+            }
+
+            if (name.equalsIgnoreCase("max-age")) {
+                mMaxAge = parseSeconds(argument);
+            } else if (name.equalsIgnoreCase("s-maxage")) {
+                mSMaxAge = parseSeconds(argument);
+            } else if (name.equalsIgnoreCase("no-store")) {
+                mNoStore = true;
+            } else if (name.equalsIgnoreCase("no-cache")) {
+                mNoCache = true;
+            } else if (name.equalsIgnoreCase("must-revalidate")) {
+                mMustRevalidate = true;
+            } else if (name.equalsIgnoreCase("public")) {
+                mPublic = true;
+            } else if (name.equalsIgnoreCase("private")) {
+                mPrivate = true;
+            } else if (name.equalsIgnoreCase("stale-while-revalidate")) {
+                mStaleWhileRevalidate = parseSeconds(argument);
+            } else if (name.equalsIgnoreCase("stale-if-error")) {
+                mStaleIfError = parseSeconds(argument);
+            }
+        }
+    }
+
+    /**
+     * @return the index of the comma ending the directive starting at the index, skipping commas
+     * in quoted arguments like private="Set-Cookie, Authorization"
+     */
+    private static int findDirectiveEnd(String value, int start) {
+        boolean quoted = false;
+        for (int index = start; index < value.length(); index++) {
+            char c = value.charAt(index);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                return index;
+            }
+        }
+        return value.length();
+    }
+
+    private static String unquote(String argument) {
+        if (argument.length() >= 2 && argument.startsWith("\"") && argument.endsWith("\"")) {
+            return argument.substring(1, argument.length() - 1);
+        }
+        return argument;
+    }
+
+    /**
+     * @return the number of seconds, capped to Integer.MAX_VALUE, or -1 if it isn't a number
+     */
+    private static int parseSeconds(String seconds) {
+        if (seconds == null) {
+            return -1;
+        }
+
+        String trimmed = seconds.trim();
+        if (trimmed.length() == 0) {
+            return -1;
+        }
+
+        long value = 0;
+        for (int index = 0; index < trimmed.length(); index++) {
+            char c = trimmed.charAt(index);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = Math.min(value * 10 + (c - '0'), Integer.MAX_VALUE);
+        }
+        return (int) value;
+    }
+
+    /**
+     * @return the date in milliseconds or -1 if it isn't a valid HTTP date
+     */
+    private static long parseHttpDate(String date) {
+        for (String format : HTTP_DATE_FORMATS) {
+            SimpleDateFormat simpleDateFormat = new SimpleDateFormat(format, Locale.US);
+            simpleDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                return simpleDateFormat.parse(date.trim()).getTime();
+            } catch (ParseException pe) {
+                //try the next format
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A private cache ignores s-maxage, so the lifetime comes from max-age or else Expires, less
+     * the Age the response already had when it was received
+     * @param now the time, in milliseconds, the response was received, used if it has no Date
+     * @return the time, in seconds, the response stays fresh for once it was received, or -1 if
+     * the response has no explicit freshness
+     */
+    public int getFreshnessLifetime(long now) {
+        if (mNoStore || mNoCache) {
+            return 0;
+        }
+
+        long lifetime;
+        if (mMaxAge >= 0) {
+            lifetime = mMaxAge;
+        } else if (mHasExpires && mExpires >= 0) {
+            long date = mDate >= 0 ? mDate : now;
+            lifetime = Math.max(0, (mExpires - date) / 1000);
+        } else if (mHasExpires) {
+            //an invalid Expires, like 0, means the response has already expired
+            return 0;
+        } else {
+            return -1;
+        }
+
+        if (mAge > 0) {
+            lifetime = Math.max(0, lifetime - mAge);
+        }
+        return (int) Math.min(lifetime, Integer.MAX_VALUE);
+    }
+
+    /**
+     * See https://tools.ietf.org/html/rfc5861
+     * @return the time, in seconds, the response can be served for once it is stale while it is
+     * revalidated in the background, or -1 if there isn't a stale-while-revalidate directive or
+     * must-revalidate or no-cache forbid serving it stale
+     */
+    public int getStaleWhileRevalidate() {
+        return canServeStale() ? mStaleWhileRevalidate : -1;
+    }
+
+    /**
+     * See https://tools.ietf.org/html/rfc5861
+     * @return the time, in seconds, the response can be served for once it is stale if it can't
+     * be revalidated because of a network failure or server error, or -1 if there isn't a
+     * stale-if-error directive or must-revalidate or no-cache forbid serving it stale
+     */
+    public int getStaleIfError() {
+        return canServeStale() ? mStaleIfError : -1;
+    }
+
+    /**
+     * @return the time, in seconds, the response can be served for in some way once it is stale,
+     * which is 0 if it can't be
+     */
+    public int getStaleLifetime() {
+        return Math.max(0, Math.max(getStaleWhileRevalidate(), getStaleIfError()));
+    }
+
+    private boolean canServeStale() {
+        return !mMustRevalidate && !mNoCache && !mNoStore;
+    }
+
+    /**
+     * @return the max-age directive, in seconds, or -1 if there isn't one
+     */
+    public int getMaxAge() {
+        return mMaxAge;
+    }
+
+    /**
+     * @return the s-maxage directive, in seconds, or -1 if there isn't one
+     */
+    public int getSMaxAge() {
+        return mSMaxAge;
+    }
+
+    public boolean isNoStore() {
+        return mNoStore;
+    }
+
+    public boolean isNoCache() {
+        return mNoCache;
+    }
+
+    public boolean isMustRevalidate() {
+        return mMustRevalidate;
+    }
+
+    public boolean isPublic() {
+        return mPublic;
+    }
+
+    public boolean isPrivate() {
+        return mPrivate;
+    }
+
+    /**
+     * @return the Expires date, in milliseconds, or -1 if there isn't one or it is invalid
+     */
+    public long getExpires() {
+        return mExpires;
+    }
+
+    /**
+     * @return the Age header, in seconds, or -1 if there isn't one
+     */
+    public int getAge() {
+        return mAge;
+    }
+}
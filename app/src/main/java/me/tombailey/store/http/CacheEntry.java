@@ -0,0 +1,107 @@
+package me.tombailey.store.http;
+
+/**
+ * Details of a response which has been written to the cache directory, as kept by a
+ * {@link CacheStore}
+ */
+public class CacheEntry {
+
+    //how long a response which can be revalidated is kept after it can no longer be served stale
+    private static final long REVALIDATION_PERIOD = 7 * 24 * 60 * 60 * 1000L; //7 days
+
+
+    private String mId;
+
+    private long mValidUntil;
+    private long mStaleUntil;
+    private long mLastUsed;
+
+    private int mSize;
+    private String mFilePath;
+
+    private String mEtag;
+    private String mLastModified;
+
+    /**
+     * Like {@link #CacheEntry(String, long, long, long, int, String, String, String)} for a
+     * response which can't be served once it is stale
+     */
+    public CacheEntry(String id, long validUntil, long lastUsed, int size, String filePath,
+                      String etag, String lastModified) {
+        this(id, validUntil, validUntil, lastUsed, size, filePath, etag, lastModified);
+    }
+
+    /**
+     *
+     * @param id the identifier of the cached response
+     * @param validUntil the time, in milliseconds, when the response should no longer be used
+     *                   without being revalidated
+     * @param staleUntil the time, in milliseconds, until which the response can still be served
+     *                   stale, because of stale-while-revalidate or stale-if-error, which is
+     *                   validUntil if it can't be
+     * @param lastUsed the time, in milliseconds, the response was last used
+     * @param size the size, in bytes, of the cached file
+     * @param filePath where the response is cached
+     * @param etag the ETag of the response or null
+     * @param lastModified the Last-Modified date of the response or null
+     */
+    public CacheEntry(String id, long validUntil, long staleUntil, long lastUsed, int size,
+                      String filePath, String etag, String lastModified) {
+        mId = id;
+        mValidUntil = validUntil;
+        mStaleUntil = staleUntil;
+        mLastUsed = lastUsed;
+        mSize = size;
+        mFilePath = filePath;
+        mEtag = etag;
+        mLastModified = lastModified;
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    public long getValidUntil() {
+        return mValidUntil;
+    }
+
+    public long getStaleUntil() {
+        return mStaleUntil;
+    }
+
+    public long getLastUsed() {
+        return mLastUsed;
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    public String getFilePath() {
+        return mFilePath;
+    }
+
+    public String getEtag() {
+        return mEtag;
+    }
+
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * @return true if the response can be revalidated with the server once it is no longer valid
+     */
+    public boolean hasValidators() {
+        return mEtag != null || mLastModified != null;
+    }
+
+    /**
+     * @param now the current time, in milliseconds
+     * @return true if the response can't be used again, because it can't be served stale and
+     * either can't be revalidated or hasn't been for a week
+     */
+    public boolean isExpired(long now) {
+        return mStaleUntil <= now && (!hasValidators() || mStaleUntil + REVALIDATION_PERIOD <= now);
+    }
+}
@@ -0,0 +1,40 @@
+package me.tombailey.store.http;
+
+import java.util.List;
+
+/**
+ * Keeps track of the responses written to the cache directory of a {@link Cache}. Implementations
+ * are used from multiple threads at once.
+ */
+public interface CacheStore {
+
+    /**
+     * @param identifier the identifier of the cached response
+     * @return the entry or null if the response isn't cached
+     */
+    CacheEntry get(String identifier);
+
+    /**
+     * @return every entry, in no particular order
+     */
+    List<CacheEntry> getAll();
+
+    /**
+     * @param cacheEntry the entry to add, replacing any entry with the same identifier
+     * @return the replaced entry or null
+     */
+    CacheEntry put(CacheEntry cacheEntry);
+
+    /**
+     * @param identifier the identifier of the cached response
+     * @param lastUsed the time, in milliseconds, the cached response was used
+     */
+    void setLastUsed(String identifier, long lastUsed);
+
+    /**
+     * @param identifier the identifier of the cached response
+     * @return the removed entry or null if the response wasn't cached
+     */
+    CacheEntry remove(String identifier);
+
+}
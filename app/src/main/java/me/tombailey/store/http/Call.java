@@ -0,0 +1,127 @@
+package me.tombailey.store.http;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A request which has been enqueued with a {@link Dispatcher}. The response can be waited for
+ * with {@link #get()} or received by a {@link Callback}.
+ */
+public class Call implements Future<Response> {
+
+    private Request mRequest;
+    private Callback mCallback;
+    private Dispatcher mDispatcher;
+
+    private FutureTask<Response> mFutureTask;
+
+    protected Call(Request request, Callback callback, Dispatcher dispatcher) {
+        mRequest = request;
+        mCallback = callback;
+        mDispatcher = dispatcher;
+
+        mFutureTask = new FutureTask<Response>(new Callable<Response>() {
+            @Override
+            public Response call() throws Exception {
+                return mRequest.execute();
+            }
+        }) {
+            @Override
+            protected void done() {
+                //canceling runs done() on the canceling thread, so canceled calls are notified
+                //from run() instead
+                if (!isCancelled()) {
+                    notifyCallback();
+                }
+            }
+        };
+    }
+
+    public Request getRequest() {
+        return mRequest;
+    }
+
+    protected void run() {
+        try {
+            mFutureTask.run();
+            if (mFutureTask.isCancelled()) {
+                notifyCallback();
+            }
+        } finally {
+            mDispatcher.finished(this);
+        }
+    }
+
+    private void notifyCallback() {
+        if (mCallback == null) {
+            return;
+        }
+
+        try {
+            mCallback.onResponse(mRequest, mFutureTask.get());
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException) {
+                mCallback.onFailure(mRequest, (IOException) cause);
+            } else {
+                //rethrowing would leave the callback waiting forever
+                mCallback.onFailure(mRequest, new IOException("request failed unexpectedly", cause));
+            }
+        } catch (CancellationException ce) {
+            mCallback.onFailure(mRequest, new IOException("request was canceled"));
+        } catch (InterruptedException ie) {
+            //done() is only called once the result is available, so get() doesn't block
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Cancels the request, closing its connection if it is already running. The callback is told
+     * on a dispatcher thread, like it would be of any other failure
+     * @param mayInterruptIfRunning ignored, a running request is stopped by closing its connection
+     * @return false if the request had already completed
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean canceled = mFutureTask.cancel(false);
+        if (canceled) {
+            mRequest.cancel();
+            mDispatcher.canceled(this);
+        }
+        return canceled;
+    }
+
+    /**
+     * Cancels the request, closing its connection if it is already running
+     */
+    public void cancel() {
+        cancel(false);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return mFutureTask.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+        return mFutureTask.isDone();
+    }
+
+    @Override
+    public Response get() throws InterruptedException, ExecutionException {
+        return mFutureTask.get();
+    }
+
+    @Override
+    public Response get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return mFutureTask.get(timeout, unit);
+    }
+}
@@ -0,0 +1,20 @@
+package me.tombailey.store.http;
+
+import java.io.IOException;
+
+/**
+ * Receives the result of a request made with {@link Request#enqueue(Callback)}. Methods are
+ * called on the dispatcher's worker thread, not the thread which enqueued the request.
+ */
+public interface Callback {
+
+    void onResponse(Request request, Response response);
+
+    /**
+     *
+     * @param request the request which failed
+     * @param ioe why the request failed, which is also used when the request was canceled
+     */
+    void onFailure(Request request, IOException ioe);
+
+}
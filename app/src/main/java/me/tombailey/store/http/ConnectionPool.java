@@ -0,0 +1,248 @@
+package me.tombailey.store.http;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import me.tombailey.store.http.internal.connection.Address;
+import me.tombailey.store.http.internal.connection.Connection;
+
+/**
+ * Keeps idle keep-alive connections around so that later requests to the same destination can
+ * skip the SOCKS and TLS handshakes. Connections which stay idle for longer than the idle timeout
+ * are closed in the background.
+ */
+public class ConnectionPool {
+
+    private static final int DEFAULT_MAX_IDLE_PER_HOST = 5;
+    private static final int DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000; //5 minutes
+
+    //how long the cleanup thread waits for more work before it stops
+    private static final int CLEANUP_THREAD_KEEP_ALIVE = 1000; //1 second
+
+
+    private int mMaxIdlePerHost;
+    private int mIdleTimeout;
+
+    //most recently used connections are at the front of each deque
+    private Map<Address, Deque<Connection>> mIdleConnections;
+
+    private ScheduledThreadPoolExecutor mCleanup;
+    private boolean mCleanupScheduled;
+
+    /**
+     *
+     * @param maxIdlePerHost the max number of idle connections to keep for each destination
+     * @param idleTimeout the time, in milliseconds, that a connection can be idle before it is
+     *                    closed
+     */
+    private ConnectionPool(int maxIdlePerHost, int idleTimeout) {
+        mMaxIdlePerHost = maxIdlePerHost;
+        mIdleTimeout = idleTimeout;
+
+        mIdleConnections = new HashMap<Address, Deque<Connection>>();
+
+        mCleanup = new ScheduledThreadPoolExecutor(1, new CleanupThreadFactory());
+        //the thread only lives while there are idle connections waiting to be closed
+        mCleanup.setKeepAliveTime(CLEANUP_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS);
+        mCleanup.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param address the destination a connection is needed for
+     * @return a healthy idle connection to the address or null if there isn't one
+     */
+    protected Connection get(Address address) {
+        while (true) {
+            Connection connection;
+            synchronized (this) {
+                evictIdleConnections(System.currentTimeMillis());
+
+                Deque<Connection> connections = mIdleConnections.get(address);
+                if (connections == null) {
+                    return null;
+                }
+
+                connection = connections.pollFirst();
+                if (connections.isEmpty()) {
+                    mIdleConnections.remove(address);
+                }
+            }
+
+            if (connection == null) {
+                return null;
+            } else if (connection.isHealthy()) {
+                return connection;
+            } else {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Returns a connection to the pool once a response has been completely read from it
+     * @param connection the connection which is now idle
+     */
+    protected void put(Connection connection) {
+        List<Connection> toClose = new ArrayList<Connection>(1);
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            evictIdleConnections(now, toClose);
+
+            Deque<Connection> connections = mIdleConnections.get(connection.getAddress());
+            if (connections == null) {
+                connections = new ArrayDeque<Connection>(mMaxIdlePerHost);
+                mIdleConnections.put(connection.getAddress(), connections);
+            }
+
+            connection.markIdle(now);
+            connections.offerFirst(connection);
+            while (connections.size() > mMaxIdlePerHost) {
+                toClose.add(connections.pollLast());
+            }
+
+            if (!mCleanupScheduled) {
+                scheduleCleanup(mIdleTimeout);
+            }
+        }
+
+        closeAll(toClose);
+    }
+
+    /**
+     * Closes and removes all idle connections
+     */
+    public void evictAll() {
+        List<Connection> toClose = new ArrayList<Connection>();
+
+        synchronized (this) {
+            for (Deque<Connection> connections : mIdleConnections.values()) {
+                toClose.addAll(connections);
+            }
+            mIdleConnections.clear();
+        }
+
+        closeAll(toClose);
+    }
+
+    /**
+     * @return the number of idle connections that are currently kept by the pool
+     */
+    public synchronized int getIdleConnectionCount() {
+        int count = 0;
+        for (Deque<Connection> connections : mIdleConnections.values()) {
+            count += connections.size();
+        }
+        return count;
+    }
+
+    private void evictIdleConnections(long now) {
+        List<Connection> toClose = new ArrayList<Connection>(0);
+        evictIdleConnections(now, toClose);
+        closeAll(toClose);
+    }
+
+    private void evictIdleConnections(long now, List<Connection> toClose) {
+        Iterator<Deque<Connection>> iterator = mIdleConnections.values().iterator();
+        while (iterator.hasNext()) {
+            Deque<Connection> connections = iterator.next();
+            //oldest connections are at the back
+            while (!connections.isEmpty() &&
+                    now - connections.peekLast().getIdleSince() >= mIdleTimeout) {
+                toClose.add(connections.pollLast());
+            }
+
+            if (connections.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void scheduleCleanup(long delay) {
+        mCleanupScheduled = true;
+        mCleanup.schedule(new Runnable() {
+            @Override
+            public void run() {
+                cleanup();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes connections which have been idle for too long and schedules itself again for when
+     * the next one will have been
+     */
+    private void cleanup() {
+        List<Connection> toClose = new ArrayList<Connection>();
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            evictIdleConnections(now, toClose);
+
+            mCleanupScheduled = false;
+            long oldestIdleSince = Long.MAX_VALUE;
+            for (Deque<Connection> connections : mIdleConnections.values()) {
+                oldestIdleSince = Math.min(oldestIdleSince, connections.peekLast().getIdleSince());
+            }
+            if (oldestIdleSince != Long.MAX_VALUE) {
+                scheduleCleanup(Math.max(oldestIdleSince + mIdleTimeout - now, 0));
+            }
+        }
+
+        closeAll(toClose);
+    }
+
+    private static void closeAll(List<Connection> connections) {
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    public static class Builder {
+
+        private int mMaxIdlePerHost;
+        private int mIdleTimeout;
+
+        public Builder() {
+            mMaxIdlePerHost = DEFAULT_MAX_IDLE_PER_HOST;
+            mIdleTimeout = DEFAULT_IDLE_TIMEOUT;
+        }
+
+        public Builder maxIdlePerHost(int maxIdlePerHost) {
+            mMaxIdlePerHost = maxIdlePerHost;
+            return this;
+        }
+
+        public Builder idleTimeout(int milliseconds) {
+            mIdleTimeout = milliseconds;
+            return this;
+        }
+
+        public ConnectionPool build() {
+            if (mMaxIdlePerHost < 1 || mIdleTimeout < 1) {
+                throw new IllegalArgumentException("maxIdlePerHost and idleTimeout must be positive");
+            }
+
+            return new ConnectionPool(mMaxIdlePerHost, mIdleTimeout);
+        }
+
+    }
+
+    private static class CleanupThreadFactory implements ThreadFactory {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "store-http-connection-pool-cleanup");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package me.tombailey.store.http;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs enqueued requests in the background, limiting how many run at once in total and for each
+ * host so that fanning out many requests doesn't open an unbounded number of TOR streams. Calls
+ * over either limit wait until a running call finishes.
+ */
+public class Dispatcher {
+
+    private static final int DEFAULT_MAX_REQUESTS = 32;
+    private static final int DEFAULT_MAX_REQUESTS_PER_HOST = 5;
+    private static final int KEEP_ALIVE_SECONDS = 60;
+
+
+    private int mMaxRequests;
+    private int mMaxRequestsPerHost;
+    private ExecutorService mExecutorService;
+
+    private Deque<Call> mReadyCalls;
+    private Deque<Call> mRunningCalls;
+
+    /**
+     *
+     * @param maxRequests the max number of requests to run at once
+     * @param maxRequestsPerHost the max number of requests to run at once for each host
+     * @param executorService runs the requests or null to use a pool of maxRequests threads
+     */
+    private Dispatcher(int maxRequests, int maxRequestsPerHost, ExecutorService executorService) {
+        mMaxRequests = maxRequests;
+        mMaxRequestsPerHost = maxRequestsPerHost;
+
+        if (executorService == null) {
+            ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(maxRequests, maxRequests,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new DispatcherThreadFactory());
+            threadPoolExecutor.allowCoreThreadTimeOut(true);
+            mExecutorService = threadPoolExecutor;
+        } else {
+            mExecutorService = executorService;
+        }
+
+        mReadyCalls = new ArrayDeque<Call>();
+        mRunningCalls = new ArrayDeque<Call>();
+    }
+
+    protected synchronized void enqueue(Call call) {
+        mReadyCalls.add(call);
+        promoteCalls();
+    }
+
+    /**
+     * Runs a call which was canceled while waiting straight away, rather than once it is under the
+     * limits, so that its callback is told promptly and on a dispatcher thread. The call won't
+     * make its request
+     */
+    protected synchronized void canceled(Call call) {
+        if (mReadyCalls.remove(call)) {
+            execute(call);
+        }
+    }
+
+    protected synchronized void finished(Call call) {
+        mRunningCalls.remove(call);
+        promoteCalls();
+    }
+
+    /**
+     * Cancels all waiting and running calls
+     */
+    public void cancelAll() {
+        List<Call> calls;
+        synchronized (this) {
+            calls = new ArrayList<Call>(mReadyCalls.size() + mRunningCalls.size());
+            calls.addAll(mReadyCalls);
+            calls.addAll(mRunningCalls);
+        }
+
+        for (Call call : calls) {
+            call.cancel();
+        }
+    }
+
+    public synchronized int getQueuedCallCount() {
+        return mReadyCalls.size();
+    }
+
+    public synchronized int getRunningCallCount() {
+        return mRunningCalls.size();
+    }
+
+    private void promoteCalls() {
+        Iterator<Call> iterator = mReadyCalls.iterator();
+        while (iterator.hasNext() && mRunningCalls.size() < mMaxRequests) {
+            Call call = iterator.next();
+            if (runningCallsForHost(call.getRequest().getHost()) < mMaxRequestsPerHost) {
+                iterator.remove();
+                mRunningCalls.add(call);
+                execute(call);
+            }
+        }
+    }
+
+    private void execute(final Call call) {
+        mExecutorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                call.run();
+            }
+        });
+    }
+
+    private int runningCallsForHost(String host) {
+        int count = 0;
+        for (Call call : mRunningCalls) {
+            if (call.getRequest().getHost().equalsIgnoreCase(host)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static class DispatcherThreadFactory implements ThreadFactory {
+
+        private AtomicInteger mThreadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "store-http-dispatcher-" + mThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    public static class Builder {
+
+        private int mMaxRequests;
+        private int mMaxRequestsPerHost;
+        private ExecutorService mExecutorService;
+
+        public Builder() {
+            mMaxRequests = DEFAULT_MAX_REQUESTS;
+            mMaxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+        }
+
+        public Builder maxRequests(int maxRequests) {
+            mMaxRequests = maxRequests;
+            return this;
+        }
+
+        public Builder maxRequestsPerHost(int maxRequestsPerHost) {
+            mMaxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
+        public Builder executorService(ExecutorService executorService) {
+            mExecutorService = executorService;
+            return this;
+        }
+
+        public Dispatcher build() {
+            if (mMaxRequests < 1 || mMaxRequestsPerHost < 1) {
+                throw new IllegalArgumentException("maxRequests and maxRequestsPerHost must be positive");
+            }
+
+            return new Dispatcher(mMaxRequests, mMaxRequestsPerHost, mExecutorService);
+        }
+
+    }
+}
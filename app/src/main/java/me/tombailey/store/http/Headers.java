@@ -0,0 +1,81 @@
+package me.tombailey.store.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The headers of a response, indexed by name so that finding one doesn't mean comparing every
+ * name. Names are case-insensitive and headers with the same name keep the order they were sent
+ * in.
+ */
+public class Headers {
+
+    private Header[] mHeaders;
+
+    //lowercase name to the headers with that name
+    private Map<String, List<Header>> mIndex;
+
+    public Headers(Header[] headers) {
+        mHeaders = headers;
+
+        mIndex = new HashMap<String, List<Header>>(headers.length * 2);
+        for (Header header : headers) {
+            String name = toKey(header.getName());
+            List<Header> named = mIndex.get(name);
+            if (named == null) {
+                named = new ArrayList<Header>(1);
+                mIndex.put(name, named);
+            }
+            named.add(header);
+        }
+    }
+
+    /**
+     * @param name the name of the header, in any case
+     * @return the first header with the name or null if there isn't one
+     */
+    public Header get(String name) {
+        List<Header> named = mIndex.get(toKey(name));
+        return named == null ? null : named.get(0);
+    }
+
+    /**
+     * @param name the name of the header, in any case
+     * @return the value of the first header with the name or null if there isn't one
+     */
+    public String getValue(String name) {
+        Header header = get(name);
+        return header == null ? null : header.getValue();
+    }
+
+    /**
+     * @param name the name of the headers, in any case
+     * @return every header with the name, which is empty if there aren't any
+     */
+    public List<Header> getAll(String name) {
+        List<Header> named = mIndex.get(toKey(name));
+        if (named == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(named);
+    }
+
+    public int size() {
+        return mHeaders.length;
+    }
+
+    /**
+     * @return the headers in the order they were sent
+     */
+    public Header[] toArray() {
+        return mHeaders;
+    }
+
+    private static String toKey(String name) {
+        return name.toLowerCase(Locale.US);
+    }
+}
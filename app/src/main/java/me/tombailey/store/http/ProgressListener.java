@@ -0,0 +1,18 @@
+package me.tombailey.store.http;
+
+/**
+ * Follows a message body being written to a file or stream, see
+ * {@link Request#executeTo(java.io.OutputStream, ProgressListener)}. Methods are called on the
+ * thread doing the writing.
+ */
+public interface ProgressListener {
+
+    /**
+     *
+     * @param bytesRead the number of bytes of the message body written so far
+     * @param totalBytes the length of the message body or -1 if it isn't known, such as when it
+     *                   is compressed or chunked
+     */
+    void onProgress(long bytesRead, long totalBytes);
+
+}
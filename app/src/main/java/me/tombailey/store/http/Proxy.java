@@ -1,10 +1,15 @@
 package me.tombailey.store.http;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by tomba on 25/01/2017.
@@ -17,30 +22,234 @@ public class Proxy {
     private static final byte STREAM_CONNECTION_BYTE = 1;
     private static final byte REQUEST_GRANTED_BYTE = 90;
 
+    private static final byte SOCKS5_BYTE = 5;
+    private static final byte NO_AUTHENTICATION_BYTE = 0;
+    private static final byte USERNAME_PASSWORD_AUTHENTICATION_BYTE = 2;
+    private static final byte USERNAME_PASSWORD_VERSION_BYTE = 1;
+    private static final byte SUCCEEDED_BYTE = 0;
+    private static final byte RESERVED_BYTE = 0;
+    private static final byte IPV4_ADDRESS_BYTE = 1;
+    private static final byte DOMAIN_NAME_BYTE = 3;
+    private static final byte IPV6_ADDRESS_BYTE = 4;
+
+    private static final String ISO_8859_1 = "ISO-8859-1";
+    private static final String UTF_8 = "UTF-8";
+
 
     private String mHost;
     private int mPort;
 
+    private boolean mSocks5;
+    private String mUsername;
+    private String mPassword;
+
+    private Isolation mIsolation;
+    private int mCircuits;
+    private AtomicInteger mNextCircuit;
+
+    private boolean mOptimisticData;
+
+    /**
+     * Creates a SOCKS4a proxy, use {@link Builder} for SOCKS5
+     * @param host the host of the proxy
+     * @param port the port of the proxy
+     */
     public Proxy(String host, int port) {
+        this(host, port, false, null, null, Isolation.NONE, 1, false);
+    }
+
+    private Proxy(String host, int port, boolean socks5, String username, String password,
+                  Isolation isolation, int circuits, boolean optimisticData) {
         mHost = host;
         mPort = port;
+
+        mSocks5 = socks5;
+        mUsername = username;
+        mPassword = password;
+
+        mIsolation = isolation;
+        mCircuits = circuits;
+        mNextCircuit = new AtomicInteger();
+
+        mOptimisticData = optimisticData;
     }
 
     public Socket getSocketFor(String destinationHost, int destintationPort, int timeout) throws IOException {
-        Socket proxySocket = new Socket();
+        return getSocketFor(destinationHost, destintationPort, timeout,
+                getIsolationToken(destinationHost));
+    }
+
+    /**
+     * @param destinationHost the host to connect to through the proxy
+     * @param destintationPort the port to connect to through the proxy
+     * @param timeout the time, in milliseconds, to wait for the proxy to accept the connection
+     * @param isolationToken from {@link #getIsolationToken(String)}
+     * @return a socket connected to the destination
+     * @throws IOException if the proxy could not be reached or refused the connection
+     */
+    public Socket getSocketFor(String destinationHost, int destintationPort, int timeout,
+                               String isolationToken) throws IOException {
+        return getSocketFor(destinationHost, destintationPort, timeout, isolationToken, false);
+    }
+
+    /**
+     * @param destinationHost the host to connect to through the proxy
+     * @param destintationPort the port to connect to through the proxy
+     * @param timeout the time, in milliseconds, to wait for the proxy to accept the connection
+     * @param isolationToken from {@link #getIsolationToken(String)}
+     * @param plaintextClientFirst true if the caller will write plaintext to the socket before
+     *                             reading from it, in which case the proxy's reply to the
+     *                             connect request may not be read until the first read (see
+     *                             {@link Builder#optimisticData(boolean)})
+     * @return a socket connected (or being connected) to the destination
+     * @throws IOException if the proxy could not be reached or refused the connection
+     */
+    public Socket getSocketFor(String destinationHost, int destintationPort, int timeout,
+                               String isolationToken, boolean plaintextClientFirst)
+            throws IOException {
+        boolean optimistic = mOptimisticData && plaintextClientFirst;
+        Socket proxySocket = optimistic ? new OptimisticSocket() : new Socket();
         proxySocket.connect(new InetSocketAddress(mHost, mPort), timeout);
-        socks4aHandShake(proxySocket, destinationHost, destintationPort);
+        try {
+            if (mSocks5) {
+                socks5Authenticate(proxySocket, isolationToken);
+                socks5Connect(proxySocket, destinationHost, destintationPort);
+            } else {
+                socks4aInit(proxySocket, destinationHost, destintationPort);
+            }
+
+            if (optimistic) {
+                ((OptimisticSocket) proxySocket).expectConnectReply();
+            } else {
+                verifyConnect(new DataInputStream(proxySocket.getInputStream()));
+            }
+        } catch (IOException ioe) {
+            proxySocket.close();
+            throw ioe;
+        }
         return proxySocket;
     }
 
-    private void socks4aHandShake(Socket socket, String destinationHost, int destintationPort) throws IOException {
-        socks4aInit(socket, destinationHost, destintationPort);
-        socks4aVerify(socket);
+    private void verifyConnect(DataInputStream inputStream) throws IOException {
+        if (mSocks5) {
+            socks5Verify(inputStream);
+        } else {
+            socks4aVerify(inputStream);
+        }
+    }
+
+    /**
+     * Tor keeps streams with different SOCKS5 usernames and passwords on different circuits, so
+     * connections made with different tokens don't share a circuit
+     * @param destinationHost the host which is about to be connected to
+     * @return the isolation token to connect with, decided by the isolation policy, or null if
+     * connections aren't isolated
+     */
+    public String getIsolationToken(String destinationHost) {
+        switch (mIsolation) {
+            case PER_HOST:
+                return destinationHost.toLowerCase(Locale.US);
+            case ROUND_ROBIN:
+                int circuit = (mNextCircuit.getAndIncrement() & Integer.MAX_VALUE) % mCircuits;
+                return "circuit-" + circuit;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Round robin tokens change with every connection to spread connections over circuits, rather
+     * than to keep requests apart, so an idle connection made on any circuit can be reused
+     * @param destinationHost the host which a connection is needed for
+     * @return the isolation token an idle connection must have been made with to be reused, or
+     * null if any connection to the host will do
+     */
+    public String getReusableIsolationToken(String destinationHost) {
+        return mIsolation == Isolation.ROUND_ROBIN ? null : getIsolationToken(destinationHost);
+    }
+
+    private void socks5Authenticate(Socket socket, String isolationToken) throws IOException {
+        //handshake according to https://tools.ietf.org/html/rfc1928 and
+        //https://tools.ietf.org/html/rfc1929 with each message sent in a single write
+        DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+
+        String username = isolationToken == null ? mUsername : isolationToken;
+        String password = isolationToken == null ? mPassword : isolationToken;
+        byte method = username == null ? NO_AUTHENTICATION_BYTE : USERNAME_PASSWORD_AUTHENTICATION_BYTE;
+        socket.getOutputStream().write(new byte[]{SOCKS5_BYTE, 1, method});
+
+        byte version = inputStream.readByte();
+        byte chosenMethod = inputStream.readByte();
+        if (version != SOCKS5_BYTE || chosenMethod != method) {
+            throw new IOException("SOCKS5 proxy did not accept authentication method " + method);
+        } else if (method == NO_AUTHENTICATION_BYTE) {
+            return;
+        }
+
+        ByteArrayOutputStream authentication = new ByteArrayOutputStream(64);
+        authentication.write(USERNAME_PASSWORD_VERSION_BYTE);
+        writeLengthPrefixed(authentication, username.getBytes(UTF_8));
+        writeLengthPrefixed(authentication, password.getBytes(UTF_8));
+        authentication.writeTo(socket.getOutputStream());
+
+        inputStream.readByte();
+        byte status = inputStream.readByte();
+        if (status != SUCCEEDED_BYTE) {
+            throw new IOException("SOCKS5 authentication failed, got " + status);
+        }
+    }
+
+    private void socks5Connect(Socket socket, String destinationHost, int destinationPort)
+            throws IOException {
+        ByteArrayOutputStream connect = new ByteArrayOutputStream(destinationHost.length() + 7);
+        connect.write(SOCKS5_BYTE);
+        connect.write(STREAM_CONNECTION_BYTE);
+        connect.write(RESERVED_BYTE);
+        //send the domain name to be resolved by the proxy
+        connect.write(DOMAIN_NAME_BYTE);
+        writeLengthPrefixed(connect, destinationHost.getBytes(ISO_8859_1));
+        connect.write(destinationPort >> 8);
+        connect.write(destinationPort);
+        connect.writeTo(socket.getOutputStream());
+    }
+
+    private void socks5Verify(DataInputStream inputStream) throws IOException {
+        inputStream.readByte();
+        byte reply = inputStream.readByte();
+        if (reply != SUCCEEDED_BYTE) {
+            throw new IOException("SOCKS5 connect failed, got " + reply + ", but expected 0x00");
+        }
+
+        //read the unused bound address so the socket produces application data only
+        inputStream.readByte();
+        byte addressType = inputStream.readByte();
+        int addressLength;
+        if (addressType == IPV4_ADDRESS_BYTE) {
+            addressLength = 4;
+        } else if (addressType == IPV6_ADDRESS_BYTE) {
+            addressLength = 16;
+        } else if (addressType == DOMAIN_NAME_BYTE) {
+            addressLength = inputStream.readUnsignedByte();
+        } else {
+            throw new IOException("SOCKS5 connect replied with unknown address type " + addressType);
+        }
+        inputStream.readFully(new byte[addressLength + 2]);
+    }
+
+    private static void writeLengthPrefixed(ByteArrayOutputStream outputStream, byte[] value)
+            throws IOException {
+        if (value.length > 255) {
+            throw new IOException("SOCKS5 fields can't be longer than 255 bytes");
+        }
+        outputStream.write(value.length);
+        outputStream.write(value);
     }
 
     private void socks4aInit(Socket socket, String destinationHost, int destintationPort) throws IOException {
-        //handshake according to https://en.wikipedia.org/wiki/SOCKS
-        DataOutputStream outputStream = new DataOutputStream(socket.getOutputStream());
+        //handshake according to https://en.wikipedia.org/wiki/SOCKS, buffered so that it is sent
+        //in a single write
+        ByteArrayOutputStream request = new ByteArrayOutputStream(destinationHost.length() + 10);
+        DataOutputStream outputStream = new DataOutputStream(request);
 
         //send socks version
         outputStream.writeByte(SOCKS4A_BYTE);
@@ -60,11 +269,12 @@ public class Proxy {
         //send domain name to be resolved
         outputStream.writeBytes(destinationHost);
         outputStream.writeByte(NULL_BYTE);
+
+        request.writeTo(socket.getOutputStream());
     }
 
-    private void socks4aVerify(Socket socket) throws IOException {
+    private void socks4aVerify(DataInputStream inputStream) throws IOException {
         //handshake according to https://en.wikipedia.org/wiki/SOCKS
-        DataInputStream inputStream = new DataInputStream(socket.getInputStream());
 
         //receive response bytes
         byte firstByte = inputStream.readByte();
@@ -74,8 +284,213 @@ public class Proxy {
             inputStream.readShort();
             inputStream.readInt();
         } else {
-            socket.close();
             throw new IOException("SOCKS4a connect failed, got " + firstByte + " - " + secondByte + ", but expected 0x00 - 0x5a");
         }
     }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        } else if (other instanceof Proxy) {
+            Proxy otherProxy = (Proxy) other;
+            return mPort == otherProxy.mPort && mHost.equals(otherProxy.mHost) &&
+                    mSocks5 == otherProxy.mSocks5 &&
+                    (mUsername == null ? otherProxy.mUsername == null : mUsername.equals(otherProxy.mUsername)) &&
+                    (mPassword == null ? otherProxy.mPassword == null : mPassword.equals(otherProxy.mPassword)) &&
+                    mIsolation == otherProxy.mIsolation && mCircuits == otherProxy.mCircuits &&
+                    mOptimisticData == otherProxy.mOptimisticData;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        int hashCode = 31 * mHost.hashCode() + mPort;
+        hashCode = 31 * hashCode + (mSocks5 ? 1 : 0);
+        hashCode = 31 * hashCode + (mUsername == null ? 0 : mUsername.hashCode());
+        hashCode = 31 * hashCode + mIsolation.hashCode();
+        return hashCode;
+    }
+
+    /**
+     * A socket which has sent its connect request to the proxy without waiting for the reply,
+     * which is read and checked before the first read of application data instead
+     */
+    private class OptimisticSocket extends Socket {
+
+        private boolean mConnectReplyExpected;
+        private InputStream mInputStream;
+
+        private void expectConnectReply() {
+            mConnectReplyExpected = true;
+        }
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            if (mInputStream == null) {
+                mInputStream = new FilterInputStream(super.getInputStream()) {
+                    @Override
+                    public int read() throws IOException {
+                        verifyConnectIfExpected();
+                        return super.read();
+                    }
+
+                    @Override
+                    public int read(byte[] buffer, int offset, int length) throws IOException {
+                        verifyConnectIfExpected();
+                        return super.read(buffer, offset, length);
+                    }
+
+                    @Override
+                    public int available() throws IOException {
+                        return mConnectReplyExpected ? 0 : super.available();
+                    }
+                };
+            }
+            return mInputStream;
+        }
+
+        private void verifyConnectIfExpected() throws IOException {
+            if (mConnectReplyExpected) {
+                mConnectReplyExpected = false;
+                try {
+                    verifyConnect(new DataInputStream(super.getInputStream()));
+                } catch (IOException ioe) {
+                    close();
+                    throw ioe;
+                }
+            }
+        }
+    }
+
+    /**
+     * How connections are spread across Tor circuits
+     */
+    public enum Isolation {
+
+        /**
+         * Connections share whichever circuits Tor picks
+         */
+        NONE,
+
+        /**
+         * Connections to different hosts use different circuits
+         */
+        PER_HOST,
+
+        /**
+         * Connections take turns using a fixed number of circuits
+         */
+        ROUND_ROBIN
+
+    }
+
+    public static class Builder {
+
+        private static final int DEFAULT_CIRCUITS = 4;
+
+
+        private String mHost;
+        private int mPort;
+
+        private boolean mSocks5;
+        private String mUsername;
+        private String mPassword;
+
+        private Isolation mIsolation;
+        private int mCircuits;
+
+        private boolean mOptimisticData;
+
+        public Builder() {
+            mIsolation = Isolation.NONE;
+            mCircuits = DEFAULT_CIRCUITS;
+        }
+
+        public Builder host(String host) {
+            mHost = host;
+            return this;
+        }
+
+        public Builder port(int port) {
+            mPort = port;
+            return this;
+        }
+
+        public Builder socks4a() {
+            mSocks5 = false;
+            return this;
+        }
+
+        public Builder socks5() {
+            mSocks5 = true;
+            return this;
+        }
+
+        /**
+         * @param username to authenticate with the SOCKS5 proxy
+         * @param password to authenticate with the SOCKS5 proxy
+         * @return the builder
+         */
+        public Builder credentials(String username, String password) {
+            mUsername = username;
+            mPassword = password;
+            return this;
+        }
+
+        /**
+         * Spreads connections across Tor circuits by connecting with different SOCKS5 usernames
+         * and passwords, which Tor isolates from each other
+         * @param isolation how to spread connections
+         * @return the builder
+         */
+        public Builder isolation(Isolation isolation) {
+            mIsolation = isolation;
+            return this;
+        }
+
+        /**
+         * @param circuits the number of circuits used by {@link Isolation#ROUND_ROBIN}
+         * @return the builder
+         */
+        public Builder circuits(int circuits) {
+            mCircuits = circuits;
+            return this;
+        }
+
+        /**
+         * Sends the first plaintext request on a connection (to a .onion over HTTP) straight
+         * after the connect request, rather than waiting for the proxy to reply first, which
+         * saves a round trip through the Tor network for each new connection. The reply is
+         * checked before the response is read. Tor supports this but other proxies may not.
+         * Connections which use TLS always wait for the reply.
+         * @param optimisticData true to send requests before the proxy has connected
+         * @return the builder
+         */
+        public Builder optimisticData(boolean optimisticData) {
+            mOptimisticData = optimisticData;
+            return this;
+        }
+
+        public Proxy build() {
+            if (mHost == null || mPort < 1) {
+                throw new IllegalArgumentException("host or port was missing");
+            } else if (!mSocks5 && (mUsername != null || mIsolation != Isolation.NONE)) {
+                throw new IllegalArgumentException("credentials and isolation need SOCKS5");
+            } else if (mUsername != null && mIsolation != Isolation.NONE) {
+                throw new IllegalArgumentException("isolation uses the credentials, so they " +
+                        "can't be set as well");
+            } else if ((mUsername == null) != (mPassword == null)) {
+                throw new IllegalArgumentException("username and password must both be set");
+            } else if (mCircuits < 1) {
+                throw new IllegalArgumentException("circuits must be positive");
+            }
+
+            return new Proxy(mHost, mPort, mSocks5, mUsername, mPassword, mIsolation, mCircuits,
+                    mOptimisticData);
+        }
+
+    }
 }
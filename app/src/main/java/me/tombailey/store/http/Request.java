@@ -1,27 +1,37 @@
 package me.tombailey.store.http;
 
-import android.util.Base64;
 import android.util.Log;
 
 import javax.net.ssl.SSLSocketFactory;
 
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.Socket;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
-import io.realm.Realm;
-import io.realm.RealmQuery;
-import io.realm.RealmResults;
-import io.realm.Sort;
 import me.tombailey.store.http.form.body.FormBody;
-import me.tombailey.store.http.internal.cache.CachedFile;
+import me.tombailey.store.http.internal.cache.CacheFileNames;
+import me.tombailey.store.http.internal.cache.CacheWritingInputStream;
+import me.tombailey.store.http.internal.connection.Address;
+import me.tombailey.store.http.internal.connection.Connection;
+import me.tombailey.store.http.internal.connection.TlsSockets;
+import me.tombailey.store.http.internal.io.MessageBodyInputStream;
+import me.tombailey.store.http.internal.io.RequestWriter;
 
 /**
  * Created by Tom on 20/01/2017.
@@ -32,11 +42,26 @@ public class Request {
 
     private static final int ONE_MINUTE_IN_SECONDS = 60000;
 
-    private static final String CRLF = "\r\n";
-    private static final String ISO_8859_1 = "ISO-8859-1";
+    private static final int CANCELED_CHECK_INTERVAL = 100; //100ms
+
+    //message bodies written to a file or stream are read through a buffer of this size, however
+    //large they are
+    private static final int WRITE_BUFFER_SIZE = 16 * 1024; //16kb
+
+    //GET requests which are being made, by cache identifier, so that identical requests can wait
+    //for them instead of being made at the same time
+    private static final Map<String, InFlightRequest> sInFlightRequests =
+            new HashMap<String, InFlightRequest>();
+
+    //stale cached responses being refreshed in the background, by cache identifier, so that
+    //serving one repeatedly doesn't refresh it more than once at a time
+    private static final Set<String> sRevalidations = new HashSet<String>();
 
 
     private static Cache sCache;
+    private static ConnectionPool sConnectionPool;
+    private static Dispatcher sDispatcher;
+    private static SSLSocketFactory sSSLSocketFactory;
 
 
     private Proxy mProxy;
@@ -49,6 +74,19 @@ public class Request {
 
     private int mTimeout;
 
+    private SSLSocketFactory mSSLSocketFactory;
+
+    //overrides the proxy's isolation policy, so that copies of this request use their own circuit
+    private String mIsolationToken;
+
+    //set on the background request which refreshes a response served with stale-while-revalidate,
+    //so that it goes to the network rather than serving the stale response again
+    private boolean mRevalidating;
+
+    private volatile boolean mCanceled;
+    //the connection currently being used, so that it can be closed if the request is canceled
+    private Connection mActiveConnection;
+
     private Request(Proxy proxy, String url, String method, List<Header> headers, int timeout) {
         this(proxy, url, method, headers, timeout, null);
     }
@@ -65,82 +103,571 @@ public class Request {
         mTimeout = timeout;
     }
 
+    /**
+     * Executes the request, reading the whole response into memory. GET requests made while an
+     * identical GET request is already in flight wait for, and share, its response rather than
+     * making another connection.
+     * @return the response
+     * @throws IOException if the request could not be made
+     */
     public Response execute() throws IOException {
+        //requests waiting for a background refresh would wait for the network after all, so
+        //refreshes aren't shared
+        if (Method.GET.getValue().equals(mMethod) && mFormBody == null && !mRevalidating) {
+            return executeCoalesced();
+        }
+        return execute(false);
+    }
+
+    private Response executeCoalesced() throws IOException {
         String identifier = mMethod + mUrl;
-        if (isResponseCached(identifier)) {
-            return getCachedResponse(identifier);
+
+        InFlightRequest inFlightRequest;
+        boolean inFlight;
+        synchronized (sInFlightRequests) {
+            inFlightRequest = sInFlightRequests.get(identifier);
+            inFlight = inFlightRequest != null;
+            if (!inFlight) {
+                inFlightRequest = new InFlightRequest(this);
+                sInFlightRequests.put(identifier, inFlightRequest);
+            }
         }
 
-        Socket socket = createSocket();
-        //grab inputStream before request is sent, and therefore before data is received
-        InputStream socketInputStream = socket.getInputStream();
-        writeRequest(socket);
+        if (inFlight) {
+            return awaitInFlightRequest(inFlightRequest);
+        }
 
-        Response response = getResponse(socketInputStream);
-        socket.close();
+        try {
+            Response response = execute(false);
+            inFlightRequest.complete(response, null);
+            return response;
+        } catch (IOException ioe) {
+            inFlightRequest.complete(null, ioe);
+            throw ioe;
+        } finally {
+            synchronized (sInFlightRequests) {
+                sInFlightRequests.remove(identifier);
+            }
+            //only has an effect if something other than an IOException was thrown
+            inFlightRequest.complete(null, null);
+        }
+    }
 
+    private Response awaitInFlightRequest(InFlightRequest inFlightRequest) throws IOException {
+        try {
+            //wake up now and then in case this request is canceled while waiting
+            while (!inFlightRequest.await(CANCELED_CHECK_INTERVAL)) {
+                throwIfCanceled();
+            }
+        } catch (InterruptedException ie) {
+            throw new InterruptedIOException("interrupted while waiting for an identical request");
+        }
+        throwIfCanceled();
+
+        if (inFlightRequest.getResponse() != null) {
+            return inFlightRequest.getResponse();
+        } else if (inFlightRequest.getRequest().isCanceled()) {
+            //the request being waited for didn't fail, it was canceled by whoever made it
+            return executeCoalesced();
+        } else {
+            throw new IOException("an identical request failed", inFlightRequest.getFailure());
+        }
+    }
+
+    /**
+     * Executes the request in the background using the dispatcher set with
+     * {@link #setDispatcher(Dispatcher)} (or a default one)
+     * @param callback to be given the response or failure, may be null if the returned call is
+     *                 used to wait for the response instead
+     * @return the call, which can be used to wait for the response or cancel the request
+     */
+    public Call enqueue(Callback callback) {
+        Dispatcher dispatcher = getDispatcher();
+        Call call = new Call(this, callback, dispatcher);
+        dispatcher.enqueue(call);
+        return call;
+    }
+
+    /**
+     * Cancels the request. A request which is already running is stopped by closing its
+     * connection, so it fails with an IOException.
+     */
+    public void cancel() {
+        mCanceled = true;
+
+        Connection activeConnection;
+        synchronized (this) {
+            activeConnection = mActiveConnection;
+            mActiveConnection = null;
+        }
+        if (activeConnection != null) {
+            activeConnection.close();
+        }
+    }
+
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    protected String getHost() {
+        try {
+            return new URL(mUrl).getHost();
+        } catch (MalformedURLException mue) {
+            //the url was already checked by Builder
+            throw new IllegalStateException(mue);
+        }
+    }
+
+    /**
+     * @return the isolation token the proxy would connect to this request's host with, or null if
+     * connections aren't isolated
+     */
+    protected String getIsolationToken() {
+        return mProxy.getIsolationToken(getHost());
+    }
+
+    /**
+     * @param isolationToken the isolation token to connect with instead of the one chosen by the
+     *                       proxy's isolation policy, or null to use the policy
+     * @return a request which isn't canceled, for the same url, with the same headers
+     */
+    protected Request copy(String isolationToken) {
+        Request request = new Request(mProxy, mUrl, mMethod, mHeaders, mTimeout, mFormBody);
+        request.mSSLSocketFactory = mSSLSocketFactory;
+        request.mIsolationToken = isolationToken;
+        return request;
+    }
+
+    /**
+     * Streams the response without looking in, or writing to, the cache. Used for partial
+     * responses which mustn't be cached as if they were the whole response
+     * @param extraHeaders headers to send as well as the request's own, like Range
+     * @return the response, which should be closed once its message body is no longer needed
+     * @throws IOException if the request could not be made
+     */
+    protected Response executeWithoutCache(List<Header> extraHeaders) throws IOException {
+        throwIfCanceled();
+        Response response = getResponse(extraHeaders);
+        throwIfCanceled();
+        return response;
+    }
+
+    /**
+     * Like {@link #execute()} but returns as soon as the status line and headers have been read.
+     * The message body is then read from the connection through
+     * {@link Response#getMessageBodyStream()}, so large bodies don't need to fit in memory.
+     * Streamed responses are cached once their message body has been completely read.
+     * @return the response, which should be closed once its message body is no longer needed
+     * @throws IOException if the request could not be made
+     */
+    public Response executeStreaming() throws IOException {
+        return execute(true);
+    }
+
+    /**
+     * Like {@link #executeStreaming()} but writes the message body to a file as it is read, so
+     * that large downloads don't need to fit in memory
+     * @param file where to write the message body, which is deleted if the request fails or is
+     *             canceled
+     * @param progressListener to be told how much has been written, may be null
+     * @return the response, whose message body has already been written to the file
+     * @throws IOException if the request could not be made or the file could not be written
+     */
+    public Response executeTo(File file, ProgressListener progressListener) throws IOException {
+        OutputStream outputStream = new FileOutputStream(file);
+        boolean written = false;
+        try {
+            Response response = executeTo(outputStream, progressListener);
+            written = true;
+            return response;
+        } finally {
+            outputStream.close();
+            if (!written) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Like {@link #executeStreaming()} but writes the message body to a stream as it is read
+     * through a fixed size buffer, so that large downloads don't need to fit in memory. Canceling
+     * the request stops the message body being written
+     * @param outputStream where to write the message body, which is flushed but not closed
+     * @param progressListener to be told how much has been written, may be null
+     * @return the response, whose message body has already been written to the stream
+     * @throws IOException if the request could not be made or the stream could not be written
+     */
+    public Response executeTo(OutputStream outputStream, ProgressListener progressListener)
+            throws IOException {
+        Response response = execute(true);
+
+        InputStream messageBodyStream = response.getMessageBodyStream();
+        try {
+            long totalBytes = response.getMessageBodyLength();
+            long bytesRead = 0;
+            byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+            int read;
+            while ((read = messageBodyStream.read(buffer)) != -1) {
+                //cached message bodies aren't read from a connection which canceling closes
+                throwIfCanceled();
+                outputStream.write(buffer, 0, read);
+
+                bytesRead += read;
+                if (progressListener != null) {
+                    progressListener.onProgress(bytesRead, totalBytes);
+                }
+            }
+        } finally {
+            messageBodyStream.close();
+        }
+        outputStream.flush();
+
+        return response;
+    }
+
+    private Response execute(boolean streaming) throws IOException {
+        throwIfCanceled();
+
+        String identifier = mMethod + mUrl;
+        CacheEntry staleCachedFile = null;
+        //the directives the stale response was cached with, if it can still be served stale
+        CacheControl staleCacheControl = null;
+        if (sCache != null) {
+            Response memoryCachedResponse = sCache.getFromMemory(identifier);
+            if (memoryCachedResponse != null) {
+                return memoryCachedResponse;
+            }
+
+            CacheEntry cachedFile = sCache.getCachedFile(identifier);
+            long now = System.currentTimeMillis();
+            if (cachedFile != null) {
+                if (cachedFile.getValidUntil() > now) {
+                    Response cachedResponse = getCachedResponse(cachedFile);
+                    if (cachedResponse != null) {
+                        return cachedResponse;
+                    }
+                } else if (cachedFile.isExpired(now)) {
+                    sCache.removeCachedFile(cachedFile);
+                } else if (cachedFile.getStaleUntil() > now) {
+                    staleCacheControl = getCachedCacheControl(cachedFile);
+                    staleCachedFile = staleCacheControl == null ? null : cachedFile;
+                } else {
+                    staleCachedFile = cachedFile;
+                }
+            }
+        }
+
+        if (staleCacheControl != null && !mRevalidating && canServeStale(staleCachedFile,
+                staleCacheControl.getStaleWhileRevalidate())) {
+            Response staleResponse = getStaleResponse(staleCachedFile);
+            if (staleResponse != null) {
+                //refreshing over Tor can take seconds, so don't make the caller wait for it
+                revalidateInBackground();
+                return staleResponse;
+            }
+            staleCachedFile = null;
+            staleCacheControl = null;
+        }
+
+        Response response;
+        try {
+            response = getResponse(getConditionalHeaders(staleCachedFile));
+        } catch (IOException ioe) {
+            throwIfCanceled();
+            if (staleCacheControl != null && canServeStale(staleCachedFile,
+                    staleCacheControl.getStaleIfError())) {
+                Response staleResponse = getStaleResponse(staleCachedFile);
+                if (staleResponse != null) {
+                    Log.w(LOG_TAG, "failed to revalidate a cached response, serving it stale");
+                    return staleResponse;
+                }
+            }
+            throw ioe;
+        }
+        throwIfCanceled();
+        if (staleCachedFile != null && response.getStatusCode() == 304) {
+            response.bufferMessageBody();
+            Response revalidatedResponse = revalidateCachedResponse(staleCachedFile, response);
+            if (revalidatedResponse != null) {
+                return revalidatedResponse;
+            }
+
+            //the cached file is missing, so the response has to be requested in full
+            response = getResponse(Collections.<Header>emptyList());
+            throwIfCanceled();
+        } else if (staleCacheControl != null && response.getStatusCode() >= 500 &&
+                canServeStale(staleCachedFile, staleCacheControl.getStaleIfError())) {
+            Response staleResponse = getStaleResponse(staleCachedFile);
+            if (staleResponse != null) {
+                response.close();
+                return staleResponse;
+            }
+        }
+
+        CacheWriteListener cacheWriteListener = null;
         if (shouldCache(response)) {
-            tryToCacheResponse(response);
+            cacheWriteListener = cacheWhileReading(response);
+        }
+
+        if (streaming) {
+            return response;
+        }
+
+        response.bufferMessageBody();
+        throwIfCanceled();
+        if (cacheWriteListener != null && cacheWriteListener.isCached()) {
+            sCache.putInMemory(identifier, response, cacheWriteListener.getValidUntil());
         }
 
         return response;
     }
 
+    private void throwIfCanceled() throws IOException {
+        if (mCanceled) {
+            throw new IOException("request was canceled");
+        }
+    }
+
     public boolean isResponseCached(String cachedFileIdentifier) {
         if (sCache == null) {
             return false;
         } else {
-            Realm realm = sCache.getRealm();
-            RealmQuery<CachedFile> cachedFileQuery = realm.where(CachedFile.class)
-                    .equalTo("id", cachedFileIdentifier);
-            CachedFile cachedFile = cachedFileQuery.findFirst();
-
+            CacheEntry cachedFile = sCache.getCachedFile(cachedFileIdentifier);
             if (cachedFile == null) {
-                realm.close();
+                return false;
+            } else if (cachedFile.getValidUntil() <= System.currentTimeMillis()) {
+                //stale files are kept if they can be revalidated or served stale
+                if (cachedFile.isExpired(System.currentTimeMillis())) {
+                    sCache.removeCachedFile(cachedFile);
+                }
                 return false;
             } else {
-                if (cachedFile.getValidUntil() <= System.currentTimeMillis()) {
-                    removeCachedFile(realm, cachedFile);
-                    realm.close();
-                    return false;
-                } else {
-                    realm.close();
-                    return true;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the cached response or null if its file is missing, in which case it is removed from
+     * the cache so that it is requested again
+     */
+    private Response getCachedResponse(CacheEntry cachedFile) throws IOException {
+        Response response;
+        try {
+            response = Response.fromFile(new File(cachedFile.getFilePath()));
+        } catch (FileNotFoundException fnfe) {
+            Log.w(LOG_TAG, "cached response is missing its file");
+            sCache.removeCachedFile(cachedFile);
+            return null;
+        }
+
+        sCache.setLastUsed(cachedFile.getId(), System.currentTimeMillis());
+        sCache.putInMemory(cachedFile.getId(), response, cachedFile.getValidUntil());
+        return response;
+    }
+
+    /**
+     * @param staleCachedFile the cached file, which is stale
+     * @param staleFor the time, in seconds, the response can be served for once it is stale or -1
+     *                 if it can't be
+     * @return true if the response hasn't been stale for longer than that
+     */
+    private static boolean canServeStale(CacheEntry staleCachedFile, int staleFor) {
+        return staleFor > 0 &&
+                System.currentTimeMillis() - staleCachedFile.getValidUntil() < staleFor * 1000L;
+    }
+
+    /**
+     * @return the directives the response was cached with or null if its file is missing or
+     * unreadable, in which case it is removed from the cache so that it is requested again
+     */
+    private CacheControl getCachedCacheControl(CacheEntry cachedFile) {
+        try {
+            return Response.headFromFile(new File(cachedFile.getFilePath())).getCacheControl();
+        } catch (IOException ioe) {
+            Log.w(LOG_TAG, "failed to read a cached response");
+            sCache.removeCachedFile(cachedFile);
+            return null;
+        }
+    }
+
+    /**
+     * @return the stale cached response or null if its file is missing, in which case it is
+     * removed from the cache
+     */
+    private Response getStaleResponse(CacheEntry staleCachedFile) throws IOException {
+        Response staleResponse;
+        try {
+            staleResponse = Response.fromFile(new File(staleCachedFile.getFilePath()));
+        } catch (FileNotFoundException fnfe) {
+            Log.w(LOG_TAG, "cached response is missing its file");
+            sCache.removeCachedFile(staleCachedFile);
+            return null;
+        }
+
+        //stale responses aren't held in memory, where they would already be invalid
+        sCache.setLastUsed(staleCachedFile.getId(), System.currentTimeMillis());
+        return staleResponse;
+    }
+
+    /**
+     * Refreshes a stale cached response with a copy of this request, which the dispatcher makes
+     * in the background, unless it is already being refreshed
+     */
+    private void revalidateInBackground() {
+        final String identifier = mMethod + mUrl;
+        synchronized (sRevalidations) {
+            if (!sRevalidations.add(identifier)) {
+                return;
+            }
+        }
+
+        Request revalidation = copy(mIsolationToken);
+        revalidation.mRevalidating = true;
+        revalidation.enqueue(new Callback() {
+            @Override
+            public void onResponse(Request request, Response response) {
+                finished();
+            }
+
+            @Override
+            public void onFailure(Request request, IOException ioe) {
+                Log.w(LOG_TAG, "failed to revalidate a cached response in the background");
+                finished();
+            }
+
+            private void finished() {
+                synchronized (sRevalidations) {
+                    sRevalidations.remove(identifier);
                 }
             }
+        });
+    }
+
+    private List<Header> getConditionalHeaders(CacheEntry staleCachedFile) {
+        List<Header> conditionalHeaders = new ArrayList<Header>(2);
+        if (staleCachedFile != null) {
+            if (staleCachedFile.getEtag() != null) {
+                conditionalHeaders.add(new Header("If-None-Match", staleCachedFile.getEtag()));
+            }
+            if (staleCachedFile.getLastModified() != null) {
+                conditionalHeaders.add(new Header("If-Modified-Since", staleCachedFile.getLastModified()));
+            }
         }
+        return conditionalHeaders;
     }
 
-    private void removeCachedFile(Realm realm, CachedFile cachedFile) {
-        new File(cachedFile.getFilePath()).delete();
-        realm.beginTransaction();
-        cachedFile.deleteFromRealm();
-        realm.commitTransaction();
+    /**
+     * Serves a stale cached response after the server confirmed (with 304 Not Modified) that it
+     * hasn't changed, extending its life using the freshness information in the 304 response or,
+     * if there isn't any, the cached response
+     * @return the cached response or null if its file is missing, in which case it is removed
+     * from the cache
+     */
+    private Response revalidateCachedResponse(CacheEntry cachedFile, Response notModifiedResponse)
+            throws IOException {
+        Response cachedResponse;
+        try {
+            cachedResponse = Response.fromFile(new File(cachedFile.getFilePath()));
+        } catch (FileNotFoundException fnfe) {
+            Log.w(LOG_TAG, "cached response is missing its file");
+            sCache.removeCachedFile(cachedFile);
+            return null;
+        }
+
+        //the freshness information comes from one response or the other, not a mixture
+        Response freshnessResponse = notModifiedResponse;
+        int cacheMaxAge = getCacheMaxAge(notModifiedResponse);
+        if (cacheMaxAge < 0) {
+            freshnessResponse = cachedResponse;
+            cacheMaxAge = getCacheMaxAge(cachedResponse);
+        }
+
+        long validUntil = System.currentTimeMillis() + (Math.max(cacheMaxAge, 0) * 1000L);
+        sCache.refreshCachedFile(cachedFile.getId(), validUntil,
+                getStaleUntil(freshnessResponse, validUntil),
+                getHeaderValue(notModifiedResponse, "etag"),
+                getHeaderValue(notModifiedResponse, "last-modified"));
+        sCache.putInMemory(cachedFile.getId(), cachedResponse, validUntil);
+
+        return cachedResponse;
     }
 
-    private Response getCachedResponse(String cacheFileIdentifier) throws IOException {
-        Realm realm = sCache.getRealm();
-        RealmQuery<CachedFile> cachedFileQuery = realm.where(CachedFile.class)
-                .equalTo("id", cacheFileIdentifier);
+    private static String getHeaderValue(Response response, String name) {
+        Header header = response.getHeader(name);
+        return header == null ? null : header.getValue();
+    }
 
-        CachedFile cachedFile = cachedFileQuery.findFirst();
-        realm.beginTransaction();
-        cachedFile.setLastUsed(System.currentTimeMillis());
-        realm.commitTransaction();
-        File cacheFile = new File(cachedFile.getFilePath());
-        realm.close();
+    private Response getResponse(List<Header> extraHeaders) throws IOException {
+        Address address = getAddress();
+
+        if (sConnectionPool != null) {
+            Connection pooledConnection = sConnectionPool.get(address);
+            if (pooledConnection != null) {
+                try {
+                    return getResponse(pooledConnection, extraHeaders);
+                } catch (IOException ioe) {
+                    throwIfCanceled();
+                    if (!isRetryable()) {
+                        throw ioe;
+                    }
+                    //the server may have closed the idle connection, so try again with a new one
+                    Log.w(LOG_TAG, "failed to use a pooled connection, retrying with a new connection");
+                }
+            }
+        }
 
-        return responseFromFile(cacheFile);
+        return getResponse(createConnection(address), extraHeaders);
     }
 
-    private Response responseFromFile(File cacheFile) throws IOException {
-        FileInputStream fileInputStream = new FileInputStream(cacheFile);
-        Response response = Response.fromInputStream(fileInputStream);
-        fileInputStream.close();
-        return response;
+    /**
+     * A request which failed on a pooled connection may still have reached the server, so it is
+     * only made again if doing so twice is no different to doing so once
+     * @return true if the request is idempotent
+     */
+    private boolean isRetryable() {
+        return mFormBody == null && !Method.POST.getValue().equals(mMethod);
     }
 
-    private Socket createSocket() throws IOException {
+    private Response getResponse(Connection connection, List<Header> extraHeaders) throws IOException {
+        synchronized (this) {
+            mActiveConnection = connection;
+        }
+        if (mCanceled) {
+            connection.close();
+            throw new IOException("request was canceled");
+        }
+
+        try {
+            writeRequest(connection, extraHeaders);
+            return Response.fromHttpInputStream(connection.getInputStream(),
+                    releaseOnMessageBodyEnd(connection));
+        } catch (IOException ioe) {
+            connection.close();
+            throw ioe;
+        }
+    }
+
+    private MessageBodyInputStream.Listener releaseOnMessageBodyEnd(final Connection connection) {
+        return new MessageBodyInputStream.Listener() {
+            @Override
+            public void onMessageBodyEnd(boolean reusable) {
+                synchronized (Request.this) {
+                    if (mActiveConnection == connection) {
+                        mActiveConnection = null;
+                    }
+                }
+
+                if (reusable && sConnectionPool != null) {
+                    sConnectionPool.put(connection);
+                } else {
+                    connection.close();
+                }
+            }
+        };
+    }
+
+    private Address getAddress() throws MalformedURLException {
         URL url = new URL(mUrl);
 
         int port = url.getPort();
@@ -152,180 +679,229 @@ public class Request {
             }
         }
 
-        String host = url.getHost();
-        Socket socket = mProxy.getSocketFor(host, port, mTimeout);
+        boolean secure = port == 443;
+        //a rotating token would give every request its own address, which no idle connection has
+        String isolationToken = mIsolationToken != null ? mIsolationToken :
+                mProxy.getReusableIsolationToken(url.getHost());
+        return new Address(mProxy, url.getHost(), port, secure, isolationToken,
+                secure ? getSSLSocketFactory() : null);
+    }
+
+    private Connection createConnection(Address address) throws IOException {
+        String host = address.getHost();
+        int port = address.getPort();
+        //a round robin circuit is only chosen once a new connection is actually needed
+        String isolationToken = address.getIsolationToken() != null ?
+                address.getIsolationToken() : mProxy.getIsolationToken(host);
+        //TLS handshakes can't start until the proxy has connected, but a plaintext request can be
+        //sent straight away
+        Socket socket = mProxy.getSocketFor(host, port, mTimeout, isolationToken,
+                !address.isSecure());
 
         //handle SSL/TLS handshake for HTTPS connections
-        if (port == 443) {
-            socket = ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(socket, host, port, true);
+        if (address.isSecure()) {
+            socket = TlsSockets.createSocket(address.getSSLSocketFactory(), socket, host, port);
         }
 
-        return socket;
+        return new Connection(address, socket);
     }
 
-    private void writeRequest(Socket socket) throws IOException {
-        URL url = new URL(mUrl);
-        String host = url.getHost();
-        String file = url.getFile();
-        if (file.equals("")) {
-            file = "/";
-        }
+    private void writeRequest(Connection connection, List<Header> extraHeaders) throws IOException {
+        RequestWriter.write(connection.getOutputStream(), connection.getRequestBuffer(), mMethod,
+                new URL(mUrl), sConnectionPool != null, mHeaders, extraHeaders, mFormBody);
+    }
 
-        DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
-        byte[] statusLineBytes = (mMethod + " " + file + " HTTP/1.1" + CRLF).getBytes(ISO_8859_1);
-        dataOutputStream.write(statusLineBytes);
+    private boolean shouldCache(Response response) {
+        String identifier = mMethod + mUrl;
+        if (isResponseCached(identifier)) {
+            return false;
+        } else {
+            CacheControl cacheControl = response.getCacheControl();
+            return (cacheControl.isPublic() || cacheControl.isPrivate()) && !cacheControl.isNoStore();
+        }
+    }
 
+    /**
+     * Decides whether a response can be cached from its headers and, if it can, writes it to the
+     * cache as its message body is read
+     * @return the listener which records the response in the cache once it has been written or
+     * null if it won't be cached
+     */
+    private CacheWriteListener cacheWhileReading(Response response) {
+        if (sCache == null) {
+            return null;
+        }
 
-        //explicitly avoid keep-alive (not currently supported)
-        byte[] connectionBytes = ("Connection: close" + CRLF).getBytes(ISO_8859_1);
-        dataOutputStream.write(connectionBytes);
-        byte[] hostBytes = ("Host: " + host + CRLF).getBytes(ISO_8859_1);
-        dataOutputStream.write(hostBytes);
+        int cacheMaxAge = getCacheMaxAge(response);
+        if (cacheMaxAge <= 0) {
+            return null;
+        }
 
-        for (Header header : mHeaders) {
-            byte[] headerBytes = (header.getName() + ": " + header.getValue() + CRLF).getBytes(ISO_8859_1);
-            dataOutputStream.write(headerBytes);
+        CacheWriteListener cacheWriteListener = new CacheWriteListener(response, mMethod + mUrl,
+                cacheMaxAge);
+        try {
+            File temporaryFile = File.createTempFile("response", ".tmp", sCache.getCacheDirectory());
+            response.cacheWhileReading(temporaryFile, sCache.getMaxSize(), cacheWriteListener);
+            return cacheWriteListener;
+        } catch (IOException ioe) {
+            Log.w(LOG_TAG, "failed to cache a response");
+            ioe.printStackTrace();
+            return null;
         }
+    }
 
-        byte[] endOfHeaderBytes = CRLF.getBytes(ISO_8859_1);
-        if (mFormBody != null) {
-            byte[] contentTypeHeader =
-                    ("Content-type: " + mFormBody.getContentType() + CRLF).getBytes(ISO_8859_1);
-            dataOutputStream.write(contentTypeHeader);
+    private static CacheEntry createCacheEntry(Response response, String identifier,
+                                               long validUntil, int size, File cacheTo) {
+        return new CacheEntry(identifier, validUntil, getStaleUntil(response, validUntil),
+                System.currentTimeMillis(), size, cacheTo.getAbsolutePath(),
+                getHeaderValue(response, "etag"), getHeaderValue(response, "last-modified"));
+    }
 
-            byte[] formBody = mFormBody.getBytes();
+    /**
+     * @return the time, in seconds, the response stays fresh for or -1 if it doesn't say
+     */
+    private int getCacheMaxAge(Response response) {
+        return response.getCacheControl().getFreshnessLifetime(System.currentTimeMillis());
+    }
 
-            byte[] contentLengthHeader =
-                    ("Content-length: " + formBody.length + CRLF).getBytes(ISO_8859_1);
-            dataOutputStream.write(contentLengthHeader);
-            dataOutputStream.write(endOfHeaderBytes);
+    /**
+     * @return the time, in milliseconds, until which the response can be served stale, because of
+     * stale-while-revalidate or stale-if-error, which is validUntil if it can't be
+     */
+    private static long getStaleUntil(Response response, long validUntil) {
+        return validUntil + (response.getCacheControl().getStaleLifetime() * 1000L);
+    }
 
-            dataOutputStream.write(formBody);
+    public static void setCache(Cache cache) {
+        sCache = cache;
+    }
+
+    /**
+     * @param sslSocketFactory creates the TLS sockets for HTTPS requests which don't set their own
+     *                         factory with {@link Builder#sslSocketFactory(SSLSocketFactory)}, or
+     *                         null for a factory which caches sessions so that they can be resumed
+     */
+    public static void setSSLSocketFactory(SSLSocketFactory sslSocketFactory) {
+        sSSLSocketFactory = sslSocketFactory;
+    }
+
+    private SSLSocketFactory getSSLSocketFactory() {
+        if (mSSLSocketFactory != null) {
+            return mSSLSocketFactory;
+        } else if (sSSLSocketFactory != null) {
+            return sSSLSocketFactory;
         } else {
-            dataOutputStream.write(endOfHeaderBytes);
+            return TlsSockets.getDefaultSocketFactory();
         }
-
-        dataOutputStream.flush();
-        //don't explicitly close OutputStream as keep-alive might be used
     }
 
-    private Response getResponse(InputStream socketInputStream) throws IOException {
-        return Response.fromInputStream(socketInputStream);
+    /**
+     * @param dispatcher runs requests made with {@link #enqueue(Callback)}
+     */
+    public static void setDispatcher(Dispatcher dispatcher) {
+        sDispatcher = dispatcher;
     }
 
-    private boolean shouldCache(Response response) {
-        String identifier = mMethod + mUrl;
-        if (isResponseCached(identifier)) {
-            return false;
-        } else {
-            for (Header header : response.getHeaders()) {
-                if (header.getName().equalsIgnoreCase("cache-control")) {
-                    String headerValue = header.getValue().toLowerCase();
-                    if (headerValue.startsWith("public") || headerValue.startsWith("private")) {
-                        return true;
-                    }
-                }
-            }
-            return false;
+    private static synchronized Dispatcher getDispatcher() {
+        if (sDispatcher == null) {
+            sDispatcher = new Dispatcher.Builder().build();
         }
+        return sDispatcher;
     }
 
-    private void tryToCacheResponse(Response response) {
-        if (sCache != null) {
-            int cacheMaxAge = getCacheMaxAge(response);
-            if (cacheMaxAge > 0) {
-                int responseLength = response.length();
-                if (responseLength <= sCache.getMaxSize()) {
+    /**
+     * @param connectionPool the pool to keep idle connections in for reuse by later requests or
+     *                       null to close connections after each request
+     */
+    public static void setConnectionPool(ConnectionPool connectionPool) {
+        sConnectionPool = connectionPool;
+    }
 
-                    if (responseLength > remainingCacheSpace()) {
-                        removeCacheFilesForSpace(responseLength);
-                    }
+    /**
+     * A GET request being made, which identical requests can wait for
+     */
+    private static class InFlightRequest {
 
-                    try {
-                        String identifier = mMethod + mUrl;
-                        //base64 encode to avoid problematic slashes, colons, etc in file names
-                        File cacheTo = new File(sCache.getCacheDirectory(),
-                                Base64.encodeToString(identifier.getBytes(), 0));
-                        if (!cacheTo.exists()) {
-                            cacheTo.createNewFile();
-                        }
-                        response.cache(cacheTo);
-
-                        createCachedFile(response, identifier, cacheMaxAge, cacheTo);
-                    } catch (IOException ioe) {
-                        Log.w(LOG_TAG, "failed to cache a response");
-                        ioe.printStackTrace();
-                    }
-                }
+        private Request mRequest;
+
+        private CountDownLatch mCompleted;
+        private Response mResponse;
+        private IOException mFailure;
 
+        private InFlightRequest(Request request) {
+            mRequest = request;
+            mCompleted = new CountDownLatch(1);
+        }
 
+        private synchronized void complete(Response response, IOException failure) {
+            if (mCompleted.getCount() > 0) {
+                mResponse = response;
+                mFailure = failure;
+                mCompleted.countDown();
             }
         }
-    }
 
-    private void removeCacheFilesForSpace(int requiredSpace) {
-        Realm realm = sCache.getRealm();
-        RealmResults<CachedFile> largestCachedFiles =
-                realm.where(CachedFile.class).findAllSorted("lastUsed", Sort.DESCENDING);
-        int index = 0;
-        while (remainingCacheSpace() > requiredSpace) {
-            removeCachedFile(realm, largestCachedFiles.get(index));
-            index++;
+        private boolean await(int milliseconds) throws InterruptedException {
+            return mCompleted.await(milliseconds, TimeUnit.MILLISECONDS);
+        }
+
+        private Request getRequest() {
+            return mRequest;
+        }
+
+        private synchronized Response getResponse() {
+            return mResponse;
         }
-        realm.close();
-    }
 
-    private void createCachedFile(Response response, String identifier, int cacheMaxAge, File cacheTo) throws IOException {
-        Realm realm = sCache.getRealm();
-        realm.beginTransaction();
-        long validUntil = System.currentTimeMillis() + (cacheMaxAge * 1000);
-        CachedFile cachedFile = CachedFile.create(identifier, validUntil, System.currentTimeMillis(),
-                response.length(), cacheTo.getAbsolutePath());
-        realm.insert(cachedFile);
-        realm.commitTransaction();
-        realm.close();
+        private synchronized IOException getFailure() {
+            return mFailure;
+        }
     }
 
-    private int remainingCacheSpace() {
-        int maxSize = sCache.getMaxSize();
-        int currentSize = 0;
+    /**
+     * Moves a completely written response into place in the cache, making space for it first
+     */
+    private class CacheWriteListener implements CacheWritingInputStream.Listener {
+
+        private Response mResponse;
+        private String mIdentifier;
+        private int mCacheMaxAge;
+
+        private volatile boolean mCached;
+        private long mValidUntil;
 
-        Realm realm = sCache.getRealm();
-        RealmResults<CachedFile> cachedFileQuery = realm.where(CachedFile.class)
-                .findAll();
-        for (CachedFile cachedFile : cachedFileQuery) {
-            currentSize += cachedFile.getSize();
+        private CacheWriteListener(Response response, String identifier, int cacheMaxAge) {
+            mResponse = response;
+            mIdentifier = identifier;
+            mCacheMaxAge = cacheMaxAge;
         }
-        realm.close();
 
-        return maxSize - currentSize;
-    }
+        @Override
+        public void onCacheWritten(File file) {
+            int length = (int) file.length();
+            if (length > sCache.getRemainingSpace()) {
+                sCache.removeCachedFilesForSpace(length);
+            }
 
-    private int getCacheMaxAge(Response response) {
-        int cacheMaxAge = -1;
-        for (Header header : response.getHeaders()) {
-            if (header.getName().equalsIgnoreCase("cache-control")) {
-                String cacheDirective = header.getValue().toLowerCase();
-
-                int maxAgeStarts = cacheDirective.indexOf("max-age=") + 8;
-                if (maxAgeStarts >= 0) {
-                    String maxAgeTime = "";
-                    for (int index = maxAgeStarts; index < cacheDirective.length(); index++) {
-                        try {
-                            maxAgeTime += Integer.parseInt(cacheDirective.substring(index, index + 1));
-                        } catch (NumberFormatException nfe) {
-                            break;
-                        }
-                    }
-                    return Integer.parseInt(maxAgeTime);
-                }
+            File cacheTo = new File(sCache.getCacheDirectory(), CacheFileNames.fromIdentifier(mIdentifier));
+            long validUntil = System.currentTimeMillis() + (mCacheMaxAge * 1000L);
+            if (!sCache.moveCachedFile(file, createCacheEntry(mResponse, mIdentifier, validUntil,
+                    length, cacheTo))) {
+                Log.w(LOG_TAG, "failed to cache a response");
+                return;
             }
+
+            mValidUntil = validUntil;
+            mCached = true;
         }
-        return cacheMaxAge;
-    }
 
-    public static void setCache(Cache cache) {
-        sCache = cache;
+        private boolean isCached() {
+            return mCached;
+        }
+
+        private long getValidUntil() {
+            return mValidUntil;
+        }
     }
 
     public static class Builder {
@@ -340,6 +916,8 @@ public class Request {
 
         private Integer mTimeout;
 
+        private SSLSocketFactory mSSLSocketFactory;
+
         public Builder() {
             mHeaders = new ArrayList<Header>(4);
             mTimeout = ONE_MINUTE_IN_SECONDS;
@@ -372,6 +950,16 @@ public class Request {
             return this;
         }
 
+        /**
+         * @param sslSocketFactory creates the TLS socket if the request is made over HTTPS, see
+         *                         {@link Request#setSSLSocketFactory(SSLSocketFactory)}
+         * @return the builder
+         */
+        public Builder sslSocketFactory(SSLSocketFactory sslSocketFactory) {
+            mSSLSocketFactory = sslSocketFactory;
+            return this;
+        }
+
         public Builder get() {
             mMethod = Method.GET;
             return this;
@@ -417,11 +1005,14 @@ public class Request {
                 throw new IllegalArgumentException("method (DELETE, GET, POST, PUT), proxy or url was missing");
             }
 
+            Request request;
             if (mFormBody == null) {
-                return new Request(mProxy, mUrl, mMethod.getValue(), mHeaders, mTimeout);
+                request = new Request(mProxy, mUrl, mMethod.getValue(), mHeaders, mTimeout);
             } else {
-                return new Request(mProxy, mUrl, mMethod.getValue(), mHeaders, mTimeout, mFormBody);
+                request = new Request(mProxy, mUrl, mMethod.getValue(), mHeaders, mTimeout, mFormBody);
             }
+            request.mSSLSocketFactory = mSSLSocketFactory;
+            return request;
         }
 
     }
@@ -2,18 +2,29 @@ package me.tombailey.store.http;
 
 import android.util.Log;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-import me.tombailey.store.http.internal.Pair;
+import me.tombailey.store.http.internal.cache.CacheWritingInputStream;
+import me.tombailey.store.http.internal.io.ByteBufferInputStream;
+import me.tombailey.store.http.internal.io.ChunkedInputStream;
+import me.tombailey.store.http.internal.io.ContentDecodingInputStream;
+import me.tombailey.store.http.internal.io.FixedLengthInputStream;
+import me.tombailey.store.http.internal.io.HttpInputStream;
+import me.tombailey.store.http.internal.io.MessageBodyInputStream;
+import me.tombailey.store.http.internal.io.ResponseHeadParser;
 
 /**
  * Created by Tom on 20/01/2017.
@@ -30,6 +41,9 @@ public class Response {
 
     private static final String CRLF = "\r\n";
 
+    //cached files smaller than this are read onto the heap, as mapping them costs more than copying
+    private static final int MEMORY_MAP_THRESHOLD = 32 * 1024; //32kb
+
 
     private String mHttpVersion;
 
@@ -37,17 +51,43 @@ public class Response {
     private String mStatusText;
 
     private Header[] mHeaders;
+    private Headers mHeaderIndex;
+    //parsed the first time it is needed
+    private CacheControl mCacheControl;
+    //the message body as it was sent (and is cached) and as it is given to callers, these are the
+    //same unless the message body was compressed with a Content-Encoding
+    private byte[] mEncodedMessageBody;
     private byte[] mMessageBody;
 
+    //the message body as it was cached, when it is large enough to be memory-mapped instead
+    private ByteBuffer mMappedMessageBody;
+
+    private InputStream mMessageBodyStream;
+    private InputStream mDecodedMessageBodyStream;
+    private ChunkedInputStream mChunkedInputStream;
+
     protected Response(String httpVersion, int statusCode, String statusText, Header[] headers, byte[] messageBody) {
         mHttpVersion = httpVersion;
         mStatusCode = statusCode;
         mStatusText = statusText;
 
         mHeaders = headers;
+        mHeaderIndex = new Headers(headers);
+        mEncodedMessageBody = messageBody;
         mMessageBody = messageBody;
     }
 
+    protected Response(String httpVersion, int statusCode, String statusText, Header[] headers,
+                       InputStream messageBodyStream) {
+        mHttpVersion = httpVersion;
+        mStatusCode = statusCode;
+        mStatusText = statusText;
+
+        mHeaders = headers;
+        mHeaderIndex = new Headers(headers);
+        mMessageBodyStream = messageBodyStream;
+    }
+
     public String getHttpVersion() {
         return mHttpVersion;
     }
@@ -65,35 +105,146 @@ public class Response {
     }
 
     public Header getHeader(String name) {
-        for (Header header : mHeaders) {
-            if (header.getName().equalsIgnoreCase(name)) {
-                return header;
-            }
+        return mHeaderIndex.get(name);
+    }
+
+    /**
+     * @return the caching directives of the response
+     */
+    public synchronized CacheControl getCacheControl() {
+        if (mCacheControl == null) {
+            mCacheControl = CacheControl.parse(mHeaderIndex);
         }
-        return null;
+        return mCacheControl;
     }
 
+    /**
+     * @return the message body, decompressed if it was sent with a gzip or deflate
+     * Content-Encoding. A large message body served from the cache is memory-mapped and copied
+     * onto the heap by each call, see {@link #getMessageBodyBuffer()} to avoid the copy
+     * @throws IllegalStateException if the response is being streamed, see
+     * {@link #getMessageBodyStream()}
+     */
     public byte[] getMessageBody() {
-        return mMessageBody;
+        if (mMessageBody != null) {
+            return mMessageBody;
+        } else if (mMappedMessageBody != null) {
+            byte[] messageBody = new byte[mMappedMessageBody.remaining()];
+            mMappedMessageBody.duplicate().get(messageBody);
+            return messageBody;
+        }
+        throw new IllegalStateException("message body is being streamed, use getMessageBodyStream()");
+    }
+
+    /**
+     * @return the message body as a read-only buffer, decompressed if it was sent with a gzip or
+     * deflate Content-Encoding. A large message body served from the cache is memory-mapped, so
+     * reading it doesn't copy it onto the heap
+     * @throws IllegalStateException if the response is being streamed, see
+     * {@link #getMessageBodyStream()}
+     */
+    public ByteBuffer getMessageBodyBuffer() {
+        if (mMessageBody != null) {
+            return ByteBuffer.wrap(mMessageBody).asReadOnlyBuffer();
+        } else if (mMappedMessageBody != null) {
+            return mMappedMessageBody.duplicate();
+        }
+        throw new IllegalStateException("message body is being streamed, use getMessageBodyStream()");
+    }
+
+    /**
+     * For streamed responses, the message body is read from the connection as this stream is read
+     * and the stream should be closed once it is no longer needed. The connection can only be
+     * reused if the stream is read until it produces -1.
+     * @return the message body as a stream
+     */
+    public InputStream getMessageBodyStream() {
+        if (mMessageBody != null) {
+            return new ByteArrayInputStream(mMessageBody);
+        } else if (mMappedMessageBody != null) {
+            return new ByteBufferInputStream(mMappedMessageBody.duplicate());
+        }
+
+        if (mDecodedMessageBodyStream == null) {
+            mDecodedMessageBodyStream =
+                    ContentDecodingInputStream.decode(mMessageBodyStream, getContentEncoding());
+        }
+        return mDecodedMessageBodyStream;
+    }
+
+    /**
+     * @return the length, in bytes, of the message body given to callers, or -1 if it isn't known
+     * until the message body has been read, such as when it is chunked or compressed
+     */
+    public long getMessageBodyLength() {
+        if (mMessageBody != null) {
+            return mMessageBody.length;
+        } else if (mMappedMessageBody != null) {
+            return mMappedMessageBody.remaining();
+        }
+
+        String contentEncoding = getContentEncoding();
+        Header contentLength = getHeader("content-length");
+        if (mChunkedInputStream != null || contentLength == null ||
+                (contentEncoding != null && !contentEncoding.equalsIgnoreCase("identity"))) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength.getValue().trim());
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the trailers sent after a chunked message body, which are only available once the
+     * message body has been completely read
+     */
+    public Header[] getTrailers() {
+        if (mChunkedInputStream == null) {
+            return new Header[0];
+        }
+        return mChunkedInputStream.getTrailers();
+    }
+
+    /**
+     * Releases the connection behind a streamed response. It is not necessary to close responses
+     * which have been completely read or which were not streamed.
+     * @throws IOException if the message body stream could not be closed
+     */
+    public void close() throws IOException {
+        if (mDecodedMessageBodyStream != null) {
+            mDecodedMessageBodyStream.close();
+        } else if (mMessageBodyStream != null) {
+            mMessageBodyStream.close();
+        }
+    }
+
+    private String getContentEncoding() {
+        Header contentEncodingHeader = getHeader("content-encoding");
+        if (contentEncodingHeader == null) {
+            return null;
+        }
+        return contentEncodingHeader.getValue().trim();
     }
 
     public String getMessageBodyString() throws UnsupportedEncodingException {
         Header contentTypeHeader = getHeader("content-type");
         if (contentTypeHeader == null) {
             Log.w(LOG_TAG, "content-type header missing, getMessageBodyString() may have the wrong encoding");
-            return new String(mMessageBody);
+            return new String(getMessageBody());
         }
 
         String contentTypeStr = contentTypeHeader.getValue();
         String charSet = contentTypeStr.substring(contentTypeStr.indexOf("charset=") + 8);
-        return new String(mMessageBody, charSet);
+        return new String(getMessageBody(), charSet);
     }
 
     protected int length() {
         int statusLineLength = (mHttpVersion + " " + mStatusCode + " " + mStatusText).getBytes().length + 2;
 
         int headersLength = 0;
-        for (Header header : mHeaders) {
+        for (Header header : getCachedHeaders()) {
             headersLength +=
                     (header.getName().getBytes().length +
                             ": ".getBytes().length +
@@ -102,101 +253,348 @@ public class Response {
         //for CRLF after headers finish
         headersLength += 2;
 
-        return statusLineLength + headersLength + mMessageBody.length;
+        return statusLineLength + headersLength + getEncodedMessageBodyLength();
     }
 
-    protected void cache(File cacheFile) throws IOException {
-        FileOutputStream fileOutputStream = new FileOutputStream(cacheFile);
-        fileOutputStream.write((mHttpVersion + " " + mStatusCode + " " + mStatusText + CRLF).getBytes());
+    /**
+     * @return roughly how many bytes a buffered response holds on to, which doesn't include a
+     * memory-mapped message body as it is held by the page cache rather than the heap
+     */
+    protected int sizeInMemory() {
+        if (mMappedMessageBody != null) {
+            int decodedLength = mMessageBody == null ? 0 : mMessageBody.length;
+            return length() - mMappedMessageBody.remaining() + decodedLength;
+        } else if (mMessageBody == mEncodedMessageBody) {
+            return length();
+        } else {
+            return length() + mMessageBody.length;
+        }
+    }
 
-        for (Header header : mHeaders) {
-            fileOutputStream.write(header.getName().getBytes(ISO_8859_1));
-            fileOutputStream.write(": ".getBytes(ISO_8859_1));
-            fileOutputStream.write(header.getValue().getBytes(ISO_8859_1));
-            fileOutputStream.write(new byte[]{CARRIAGE_RETURN, LINE_FEED});
+    private int getEncodedMessageBodyLength() {
+        if (mMappedMessageBody != null) {
+            return mMappedMessageBody.remaining();
         }
-        fileOutputStream.write(new byte[]{CARRIAGE_RETURN, LINE_FEED});
+        return mEncodedMessageBody.length;
+    }
+
+    /**
+     * Writes the response to a temporary file which is then renamed over the cache file, so that
+     * responses which are still memory-mapped from an older version of the file aren't truncated
+     * @param cacheFile where to cache the response
+     * @throws IOException if the response could not be written
+     */
+    protected void cache(File cacheFile) throws IOException {
+        File temporaryFile = File.createTempFile("response", ".tmp", cacheFile.getParentFile());
+        try {
+            writeTo(temporaryFile);
+            if (!temporaryFile.renameTo(cacheFile)) {
+                throw new IOException("failed to rename " + temporaryFile + " to " + cacheFile);
+            }
+        } finally {
+            //only left behind if something went wrong
+            temporaryFile.delete();
+        }
+    }
 
-        fileOutputStream.write(mMessageBody);
+    private void writeTo(File file) throws IOException {
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        fileOutputStream.write(getCachedHead());
+
+        //keep any compression on disk, the message body is decoded again when read
+        if (mMappedMessageBody != null) {
+            ByteBuffer mappedMessageBody = mMappedMessageBody.duplicate();
+            FileChannel fileChannel = fileOutputStream.getChannel();
+            while (mappedMessageBody.hasRemaining()) {
+                fileChannel.write(mappedMessageBody);
+            }
+        } else {
+            fileOutputStream.write(mEncodedMessageBody);
+        }
         fileOutputStream.close();
     }
 
 
+    /**
+     * Starts writing a streamed response to a file, which is handed to the listener once the
+     * message body has been completely read through {@link #getMessageBodyStream()} or
+     * {@link #bufferMessageBody()}. This must be called before the message body is read
+     * @param file where to write the response
+     * @param maxLength the most the file can hold, writing is abandoned beyond this
+     * @param listener to be given the file once it has been written
+     * @throws IOException if the file could not be created
+     */
+    protected void cacheWhileReading(File file, long maxLength, CacheWritingInputStream.Listener listener)
+            throws IOException {
+        mMessageBodyStream = new CacheWritingInputStream(mMessageBodyStream, file, getCachedHead(),
+                maxLength, listener);
+    }
+
+    /**
+     * @return the status line and headers, as they are cached
+     */
+    private byte[] getCachedHead() throws UnsupportedEncodingException {
+        StringBuilder head = new StringBuilder(256);
+        head.append(mHttpVersion).append(' ').append(mStatusCode).append(' ').append(mStatusText)
+                .append(CRLF);
+        for (Header header : getCachedHeaders()) {
+            head.append(header.getName()).append(": ").append(header.getValue()).append(CRLF);
+        }
+        head.append(CRLF);
+        return head.toString().getBytes(ISO_8859_1);
+    }
+
+    /**
+     * The message body is cached already decoded from any chunks, so the Transfer-Encoding header
+     * is left out to stop the cached file being decoded a second time when it is read
+     * @return the headers to write to the cache
+     */
+    private List<Header> getCachedHeaders() {
+        List<Header> cachedHeaders = new ArrayList<Header>(mHeaders.length);
+        for (Header header : mHeaders) {
+            if (!header.getName().equalsIgnoreCase("transfer-encoding")) {
+                cachedHeaders.add(header);
+            }
+        }
+        return cachedHeaders;
+    }
+
     public static Response fromInputStream(InputStream inputStream) throws IOException {
-        byte[] response = getByteResponseFromInputStream(inputStream);
+        Response response = fromHttpInputStream(new HttpInputStream(inputStream), null);
+        response.bufferMessageBody();
+        return response;
+    }
 
-        Pair<Integer, String[]> metaData = getMetaData(response);
-        int metaDataLength = metaData.first();
-        String[] metaDataParts = metaData.second();
+    /**
+     * Reads a response written by {@link #cache(File)}. The message body of a large file is
+     * memory-mapped rather than copied onto the heap, unless it has to be decompressed
+     * @param cacheFile the cached response
+     * @return the response
+     * @throws IOException if the file could not be read
+     */
+    protected static Response fromFile(File cacheFile) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(cacheFile, "r");
+        try {
+            long fileLength = randomAccessFile.length();
+            if (fileLength > Integer.MAX_VALUE) {
+                throw new IOException(cacheFile + " is too large to read");
+            }
 
+            if (fileLength < MEMORY_MAP_THRESHOLD) {
+                byte[] file = new byte[(int) fileLength];
+                randomAccessFile.readFully(file);
+                return fromByteBuffer(ByteBuffer.wrap(file));
+            } else {
+                //the mapping stays valid once the file is closed (or deleted)
+                return fromByteBuffer(randomAccessFile.getChannel()
+                        .map(FileChannel.MapMode.READ_ONLY, 0, fileLength));
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
 
-        String[] statusLineParts = metaDataParts[0].split(" ");
-        String httpVersion = statusLineParts[0];
-        int statusCode = Integer.parseInt(statusLineParts[1]);
-        String statusText = statusLineParts[2];
+    /**
+     * Reads only the status line and headers of a cached response, for deciding how it can be used
+     * without reading (or mapping) its message body
+     * @param cacheFile the cached response
+     * @return the response, without a message body
+     * @throws IOException if the file could not be read
+     */
+    protected static Response headFromFile(File cacheFile) throws IOException {
+        InputStream fileInputStream = new FileInputStream(cacheFile);
+        try {
+            ResponseHeadParser responseHeadParser = new ResponseHeadParser();
+            responseHeadParser.parse(new HttpInputStream(fileInputStream));
+            return new Response(responseHeadParser.getHttpVersion(),
+                    responseHeadParser.getStatusCode(), responseHeadParser.getStatusText(),
+                    responseHeadParser.getHeaders(), (InputStream) null);
+        } finally {
+            fileInputStream.close();
+        }
+    }
 
-        Header[] headers = getHeaders(metaDataParts);
+    private static Response fromByteBuffer(ByteBuffer byteBuffer) throws IOException {
+        HttpInputStream inputStream = new HttpInputStream(new ByteBufferInputStream(byteBuffer.duplicate()));
+        ResponseHeadParser responseHeadParser = new ResponseHeadParser();
+        responseHeadParser.parse(inputStream);
+
+        //whatever hasn't been parsed (or buffered by the parser) is the message body
+        int messageBodyOffset = byteBuffer.limit() - inputStream.available();
+
+        Response response = new Response(responseHeadParser.getHttpVersion(),
+                responseHeadParser.getStatusCode(), responseHeadParser.getStatusText(),
+                responseHeadParser.getHeaders(), (InputStream) null);
+        if (byteBuffer.hasArray()) {
+            response.setEncodedMessageBody(Arrays.copyOfRange(byteBuffer.array(),
+                    messageBodyOffset, byteBuffer.limit()));
+        } else {
+            byteBuffer.position(messageBodyOffset);
+            response.mMappedMessageBody = byteBuffer.slice();
+
+            String contentEncoding = response.getContentEncoding();
+            if (ContentDecodingInputStream.isSupported(contentEncoding)) {
+                response.mMessageBody = decodeMessageBody(new ByteBufferInputStream(
+                        response.mMappedMessageBody.duplicate()), contentEncoding);
+            }
+        }
+        return response;
+    }
 
-        byte[] messageBody = Arrays.copyOfRange(response, metaDataLength, response.length);
+    /**
+     * Reads the status line and headers of a single response. The message body is left to be read
+     * from {@link #getMessageBodyStream()} and anything after it is left unread, so that the same
+     * stream can be used for the next response on a keep-alive connection
+     * @param inputStream a stream positioned at the start of a response
+     * @param listener to be told when the message body ends or null if the stream is not from a
+     *                 connection
+     * @return the response
+     * @throws IOException if the stream could not be read or ended early
+     */
+    protected static Response fromHttpInputStream(HttpInputStream inputStream,
+                                                  MessageBodyInputStream.Listener listener)
+            throws IOException {
+        ResponseHeadParser responseHeadParser = new ResponseHeadParser();
+        responseHeadParser.parse(inputStream);
+
+        String httpVersion = responseHeadParser.getHttpVersion();
+        int statusCode = responseHeadParser.getStatusCode();
+        String statusText = responseHeadParser.getStatusText();
+        Response response = new Response(httpVersion, statusCode, statusText,
+                responseHeadParser.getHeaders(), (InputStream) null);
+        Headers headers = response.mHeaderIndex;
+
+        InputStream framedStream = getMessageBodyStream(inputStream, statusCode, headers);
+        response.mMessageBodyStream = framedStream;
+        if (listener != null) {
+            response.mMessageBodyStream = new MessageBodyInputStream(framedStream,
+                    isKeepAlive(httpVersion, statusCode, headers), listener);
+        }
 
-        return new Response(httpVersion, statusCode, statusText, headers, messageBody);
+        if (framedStream instanceof ChunkedInputStream) {
+            response.mChunkedInputStream = (ChunkedInputStream) framedStream;
+        }
+        return response;
     }
 
-    private static byte[] getByteResponseFromInputStream(InputStream inputStream) throws IOException {
-        BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream);
+    /**
+     * Reads the rest of a streamed message body into memory
+     * @throws IOException if the message body could not be read
+     */
+    protected void bufferMessageBody() throws IOException {
+        if (mMessageBody == null && mMappedMessageBody == null) {
+            byte[] encodedMessageBody;
+            try {
+                encodedMessageBody = getByteResponseFromInputStream(mMessageBodyStream);
+            } finally {
+                mMessageBodyStream.close();
+                mMessageBodyStream = null;
+            }
+            setEncodedMessageBody(encodedMessageBody);
+        }
+    }
 
+    private void setEncodedMessageBody(byte[] encodedMessageBody) throws IOException {
+        mEncodedMessageBody = encodedMessageBody;
 
-        byte[] buffer = new byte[1024]; //1kb
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(10 * 1024); //10kb
+        String contentEncoding = getContentEncoding();
+        if (ContentDecodingInputStream.isSupported(contentEncoding)) {
+            mMessageBody = decodeMessageBody(new ByteArrayInputStream(mEncodedMessageBody),
+                    contentEncoding);
+        } else {
+            mMessageBody = mEncodedMessageBody;
+        }
+    }
 
-        int bytesRead = bufferedInputStream.read(buffer);
-        while (bytesRead != -1) {
-            byteArrayOutputStream.write(buffer, 0, bytesRead);
-            bytesRead = bufferedInputStream.read(buffer);
+    private static InputStream getMessageBodyStream(HttpInputStream inputStream, int statusCode,
+                                                    Headers headers) throws IOException {
+        if (!hasMessageBody(statusCode)) {
+            return new FixedLengthInputStream(inputStream, 0);
+        } else if (isChunked(headers)) {
+            return new ChunkedInputStream(inputStream);
         }
 
-        return byteArrayOutputStream.toByteArray();
+        long contentLength = getContentLength(headers);
+        if (contentLength == -1) {
+            //without a length the server will signal the end of the body by closing the connection
+            return inputStream;
+        } else {
+            return new FixedLengthInputStream(inputStream, contentLength);
+        }
     }
 
-    private static Pair<Integer, String[]> getMetaData(byte[] response) {
-        int metaDataLength = 0;
-        List<String> metaDataParts = new ArrayList<String>(16);
-        ByteArrayOutputStream metaDataPartByteArray = new ByteArrayOutputStream(256);
-
-        for (int index = 0; index + 3 < response.length; index++) {
-            if (response[index] == CARRIAGE_RETURN && response[index + 1] == LINE_FEED) {
-                if (response[index + 2] == CARRIAGE_RETURN && response[index + 3] == LINE_FEED) {
-                    metaDataLength = index + 4;
-                    //double CRLF indicates end of headers
-                    break;
-                } else {
-                    try {
-                        metaDataParts.add(metaDataPartByteArray.toString(ISO_8859_1));
-                    } catch (UnsupportedEncodingException uee) {
-                        throw new RuntimeException(uee);
-                    }
-
-                    //skip over line_feed
-                    index++;
-
-                    metaDataPartByteArray = new ByteArrayOutputStream(256);
-                }
-            } else {
-                metaDataPartByteArray.write(response, index, 1);
+    private static boolean isKeepAlive(String httpVersion, int statusCode, Headers headers)
+            throws IOException {
+        //without framing (Content-length, chunks or a status without a body) the body ends by
+        //closing the connection
+        if (hasMessageBody(statusCode) && !isChunked(headers) && getContentLength(headers) == -1) {
+            return false;
+        }
+
+        String connection = headers.getValue("connection");
+        if (httpVersion.equalsIgnoreCase("HTTP/1.0")) {
+            return connection != null && connection.equalsIgnoreCase("keep-alive");
+        } else {
+            return connection == null || !connection.equalsIgnoreCase("close");
+        }
+    }
+
+    private static boolean hasMessageBody(int statusCode) {
+        return statusCode >= 200 && statusCode != 204 && statusCode != 304;
+    }
+
+    private static boolean isChunked(Headers headers) {
+        String transferEncoding = headers.getValue("transfer-encoding");
+        //chunked is always the last transfer coding applied
+        return transferEncoding != null &&
+                transferEncoding.toLowerCase().trim().endsWith("chunked");
+    }
+
+    /**
+     * @return the length from the Content-Length header, which can be over 2GB, or -1 if there
+     * isn't one
+     * @throws IOException if the Content-Length header isn't a valid length
+     */
+    private static long getContentLength(Headers headers) throws IOException {
+        String contentLength = headers.getValue("content-length");
+        if (contentLength == null) {
+            return -1;
+        }
+
+        try {
+            long length = Long.parseLong(contentLength.trim());
+            if (length >= 0) {
+                return length;
             }
+        } catch (NumberFormatException nfe) {
+            //reported below
         }
+        throw new IOException("invalid Content-Length " + contentLength);
+    }
 
-        return new Pair<Integer, String[]>(metaDataLength,
-                metaDataParts.toArray(new String[metaDataParts.size()]));
+    private static byte[] decodeMessageBody(InputStream encodedInputStream, String contentEncoding)
+            throws IOException {
+        InputStream decodedInputStream = ContentDecodingInputStream.decode(encodedInputStream,
+                contentEncoding);
+        try {
+            return getByteResponseFromInputStream(decodedInputStream);
+        } finally {
+            //releases the decoder's native zlib memory now rather than on finalization
+            decodedInputStream.close();
+        }
     }
 
-    private static Header[] getHeaders(String[] metaDataParts) {
-        Header[] headers = new Header[metaDataParts.length - 1];
-        for (int index = 1; index < metaDataParts.length; index++) {
-            String[] nameValue = metaDataParts[index].split(": ");
-            headers[index - 1] = new Header(nameValue[0], nameValue[1]);
+    private static byte[] getByteResponseFromInputStream(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[1024]; //1kb
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(10 * 1024); //10kb
+
+        int bytesRead = inputStream.read(buffer);
+        while (bytesRead != -1) {
+            byteArrayOutputStream.write(buffer, 0, bytesRead);
+            bytesRead = inputStream.read(buffer);
         }
-        return headers;
+
+        return byteArrayOutputStream.toByteArray();
     }
 
 }
@@ -0,0 +1,631 @@
+package me.tombailey.store.http;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import me.tombailey.store.http.internal.download.DownloadState;
+
+/**
+ * Downloads a file by fetching byte ranges of it at the same time, each over its own connection,
+ * so that the download isn't limited by the slowest relay of a single Tor circuit. If the proxy
+ * isolates connections (see {@link Proxy.Builder#isolation(Proxy.Isolation)}) each range is
+ * fetched over its own circuit. Servers which don't support ranges are downloaded over a single
+ * connection.
+ *
+ * An interrupted download is resumed from where each range stopped when it is downloaded again to
+ * the same file, as long as the server's copy hasn't changed.
+ */
+public class SegmentedDownload {
+
+    private static final String LOG_TAG = SegmentedDownload.class.getName();
+
+    private static final int DEFAULT_SEGMENTS = 4;
+    private static final int DEFAULT_RETRIES = 3;
+    private static final int DEFAULT_MIN_SEGMENT_SIZE = 256 * 1024; //256kb
+
+    private static final int BUFFER_SIZE = 64 * 1024; //64kb
+
+    //how much of a segment is written between saving the progress of the download
+    private static final int SAVE_INTERVAL = 1024 * 1024; //1mb
+
+    private static final int RETRY_DELAY = 1000; //1 second, multiplied by the number of failures
+
+    private static final String STATE_FILE_SUFFIX = ".segments";
+
+
+    private Request mRequest;
+    private File mFile;
+
+    private int mSegments;
+    private int mRetries;
+    private int mMinSegmentSize;
+
+    private ProgressListener mProgressListener;
+
+    private volatile boolean mCanceled;
+    //set when a segment fails, so that the other segments stop too
+    private volatile boolean mStopping;
+    private final List<Request> mActiveRequests;
+
+    private SegmentedDownload(Request request, File file, int segments, int retries,
+                              int minSegmentSize, ProgressListener progressListener) {
+        mRequest = request;
+        mFile = file;
+
+        mSegments = segments;
+        mRetries = retries;
+        mMinSegmentSize = minSegmentSize;
+
+        mProgressListener = progressListener;
+
+        mActiveRequests = new ArrayList<Request>(segments);
+    }
+
+    /**
+     * Downloads the file, blocking until it has been completely written
+     * @throws IOException if the download failed or was canceled, in which case the progress
+     * made is kept so that downloading again resumes it
+     */
+    public void download() throws IOException {
+        mCanceled = false;
+        mStopping = false;
+
+        //asking for the first byte shows whether ranges are supported, and how long the file is
+        Request probeRequest = startRequest(null);
+        long length;
+        String validator;
+        try {
+            Response probe = probeRequest.executeWithoutCache(getRangeHeaders(0, 0, null));
+            int statusCode = probe.getStatusCode();
+            if (statusCode != 200 && statusCode != 206) {
+                probe.close();
+                throw new IOException("failed to download, status code " + statusCode);
+            }
+
+            length = statusCode == 206 ? getCompleteLength(probe) : -1;
+            if (length <= 0 && statusCode == 200) {
+                //ranges aren't supported, so the whole file is already being sent
+                writeWhole(probe);
+                return;
+            } else if (length <= 0) {
+                //the range was sent but not the length of the whole file
+                probe.close();
+                writeWhole(probeRequest.executeWithoutCache(getRangeHeaders(-1, -1, null)));
+                return;
+            }
+
+            validator = getValidator(probe);
+            discard(probe);
+        } finally {
+            finishRequest(probeRequest);
+        }
+
+        downloadSegments(length, validator);
+    }
+
+    /**
+     * Stops the download. A download which is running fails with an IOException. Calling
+     * {@link #download()} again afterwards resumes it.
+     */
+    public void cancel() {
+        mCanceled = true;
+        cancelActiveRequests();
+    }
+
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    private void downloadSegments(long length, String validator) throws IOException {
+        File stateFile = new File(mFile.getPath() + STATE_FILE_SUFFIX);
+        DownloadState state = DownloadState.load(stateFile);
+        boolean resuming = state != null && state.matches(length, validator) &&
+                mFile.length() == length;
+        if (!resuming) {
+            //without a validator what was written can't be shown to be from the same version
+            stateFile.delete();
+            int segments = (int) Math.max(1, Math.min(mSegments, length / mMinSegmentSize));
+            state = DownloadState.plan(length, validator, segments);
+        }
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            if (!resuming) {
+                //the whole file is allocated up front so that each segment can be written where
+                //it belongs as it arrives
+                file.setLength(length);
+                state.save(stateFile);
+            }
+            runSegments(file.getChannel(), state, stateFile, validator);
+        } catch (DownloadChangedException dce) {
+            //what has been written belongs to a different version of the file
+            stateFile.delete();
+            throw dce;
+        } catch (RangesIgnoredException rie) {
+            stateFile.delete();
+            file.close();
+            Log.w(LOG_TAG, "ranges were ignored, downloading over a single connection");
+            mStopping = false;
+            downloadWhole();
+            return;
+        } finally {
+            file.close();
+        }
+
+        stateFile.delete();
+    }
+
+    private void runSegments(final FileChannel channel, final DownloadState state,
+                             final File stateFile, final String validator) throws IOException {
+        ExecutorService executorService = Executors.newFixedThreadPool(state.getSegments(),
+                new SegmentThreadFactory());
+        CompletionService<Void> completionService =
+                new ExecutorCompletionService<Void>(executorService);
+
+        int running = 0;
+        for (int segment = 0; segment < state.getSegments(); segment++) {
+            if (state.getPosition(segment) < state.getEnd(segment)) {
+                final int index = segment;
+                completionService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        downloadSegment(channel, state, stateFile, validator, index);
+                        return null;
+                    }
+                });
+                running++;
+            }
+        }
+
+        IOException failure = null;
+        try {
+            for (; running > 0; running--) {
+                try {
+                    completionService.take().get();
+                } catch (ExecutionException ee) {
+                    if (failure == null) {
+                        failure = toIOException(ee.getCause());
+                        stopSegments();
+                    }
+                }
+            }
+        } catch (InterruptedException ie) {
+            stopSegments();
+            failure = new InterruptedIOException("interrupted while downloading");
+        } finally {
+            executorService.shutdown();
+        }
+
+        if (failure != null) {
+            try {
+                saveState(channel, state, stateFile);
+            } catch (IOException ioe) {
+                Log.w(LOG_TAG, "failed to save the progress of the download");
+            }
+            throw failure;
+        }
+    }
+
+    private void downloadSegment(FileChannel channel, DownloadState state, File stateFile,
+                                 String validator, int segment) throws IOException {
+        String isolationToken = mRequest.getIsolationToken();
+        if (isolationToken != null) {
+            //keeps segments apart from each other, and other requests, even if the proxy would
+            //put them on the same circuit
+            isolationToken = isolationToken + "-segment-" + segment;
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int failures = 0;
+        while (state.getPosition(segment) < state.getEnd(segment)) {
+            throwIfStopped();
+
+            long start = state.getPosition(segment);
+            Request request = startRequest(isolationToken);
+            try {
+                Response response = request.executeWithoutCache(
+                        getRangeHeaders(start, state.getEnd(segment) - 1, validator));
+                if (response.getStatusCode() == 200) {
+                    //with If-Range the whole file is only sent if it has changed, without it the
+                    //server may just not have honoured the range this time
+                    response.close();
+                    throw validator != null ? new DownloadChangedException() :
+                            new RangesIgnoredException();
+                } else if (response.getStatusCode() != 206 ||
+                        getContentRangeStart(response) != start) {
+                    response.close();
+                    throw new IOException("unexpected response to a range request, status code " +
+                            response.getStatusCode());
+                }
+
+                writeSegment(response, channel, state, stateFile, segment, buffer);
+            } catch (IOException ioe) {
+                if (ioe instanceof DownloadChangedException ||
+                        ioe instanceof RangesIgnoredException || mCanceled || mStopping) {
+                    throw ioe;
+                }
+
+                //only consecutive failures which make no progress count towards the limit
+                failures = state.getPosition(segment) > start ? 1 : failures + 1;
+                if (failures > mRetries) {
+                    throw ioe;
+                }
+                Log.w(LOG_TAG, "segment " + segment + " failed, retrying");
+                sleep(RETRY_DELAY * failures);
+            } finally {
+                finishRequest(request);
+            }
+        }
+    }
+
+    private void writeSegment(Response response, FileChannel channel, DownloadState state,
+                              File stateFile, int segment, byte[] buffer) throws IOException {
+        InputStream inputStream = response.getMessageBodyStream();
+        try {
+            long position = state.getPosition(segment);
+            long end = state.getEnd(segment);
+            long unsaved = 0;
+            while (position < end) {
+                int bytesRead = inputStream.read(buffer, 0,
+                        (int) Math.min(buffer.length, end - position));
+                if (bytesRead == -1) {
+                    throw new IOException("segment " + segment + " ended early");
+                }
+
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, bytesRead);
+                while (byteBuffer.hasRemaining()) {
+                    position += channel.write(byteBuffer, position);
+                }
+                state.setPosition(segment, position);
+                if (mProgressListener != null) {
+                    mProgressListener.onProgress(state.getBytesWritten(), state.getLength());
+                }
+
+                unsaved += bytesRead;
+                if (unsaved >= SAVE_INTERVAL) {
+                    saveState(channel, state, stateFile);
+                    unsaved = 0;
+                }
+            }
+
+            //reaching the end of the message body lets the connection be reused
+            inputStream.read();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Saves the progress of the download, once what it says has been written is on disk
+     */
+    private static void saveState(FileChannel channel, DownloadState state, File stateFile)
+            throws IOException {
+        //positions are only set after their bytes are written, so holding the state's lock stops
+        //a position being saved for bytes which weren't forced
+        synchronized (state) {
+            channel.force(false);
+            state.save(stateFile);
+        }
+    }
+
+    private void downloadWhole() throws IOException {
+        Request request = startRequest(null);
+        try {
+            writeWhole(request.executeWithoutCache(getRangeHeaders(-1, -1, null)));
+        } finally {
+            finishRequest(request);
+        }
+    }
+
+    private void writeWhole(Response response) throws IOException {
+        if (response.getStatusCode() != 200) {
+            response.close();
+            throw new IOException("failed to download, status code " + response.getStatusCode());
+        }
+
+        InputStream inputStream = response.getMessageBodyStream();
+        try {
+            OutputStream outputStream = new FileOutputStream(mFile);
+            try {
+                long totalBytes = response.getMessageBodyLength();
+                long bytesWritten = 0;
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int bytesRead;
+                while ((bytesRead = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, bytesRead);
+
+                    bytesWritten += bytesRead;
+                    if (mProgressListener != null) {
+                        mProgressListener.onProgress(bytesWritten, totalBytes);
+                    }
+                }
+            } finally {
+                outputStream.close();
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        new File(mFile.getPath() + STATE_FILE_SUFFIX).delete();
+    }
+
+    private static void discard(Response response) throws IOException {
+        InputStream inputStream = response.getMessageBodyStream();
+        try {
+            byte[] buffer = new byte[16];
+            while (inputStream.read(buffer) != -1) {
+                //the probe only asked for one byte
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * @param first the offset of the first byte to ask for, or -1 to ask for the whole file
+     * @param last the offset of the last byte to ask for
+     * @param validator the validator of the version of the file to ask for, or null for any
+     *                  version
+     */
+    private static List<Header> getRangeHeaders(long first, long last, String validator) {
+        List<Header> headers = new ArrayList<Header>(3);
+        //ranges of a compressed response are ranges of what was compressed on the fly, which may
+        //not be the same between responses
+        headers.add(new Header("Accept-Encoding", "identity"));
+        if (first >= 0) {
+            headers.add(new Header("Range", "bytes=" + first + "-" + last));
+        }
+        if (validator != null) {
+            //the whole file is sent instead if it has changed
+            headers.add(new Header("If-Range", validator));
+        }
+        return headers;
+    }
+
+    /**
+     * @return the length of the whole file from a Content-Range header, like bytes 0-0/1234, or
+     * -1 if it isn't known
+     */
+    private static long getCompleteLength(Response response) {
+        Header contentRange = response.getHeader("content-range");
+        if (contentRange == null) {
+            return -1;
+        }
+
+        String value = contentRange.getValue().trim();
+        int slashIndex = value.lastIndexOf('/');
+        try {
+            return slashIndex < 0 ? -1 : Long.parseLong(value.substring(slashIndex + 1).trim());
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the offset of the first byte from a Content-Range header, like bytes 0-0/1234, or -1
+     * if there isn't one
+     */
+    private static long getContentRangeStart(Response response) {
+        Header contentRange = response.getHeader("content-range");
+        if (contentRange == null) {
+            return -1;
+        }
+
+        String value = contentRange.getValue().trim();
+        int dashIndex = value.indexOf('-');
+        if (!value.toLowerCase().startsWith("bytes ") || dashIndex < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.substring(6, dashIndex).trim());
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return a strong ETag or the Last-Modified date, which If-Range can use to make sure every
+     * segment comes from the same version of the file, or null if there isn't either
+     */
+    private static String getValidator(Response response) {
+        Header etag = response.getHeader("etag");
+        if (etag != null && !etag.getValue().trim().startsWith("W/")) {
+            return etag.getValue().trim();
+        }
+        Header lastModified = response.getHeader("last-modified");
+        return lastModified == null ? null : lastModified.getValue().trim();
+    }
+
+    private Request startRequest(String isolationToken) {
+        Request request = mRequest.copy(isolationToken);
+        synchronized (mActiveRequests) {
+            mActiveRequests.add(request);
+        }
+        if (mCanceled || mStopping) {
+            request.cancel();
+        }
+        return request;
+    }
+
+    private void finishRequest(Request request) {
+        synchronized (mActiveRequests) {
+            mActiveRequests.remove(request);
+        }
+    }
+
+    private void stopSegments() {
+        mStopping = true;
+        cancelActiveRequests();
+    }
+
+    private void cancelActiveRequests() {
+        List<Request> activeRequests;
+        synchronized (mActiveRequests) {
+            activeRequests = new ArrayList<Request>(mActiveRequests);
+        }
+        for (Request request : activeRequests) {
+            request.cancel();
+        }
+    }
+
+    private void throwIfStopped() throws IOException {
+        if (mCanceled) {
+            throw new IOException("download was canceled");
+        } else if (mStopping) {
+            throw new IOException("download was stopped");
+        }
+    }
+
+    private static void sleep(int milliseconds) throws IOException {
+        try {
+            Thread.sleep(milliseconds);
+        } catch (InterruptedException ie) {
+            throw new InterruptedIOException("interrupted while waiting to retry");
+        }
+    }
+
+    private static IOException toIOException(Throwable throwable) {
+        if (throwable instanceof IOException) {
+            return (IOException) throwable;
+        }
+        return new IOException("segment failed", throwable);
+    }
+
+    public static class Builder {
+
+        private Request mRequest;
+        private File mFile;
+
+        private int mSegments;
+        private int mRetries;
+        private int mMinSegmentSize;
+
+        private ProgressListener mProgressListener;
+
+        public Builder() {
+            mSegments = DEFAULT_SEGMENTS;
+            mRetries = DEFAULT_RETRIES;
+            mMinSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+        }
+
+        /**
+         * @param request the GET request for the file, which is copied for each segment
+         * @return the builder
+         */
+        public Builder request(Request request) {
+            mRequest = request;
+            return this;
+        }
+
+        /**
+         * @param file where to write the download. Progress is kept alongside it, in a file with
+         *             the same name ending with .segments, until the download is complete
+         * @return the builder
+         */
+        public Builder file(File file) {
+            mFile = file;
+            return this;
+        }
+
+        /**
+         * @param segments the max number of ranges to fetch at the same time
+         * @return the builder
+         */
+        public Builder segments(int segments) {
+            mSegments = segments;
+            return this;
+        }
+
+        /**
+         * @param retries the number of times a segment is retried, without making progress,
+         *                before the download fails
+         * @return the builder
+         */
+        public Builder retries(int retries) {
+            mRetries = retries;
+            return this;
+        }
+
+        /**
+         * @param minSegmentSize the min size, in bytes, of a segment so that small files aren't
+         *                       split into more ranges than are worth the extra connections
+         * @return the builder
+         */
+        public Builder minSegmentSize(int minSegmentSize) {
+            mMinSegmentSize = minSegmentSize;
+            return this;
+        }
+
+        /**
+         * @param progressListener to be told how much of the file has been written, which is
+         *                         called by each segment's thread, may be null
+         * @return the builder
+         */
+        public Builder progressListener(ProgressListener progressListener) {
+            mProgressListener = progressListener;
+            return this;
+        }
+
+        public SegmentedDownload build() {
+            if (mRequest == null || mFile == null) {
+                throw new IllegalArgumentException("request or file was missing");
+            } else if (mSegments < 1 || mRetries < 0 || mMinSegmentSize < 1) {
+                throw new IllegalArgumentException("segments and min segment size must be at " +
+                        "least 1, and retries at least 0");
+            }
+
+            return new SegmentedDownload(mRequest, mFile, mSegments, mRetries, mMinSegmentSize,
+                    mProgressListener);
+        }
+
+    }
+
+    /**
+     * Thrown when the file changed part way through being downloaded
+     */
+    private static class DownloadChangedException extends IOException {
+
+        private DownloadChangedException() {
+            super("the file changed while it was being downloaded");
+        }
+    }
+
+    /**
+     * Thrown when a range request was answered with the whole file, and there's no validator to
+     * tell whether that's because it changed
+     */
+    private static class RangesIgnoredException extends IOException {
+
+        private RangesIgnoredException() {
+            super("the server ignored a range request");
+        }
+    }
+
+    private static class SegmentThreadFactory implements ThreadFactory {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "store-http-download-segment");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package me.tombailey.store.http.form.body;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * Created by Tom on 20/01/2017.
@@ -11,4 +12,26 @@ public abstract class FormBody {
 
     public abstract String getContentType();
 
+    /**
+     * Form bodies which know their length without encoding themselves should override this, so
+     * that they're sent with a Content-Length
+     * @return the length, in bytes, of the form body or -1 if it isn't known until it has been
+     * written, in which case it is sent with "Transfer-Encoding: chunked". By default -1, so that
+     * {@link #getBytes()} is only called once
+     * @throws IOException if the length could not be worked out
+     */
+    public long getContentLength() throws IOException {
+        return -1;
+    }
+
+    /**
+     * Writes the form body, once per request since requests with a form body aren't retried.
+     * Form bodies which can be written without being held in memory should override this
+     * @param outputStream where to write the form body, which shouldn't be closed
+     * @throws IOException if the form body could not be written
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(getBytes());
+    }
+
 }
@@ -0,0 +1,226 @@
+package me.tombailey.store.http.form.body;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A multipart/form-data form body, see https://tools.ietf.org/html/rfc7578. File parts are read
+ * from disk as the form body is written, so large files don't need to fit in memory.
+ */
+public class MultipartForm extends FormBody {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String CRLF = "\r\n";
+
+    private static final int BUFFER_SIZE = 8 * 1024; //8kb
+
+
+    private String mBoundary;
+    private List<Part> mParts;
+
+    private MultipartForm(String boundary, List<Part> parts) {
+        mBoundary = boundary;
+        mParts = parts;
+    }
+
+    /**
+     * Reads every file part into memory, see {@link #writeTo(OutputStream)} to avoid this
+     * @return the form body
+     * @throws IOException if a file part couldn't be read
+     */
+    @Override
+    public byte[] getBytes() throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream =
+                new ByteArrayOutputStream((int) getContentLength());
+        writeTo(byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    @Override
+    public String getContentType() {
+        return "multipart/form-data; boundary=" + mBoundary;
+    }
+
+    @Override
+    public long getContentLength() throws IOException {
+        long contentLength = 0;
+        for (Part part : mParts) {
+            contentLength += part.getHead(mBoundary).length + part.getContentLength() + CRLF.length();
+        }
+        return contentLength + getClosingDelimiter().length;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        byte[] buffer = null;
+        for (Part part : mParts) {
+            outputStream.write(part.getHead(mBoundary));
+            if (part.getFile() != null) {
+                if (buffer == null) {
+                    buffer = new byte[BUFFER_SIZE];
+                }
+                part.writeFile(outputStream, buffer);
+            } else {
+                outputStream.write(part.getContent());
+            }
+            outputStream.write(CRLF.getBytes(UTF_8));
+        }
+        outputStream.write(getClosingDelimiter());
+    }
+
+    private byte[] getClosingDelimiter() {
+        return ("--" + mBoundary + "--" + CRLF).getBytes(UTF_8);
+    }
+
+
+    public static class Part {
+
+        private String mName;
+        private String mFileName;
+        private String mContentType;
+
+        private byte[] mContent;
+        private File mFile;
+
+        private Part(String name, String fileName, String contentType, byte[] content, File file) {
+            mName = name;
+            mFileName = fileName;
+            mContentType = contentType;
+
+            mContent = content;
+            mFile = file;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return the file name sent with the part or null if it isn't a file
+         */
+        public String getFileName() {
+            return mFileName;
+        }
+
+        /**
+         * @return the content type of the part or null if it is text
+         */
+        public String getContentType() {
+            return mContentType;
+        }
+
+        /**
+         * @return the content of the part or null if it is read from a file
+         */
+        public byte[] getContent() {
+            return mContent;
+        }
+
+        /**
+         * @return the file the part is read from or null if its content is in memory
+         */
+        public File getFile() {
+            return mFile;
+        }
+
+        private long getContentLength() {
+            return mFile != null ? mFile.length() : mContent.length;
+        }
+
+        private byte[] getHead(String boundary) {
+            StringBuilder head = new StringBuilder(128);
+            head.append("--").append(boundary).append(CRLF);
+            head.append("Content-Disposition: form-data; name=\"").append(escape(mName)).append('"');
+            if (mFileName != null) {
+                head.append("; filename=\"").append(escape(mFileName)).append('"');
+            }
+            head.append(CRLF);
+            if (mContentType != null) {
+                head.append("Content-Type: ").append(mContentType).append(CRLF);
+            }
+            head.append(CRLF);
+            return head.toString().getBytes(UTF_8);
+        }
+
+        private void writeFile(OutputStream outputStream, byte[] buffer) throws IOException {
+            InputStream inputStream = new FileInputStream(mFile);
+            try {
+                int bytesRead;
+                while ((bytesRead = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, bytesRead);
+                }
+            } finally {
+                inputStream.close();
+            }
+        }
+
+        /**
+         * Names are quoted, so quotes and line breaks in them are percent-encoded like browsers do
+         */
+        private static String escape(String name) {
+            return name.replace("\"", "%22").replace("\r", "%0D").replace("\n", "%0A");
+        }
+    }
+
+    public static class Builder {
+
+        private String mBoundary;
+        private List<Part> mParts;
+
+        public Builder() {
+            mBoundary = "store-http-" + UUID.randomUUID().toString();
+            mParts = new ArrayList<Part>(4);
+        }
+
+        public Builder add(String name, String value) {
+            mParts.add(new Part(name, null, null, value.getBytes(UTF_8), null));
+            return this;
+        }
+
+        public Builder add(String name, int value) {
+            return add(name, String.valueOf(value));
+        }
+
+        public Builder add(String name, boolean value) {
+            return add(name, String.valueOf(value));
+        }
+
+        /**
+         * @param name the name of the part
+         * @param fileName the file name to send with the part
+         * @param content the content of the file
+         * @param contentType the content type of the file, like image/png
+         * @return the builder
+         */
+        public Builder add(String name, String fileName, byte[] content, String contentType) {
+            mParts.add(new Part(name, fileName, contentType, content, null));
+            return this;
+        }
+
+        /**
+         * @param name the name of the part
+         * @param file the file to send, which is read as the form body is written and shouldn't
+         *             change until the request has been made
+         * @param contentType the content type of the file, like image/png
+         * @return the builder
+         */
+        public Builder add(String name, File file, String contentType) {
+            mParts.add(new Part(name, file.getName(), contentType, null, file));
+            return this;
+        }
+
+        public MultipartForm build() {
+            return new MultipartForm(mBoundary, mParts);
+        }
+
+    }
+
+}
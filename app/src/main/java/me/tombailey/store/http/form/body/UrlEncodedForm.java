@@ -1,8 +1,7 @@
 package me.tombailey.store.http.form.body;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.net.URLEncoder;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -14,35 +13,151 @@ public class UrlEncodedForm extends FormBody {
 
     private static final String UTF_8 = "UTF-8";
 
+    private static final byte[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9',
+            'A', 'B', 'C', 'D', 'E', 'F'};
+
+    //characters which URLEncoder leaves alone, every other character except space is
+    //percent-encoded
+    private static final boolean[] UNRESERVED = new boolean[128];
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            UNRESERVED[c] = true;
+        }
+        UNRESERVED['.'] = true;
+        UNRESERVED['-'] = true;
+        UNRESERVED['*'] = true;
+        UNRESERVED['_'] = true;
+    }
+
 
     private List<Param> mParams;
 
+    //-1 until the form body has been measured
+    private int mContentLength;
+
     private UrlEncodedForm(List<Param> params) {
         mParams = params;
+        mContentLength = -1;
     }
 
+    /**
+     * Percent-encodes the params, like {@link java.net.URLEncoder} with UTF-8, straight into an
+     * array of exactly the right length
+     * @return the form body
+     */
     @Override
-    public byte[] getBytes() throws IOException {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(mParams.size());
-
-        byte[] equals = "=".getBytes(UTF_8);
-        byte[] and = "&".getBytes(UTF_8);
+    public byte[] getBytes() {
+        byte[] formBody = new byte[(int) getContentLength()];
 
+        int offset = 0;
         for (int index = 0; index < mParams.size(); index++) {
             Param param = mParams.get(index);
-            String name = URLEncoder.encode(param.getName(), UTF_8);
-            String value = URLEncoder.encode(param.getValue(), UTF_8);
+            if (index != 0) {
+                formBody[offset++] = '&';
+            }
+            offset = encode(param.getName(), formBody, offset);
+            formBody[offset++] = '=';
+            offset = encode(param.getValue(), formBody, offset);
+        }
+
+        return formBody;
+    }
+
+    @Override
+    public long getContentLength() {
+        if (mContentLength == -1) {
+            //an & between each param and an = in each one
+            int contentLength = Math.max(mParams.size() - 1, 0) + mParams.size();
+            for (Param param : mParams) {
+                contentLength += getEncodedLength(param.getName()) + getEncodedLength(param.getValue());
+            }
+            mContentLength = contentLength;
+        }
+        return mContentLength;
+    }
 
-            byteArrayOutputStream.write(name.getBytes(UTF_8));
-            byteArrayOutputStream.write(equals);
-            byteArrayOutputStream.write(value.getBytes(UTF_8));
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(getBytes());
+    }
 
-            if (index != mParams.size() - 1) {
-                byteArrayOutputStream.write(and);
+    private static int getEncodedLength(String value) {
+        int encodedLength = 0;
+        int length = value.length();
+        for (int index = 0; index < length; index++) {
+            char c = value.charAt(index);
+            if (c < 0x80) {
+                encodedLength += UNRESERVED[c] || c == ' ' ? 1 : 3;
+            } else if (c < 0x800) {
+                encodedLength += 6;
+            } else if (Character.isHighSurrogate(c) && index + 1 < length &&
+                    Character.isLowSurrogate(value.charAt(index + 1))) {
+                encodedLength += 12;
+                index++;
+            } else if (isSurrogate(c)) {
+                //unpaired surrogates are encoded as ?, like String.getBytes does
+                encodedLength += 3;
+            } else {
+                encodedLength += 9;
             }
         }
+        return encodedLength;
+    }
+
+    /**
+     * @param value the value to percent-encode
+     * @param destination where to write the encoded value, which must have room for it
+     * @param offset where in the destination to start writing
+     * @return the offset after the encoded value
+     */
+    private static int encode(String value, byte[] destination, int offset) {
+        int length = value.length();
+        for (int index = 0; index < length; index++) {
+            char c = value.charAt(index);
+            if (c < 0x80) {
+                if (UNRESERVED[c]) {
+                    destination[offset++] = (byte) c;
+                } else if (c == ' ') {
+                    destination[offset++] = '+';
+                } else {
+                    offset = percentEncode(c, destination, offset);
+                }
+            } else if (c < 0x800) {
+                offset = percentEncode(0xC0 | (c >> 6), destination, offset);
+                offset = percentEncode(0x80 | (c & 0x3F), destination, offset);
+            } else if (Character.isHighSurrogate(c) && index + 1 < length &&
+                    Character.isLowSurrogate(value.charAt(index + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++index));
+                offset = percentEncode(0xF0 | (codePoint >> 18), destination, offset);
+                offset = percentEncode(0x80 | ((codePoint >> 12) & 0x3F), destination, offset);
+                offset = percentEncode(0x80 | ((codePoint >> 6) & 0x3F), destination, offset);
+                offset = percentEncode(0x80 | (codePoint & 0x3F), destination, offset);
+            } else if (isSurrogate(c)) {
+                offset = percentEncode('?', destination, offset);
+            } else {
+                offset = percentEncode(0xE0 | (c >> 12), destination, offset);
+                offset = percentEncode(0x80 | ((c >> 6) & 0x3F), destination, offset);
+                offset = percentEncode(0x80 | (c & 0x3F), destination, offset);
+            }
+        }
+        return offset;
+    }
+
+    private static boolean isSurrogate(char c) {
+        return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+    }
 
-        return byteArrayOutputStream.toByteArray();
+    private static int percentEncode(int oneByte, byte[] destination, int offset) {
+        destination[offset] = '%';
+        destination[offset + 1] = HEX_DIGITS[(oneByte >> 4) & 0xF];
+        destination[offset + 2] = HEX_DIGITS[oneByte & 0xF];
+        return offset + 3;
     }
 
     public String getContentType() {
@@ -93,7 +208,8 @@ public class UrlEncodedForm extends FormBody {
         }
 
         public UrlEncodedForm build() {
-            return new UrlEncodedForm(params);
+            //params added afterwards mustn't change a form which may already have been measured
+            return new UrlEncodedForm(new ArrayList<Param>(params));
         }
 
     }
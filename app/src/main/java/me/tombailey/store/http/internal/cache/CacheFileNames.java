@@ -0,0 +1,25 @@
+package me.tombailey.store.http.internal.cache;
+
+import android.util.Base64;
+
+import java.nio.charset.Charset;
+
+/**
+ * Names the files which cached responses are written to.
+ */
+public class CacheFileNames {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     *
+     * @param identifier the identifier of the cached response, its method and url
+     * @return a file name for the cached response
+     */
+    public static String fromIdentifier(String identifier) {
+        //base64 encode to avoid problematic slashes, colons, etc in file names. The url safe
+        //alphabet is needed as the default one includes '/' and wraps lines
+        return Base64.encodeToString(identifier.getBytes(UTF_8),
+                Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING);
+    }
+}
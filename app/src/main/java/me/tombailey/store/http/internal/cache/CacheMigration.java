@@ -0,0 +1,50 @@
+package me.tombailey.store.http.internal.cache;
+
+import io.realm.DynamicRealm;
+import io.realm.DynamicRealmObject;
+import io.realm.FieldAttribute;
+import io.realm.RealmMigration;
+import io.realm.RealmObjectSchema;
+
+/**
+ * Upgrades the cache's realm from older versions of the library so that cached files aren't lost.
+ */
+public class CacheMigration implements RealmMigration {
+
+    public static final long SCHEMA_VERSION = 2;
+
+    @Override
+    public void migrate(DynamicRealm realm, long oldVersion, long newVersion) {
+        RealmObjectSchema cachedFileSchema = realm.getSchema().get("CachedFile");
+
+        if (oldVersion < 1) {
+            //validators for revalidating stale cached files
+            cachedFileSchema
+                    .addField("etag", String.class)
+                    .addField("lastModified", String.class);
+        }
+
+        if (oldVersion < 2) {
+            //until when files can be served stale, which older files can't be
+            cachedFileSchema
+                    .addField("staleUntil", Long.class, FieldAttribute.REQUIRED)
+                    .transform(new RealmObjectSchema.Function() {
+                        @Override
+                        public void apply(DynamicRealmObject cachedFile) {
+                            cachedFile.setLong("staleUntil", cachedFile.getLong("validUntil"));
+                        }
+                    });
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        //realm compares configurations, including their migration, when opening the same file
+        return other instanceof CacheMigration;
+    }
+
+    @Override
+    public int hashCode() {
+        return CacheMigration.class.hashCode();
+    }
+}
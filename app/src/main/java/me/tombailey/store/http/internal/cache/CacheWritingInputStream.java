@@ -0,0 +1,144 @@
+package me.tombailey.store.http.internal.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Copies a message body to a file as it is read, so that a response can be cached without
+ * holding all of it in memory or writing it a second time. The listener is only given the file
+ * once the message body has been completely read. The file is deleted if the message body is
+ * closed part way through, fails to be read or grows beyond the maximum length. Failing to write
+ * the file never fails a read.
+ */
+public class CacheWritingInputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 8 * 1024; //8kb
+
+
+    private InputStream mInputStream;
+
+    private File mFile;
+    private OutputStream mOutputStream;
+    private long mRemaining;
+    private byte[] mSingleByte = new byte[1];
+
+    private Listener mListener;
+
+    /**
+     * @param inputStream the message body, as it is cached
+     * @param file where to write the response
+     * @param head written before the message body
+     * @param maxLength the most the file can hold, including the head
+     * @param listener to be given the file once it has been written
+     * @throws IOException if the file could not be created
+     */
+    public CacheWritingInputStream(InputStream inputStream, File file, byte[] head, long maxLength,
+                                   Listener listener) throws IOException {
+        mInputStream = inputStream;
+        mFile = file;
+        mListener = listener;
+
+        mOutputStream = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+        mRemaining = maxLength;
+        write(head, 0, head.length);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int nextByte = readOrAbandon(null, 0, 1);
+        if (nextByte != -1) {
+            mSingleByte[0] = (byte) nextByte;
+            write(mSingleByte, 0, 1);
+        }
+        return nextByte;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int bytesRead = readOrAbandon(buffer, offset, length);
+        if (bytesRead > 0) {
+            write(buffer, offset, bytesRead);
+        }
+        return bytesRead;
+    }
+
+    private int readOrAbandon(byte[] buffer, int offset, int length) throws IOException {
+        int result;
+        try {
+            result = buffer == null ? mInputStream.read() : mInputStream.read(buffer, offset, length);
+        } catch (IOException ioe) {
+            abandon();
+            throw ioe;
+        }
+
+        if (result == -1) {
+            complete();
+        }
+        return result;
+    }
+
+    private void write(byte[] buffer, int offset, int length) {
+        if (mOutputStream == null) {
+            return;
+        } else if (length > mRemaining) {
+            abandon();
+            return;
+        }
+
+        try {
+            mOutputStream.write(buffer, offset, length);
+            mRemaining -= length;
+        } catch (IOException ioe) {
+            abandon();
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return mInputStream.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        abandon();
+        mInputStream.close();
+    }
+
+    private void complete() {
+        if (mOutputStream != null) {
+            try {
+                mOutputStream.close();
+                mOutputStream = null;
+            } catch (IOException ioe) {
+                abandon();
+                return;
+            }
+            mListener.onCacheWritten(mFile);
+        }
+    }
+
+    private void abandon() {
+        if (mOutputStream != null) {
+            try {
+                mOutputStream.close();
+            } catch (IOException ioe) {
+                //the file is being deleted anyway
+            }
+            mOutputStream = null;
+            mFile.delete();
+        }
+    }
+
+    public interface Listener {
+
+        /**
+         * @param file the completely written response, which now belongs to the listener
+         */
+        void onCacheWritten(File file);
+
+    }
+}
@@ -18,6 +18,9 @@ public class CachedFile extends RealmObject {
     @Index
     private Long validUntil;
 
+    @Required
+    private Long staleUntil;
+
     @Required
     @Index
     private Long lastUsed;
@@ -29,6 +32,10 @@ public class CachedFile extends RealmObject {
     @Required
     private String filePath;
 
+    private String etag;
+
+    private String lastModified;
+
     public CachedFile() {
 
     }
@@ -41,6 +48,10 @@ public class CachedFile extends RealmObject {
         return validUntil;
     }
 
+    public long getStaleUntil() {
+        return staleUntil;
+    }
+
     public int getSize() {
         return size;
     }
@@ -53,6 +64,14 @@ public class CachedFile extends RealmObject {
         return filePath;
     }
 
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
     public void setId(String id) {
         this.id = id;
     }
@@ -61,6 +80,10 @@ public class CachedFile extends RealmObject {
         this.validUntil = validUntil;
     }
 
+    public void setStaleUntil(long staleUntil) {
+        this.staleUntil = staleUntil;
+    }
+
     public void setSize(int size) {
         this.size = size;
     }
@@ -73,15 +96,26 @@ public class CachedFile extends RealmObject {
         this.filePath = filePath;
     }
 
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    public void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
+
 
-    public static CachedFile create(String id, long validUntil, long lastUsed, int size,
-                                    String filePath) {
+    public static CachedFile create(String id, long validUntil, long staleUntil, long lastUsed,
+                                    int size, String filePath, String etag, String lastModified) {
         CachedFile cachedFile = new CachedFile();
         cachedFile.setId(id);
         cachedFile.setValidUntil(validUntil);
+        cachedFile.setStaleUntil(staleUntil);
         cachedFile.setLastUsed(lastUsed);
         cachedFile.setSize(size);
         cachedFile.setFilePath(filePath);
+        cachedFile.setEtag(etag);
+        cachedFile.setLastModified(lastModified);
         return cachedFile;
     }
 }
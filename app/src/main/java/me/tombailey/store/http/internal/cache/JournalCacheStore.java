@@ -0,0 +1,364 @@
+package me.tombailey.store.http.internal.cache;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.tombailey.store.http.CacheEntry;
+import me.tombailey.store.http.CacheStore;
+
+/**
+ * Keeps cache entries in a map, which is rebuilt when the store is opened by replaying a journal
+ * of every change made to it. Changes are appended to the journal, which is rewritten with only
+ * the current entries once it holds too many records that have been superseded.
+ */
+public class JournalCacheStore implements CacheStore, Closeable {
+
+    private static final String LOG_TAG = JournalCacheStore.class.getName();
+
+    private static final int MAGIC = 0x6A726E6C; //"jrnl"
+    private static final int VERSION = 2;
+    //version 1 journals, which don't record until when entries can be served stale, are still
+    //read and then rewritten
+    private static final int MIN_VERSION = 1;
+
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_LAST_USED = 2;
+    private static final byte RECORD_REMOVE = 3;
+
+    //the journal is compacted once it holds more superseded records than entries, and at least
+    //this many
+    private static final int MIN_REDUNDANT_RECORDS = 1000;
+
+    private static final int BUFFER_SIZE = 8 * 1024; //8kb
+
+
+    private File mJournalFile;
+
+    private Map<String, CacheEntry> mCacheEntries;
+
+    //null if the journal couldn't be written, in which case it is rewritten with the next change
+    private DataOutputStream mJournal;
+    private int mRecordCount;
+
+    /**
+     *
+     * @param journalFile the journal to replay and then append changes to, which is created if it
+     *                    doesn't exist
+     */
+    public JournalCacheStore(File journalFile) {
+        mJournalFile = journalFile;
+        mCacheEntries = new HashMap<String, CacheEntry>();
+
+        try {
+            if (replayJournal() == VERSION) {
+                mJournal = openJournal(true);
+            } else {
+                compact();
+            }
+        } catch (IOException ioe) {
+            //the entries which were read are kept and written to a new journal
+            Log.w(LOG_TAG, "failed to read the cache journal, rewriting it");
+            compact();
+        }
+    }
+
+    @Override
+    public synchronized CacheEntry get(String identifier) {
+        return mCacheEntries.get(identifier);
+    }
+
+    @Override
+    public synchronized List<CacheEntry> getAll() {
+        return new ArrayList<CacheEntry>(mCacheEntries.values());
+    }
+
+    @Override
+    public synchronized CacheEntry put(CacheEntry cacheEntry) {
+        CacheEntry replaced = mCacheEntries.put(cacheEntry.getId(), cacheEntry);
+        if (mJournal == null) {
+            compact();
+            return replaced;
+        }
+
+        try {
+            writePut(mJournal, cacheEntry);
+            recordWritten();
+        } catch (IOException ioe) {
+            journalFailed();
+        }
+        return replaced;
+    }
+
+    @Override
+    public synchronized void setLastUsed(String identifier, long lastUsed) {
+        CacheEntry cacheEntry = mCacheEntries.get(identifier);
+        if (cacheEntry != null) {
+            mCacheEntries.put(identifier, new CacheEntry(identifier, cacheEntry.getValidUntil(),
+                    cacheEntry.getStaleUntil(), lastUsed, cacheEntry.getSize(), cacheEntry.getFilePath(),
+                    cacheEntry.getEtag(), cacheEntry.getLastModified()));
+            if (mJournal == null) {
+                compact();
+                return;
+            }
+
+            try {
+                mJournal.writeByte(RECORD_LAST_USED);
+                mJournal.writeUTF(identifier);
+                mJournal.writeLong(lastUsed);
+                recordWritten();
+            } catch (IOException ioe) {
+                journalFailed();
+            }
+        }
+    }
+
+    @Override
+    public synchronized CacheEntry remove(String identifier) {
+        CacheEntry removed = mCacheEntries.remove(identifier);
+        if (removed != null && mJournal == null) {
+            compact();
+        } else if (removed != null) {
+            try {
+                mJournal.writeByte(RECORD_REMOVE);
+                mJournal.writeUTF(identifier);
+                recordWritten();
+            } catch (IOException ioe) {
+                journalFailed();
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Closes the journal. A change made after closing reopens it
+     */
+    @Override
+    public synchronized void close() {
+        closeJournal();
+    }
+
+    /**
+     * Rewrites the journal with only the current entries
+     */
+    public synchronized void compact() {
+        closeJournal();
+
+        File temporaryFile = new File(mJournalFile.getPath() + ".tmp");
+        try {
+            DataOutputStream journal = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temporaryFile), BUFFER_SIZE));
+            try {
+                journal.writeInt(MAGIC);
+                journal.writeInt(VERSION);
+                for (CacheEntry cacheEntry : mCacheEntries.values()) {
+                    writePut(journal, cacheEntry);
+                }
+            } finally {
+                journal.close();
+            }
+
+            if (!temporaryFile.renameTo(mJournalFile)) {
+                throw new IOException("failed to rename " + temporaryFile + " to " + mJournalFile);
+            }
+            mRecordCount = mCacheEntries.size();
+            mJournal = openJournal(true);
+        } catch (IOException ioe) {
+            temporaryFile.delete();
+            journalFailed();
+        }
+    }
+
+    /**
+     * @return the version of the journal which was replayed
+     */
+    private int replayJournal() throws IOException {
+        if (!mJournalFile.exists()) {
+            mJournal = openJournal(false);
+            mJournal.writeInt(MAGIC);
+            mJournal.writeInt(VERSION);
+            closeJournal();
+            return VERSION;
+        }
+
+        CountingInputStream countingInputStream = new CountingInputStream(new BufferedInputStream(
+                new FileInputStream(mJournalFile), BUFFER_SIZE));
+        DataInputStream journal = new DataInputStream(countingInputStream);
+        try {
+            if (journal.readInt() != MAGIC) {
+                throw new IOException(mJournalFile + " is not a cache journal");
+            }
+            int version = journal.readInt();
+            if (version < MIN_VERSION || version > VERSION) {
+                throw new IOException(mJournalFile + " is an unknown cache journal version");
+            }
+
+            long validLength = countingInputStream.getCount();
+            try {
+                int recordType = journal.read();
+                while (recordType != -1) {
+                    readRecord(journal, recordType, version);
+                    mRecordCount++;
+                    validLength = countingInputStream.getCount();
+
+                    recordType = journal.read();
+                }
+            } catch (EOFException eofe) {
+                //the last record was only partly written, drop it so that appends follow a
+                //complete record
+                Log.w(LOG_TAG, "cache journal ended part way through a record");
+                truncate(validLength);
+            }
+            return version;
+        } finally {
+            journal.close();
+        }
+    }
+
+    private void readRecord(DataInputStream journal, int recordType, int version)
+            throws IOException {
+        switch (recordType) {
+            case RECORD_PUT:
+                String id = journal.readUTF();
+                long validUntil = journal.readLong();
+                long staleUntil = version >= 2 ? journal.readLong() : validUntil;
+                CacheEntry cacheEntry = new CacheEntry(id, validUntil, staleUntil,
+                        journal.readLong(), journal.readInt(), journal.readUTF(),
+                        readNullableUTF(journal), readNullableUTF(journal));
+                mCacheEntries.put(cacheEntry.getId(), cacheEntry);
+                break;
+
+            case RECORD_LAST_USED:
+                String identifier = journal.readUTF();
+                long lastUsed = journal.readLong();
+                CacheEntry usedEntry = mCacheEntries.get(identifier);
+                if (usedEntry != null) {
+                    mCacheEntries.put(identifier, new CacheEntry(identifier,
+                            usedEntry.getValidUntil(), usedEntry.getStaleUntil(), lastUsed, usedEntry.getSize(),
+                            usedEntry.getFilePath(), usedEntry.getEtag(),
+                            usedEntry.getLastModified()));
+                }
+                break;
+
+            case RECORD_REMOVE:
+                mCacheEntries.remove(journal.readUTF());
+                break;
+
+            default:
+                throw new IOException("unknown cache journal record " + recordType);
+        }
+    }
+
+    private void truncate(long length) throws IOException {
+        RandomAccessFile journal = new RandomAccessFile(mJournalFile, "rw");
+        try {
+            journal.setLength(length);
+        } finally {
+            journal.close();
+        }
+    }
+
+    private DataOutputStream openJournal(boolean append) throws FileNotFoundException {
+        return new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(mJournalFile, append), BUFFER_SIZE));
+    }
+
+    private void closeJournal() {
+        if (mJournal != null) {
+            try {
+                mJournal.close();
+            } catch (IOException ioe) {
+                //the journal is about to be rewritten
+            }
+            mJournal = null;
+        }
+    }
+
+    private void recordWritten() throws IOException {
+        //each change reaches the file straight away so that it survives the process being killed
+        mJournal.flush();
+        mRecordCount++;
+
+        if (mRecordCount - mCacheEntries.size() > Math.max(MIN_REDUNDANT_RECORDS, mCacheEntries.size())) {
+            compact();
+        }
+    }
+
+    private void journalFailed() {
+        //the entries in memory are still correct, so keep using them and try to write them all out
+        //again with the next change
+        Log.w(LOG_TAG, "failed to write to the cache journal");
+        closeJournal();
+    }
+
+    private static void writePut(DataOutputStream journal, CacheEntry cacheEntry) throws IOException {
+        journal.writeByte(RECORD_PUT);
+        journal.writeUTF(cacheEntry.getId());
+        journal.writeLong(cacheEntry.getValidUntil());
+        journal.writeLong(cacheEntry.getStaleUntil());
+        journal.writeLong(cacheEntry.getLastUsed());
+        journal.writeInt(cacheEntry.getSize());
+        journal.writeUTF(cacheEntry.getFilePath());
+        writeNullableUTF(journal, cacheEntry.getEtag());
+        writeNullableUTF(journal, cacheEntry.getLastModified());
+    }
+
+    private static void writeNullableUTF(DataOutputStream journal, String value) throws IOException {
+        journal.writeBoolean(value != null);
+        if (value != null) {
+            journal.writeUTF(value);
+        }
+    }
+
+    private static String readNullableUTF(DataInputStream journal) throws IOException {
+        return journal.readBoolean() ? journal.readUTF() : null;
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long mCount;
+
+        private CountingInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int nextByte = super.read();
+            if (nextByte != -1) {
+                mCount++;
+            }
+            return nextByte;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int bytesRead = super.read(buffer, offset, length);
+            if (bytesRead > 0) {
+                mCount += bytesRead;
+            }
+            return bytesRead;
+        }
+
+        private long getCount() {
+            return mCount;
+        }
+    }
+}
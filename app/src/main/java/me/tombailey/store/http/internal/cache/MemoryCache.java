@@ -0,0 +1,104 @@
+package me.tombailey.store.http.internal.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of parsed values which is bounded by the number of bytes the values
+ * hold rather than by the number of entries.
+ * @param <V> the type of value being cached
+ */
+public class MemoryCache<V> {
+
+    private int mMaxSize;
+    private int mSize;
+
+    //iterates from least to most recently used
+    private LinkedHashMap<String, Entry<V>> mEntries;
+
+    /**
+     *
+     * @param maxSize the max size, in bytes, of all values in the cache
+     */
+    public MemoryCache(int maxSize) {
+        mMaxSize = maxSize;
+        mEntries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true);
+    }
+
+    /**
+     *
+     * @param key the key the value was cached with
+     * @param now the current time, in milliseconds
+     * @return the value or null if it isn't cached or is no longer valid
+     */
+    public synchronized V get(String key, long now) {
+        Entry<V> entry = mEntries.get(key);
+        if (entry == null) {
+            return null;
+        } else if (entry.mValidUntil <= now) {
+            remove(key);
+            return null;
+        } else {
+            return entry.mValue;
+        }
+    }
+
+    /**
+     *
+     * @param key the key to cache the value with
+     * @param value the value to cache
+     * @param size the size, in bytes, of the value
+     * @param validUntil the time, in milliseconds, when the value should no longer be used
+     */
+    public synchronized void put(String key, V value, int size, long validUntil) {
+        remove(key);
+        if (size > mMaxSize) {
+            return;
+        }
+
+        mEntries.put(key, new Entry<V>(value, size, validUntil));
+        mSize += size;
+        trimToSize(mMaxSize);
+    }
+
+    public synchronized void remove(String key) {
+        Entry<V> entry = mEntries.remove(key);
+        if (entry != null) {
+            mSize -= entry.mSize;
+        }
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    /**
+     * @return the size, in bytes, of all values in the cache
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    private void trimToSize(int maxSize) {
+        Iterator<Map.Entry<String, Entry<V>>> iterator = mEntries.entrySet().iterator();
+        while (mSize > maxSize && iterator.hasNext()) {
+            mSize -= iterator.next().getValue().mSize;
+            iterator.remove();
+        }
+    }
+
+    private static class Entry<V> {
+
+        private V mValue;
+        private int mSize;
+        private long mValidUntil;
+
+        private Entry(V value, int size, long validUntil) {
+            mValue = value;
+            mSize = size;
+            mValidUntil = validUntil;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package me.tombailey.store.http.internal.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.realm.Realm;
+import io.realm.RealmConfiguration;
+import io.realm.RealmResults;
+import me.tombailey.store.http.CacheEntry;
+import me.tombailey.store.http.CacheStore;
+
+/**
+ * Keeps cache entries in Realm as {@link CachedFile}s.
+ */
+public class RealmCacheStore implements CacheStore {
+
+    private RealmConfiguration mRealmConfiguration;
+
+    public RealmCacheStore(RealmConfiguration realmConfiguration) {
+        mRealmConfiguration = realmConfiguration;
+    }
+
+    protected Realm getRealm() {
+        return Realm.getInstance(mRealmConfiguration);
+    }
+
+    @Override
+    public CacheEntry get(String identifier) {
+        Realm realm = getRealm();
+        CachedFile cachedFile = findCachedFile(realm, identifier);
+        CacheEntry cacheEntry = cachedFile == null ? null : toCacheEntry(cachedFile);
+        realm.close();
+        return cacheEntry;
+    }
+
+    @Override
+    public List<CacheEntry> getAll() {
+        Realm realm = getRealm();
+        RealmResults<CachedFile> cachedFiles = realm.where(CachedFile.class).findAll();
+        List<CacheEntry> cacheEntries = new ArrayList<CacheEntry>(cachedFiles.size());
+        for (CachedFile cachedFile : cachedFiles) {
+            cacheEntries.add(toCacheEntry(cachedFile));
+        }
+        realm.close();
+        return cacheEntries;
+    }
+
+    @Override
+    public CacheEntry put(CacheEntry cacheEntry) {
+        Realm realm = getRealm();
+        realm.beginTransaction();
+        CachedFile replaced = findCachedFile(realm, cacheEntry.getId());
+        CacheEntry replacedEntry = replaced == null ? null : toCacheEntry(replaced);
+        realm.insertOrUpdate(CachedFile.create(cacheEntry.getId(), cacheEntry.getValidUntil(),
+                cacheEntry.getStaleUntil(), cacheEntry.getLastUsed(), cacheEntry.getSize(), cacheEntry.getFilePath(),
+                cacheEntry.getEtag(), cacheEntry.getLastModified()));
+        realm.commitTransaction();
+        realm.close();
+        return replacedEntry;
+    }
+
+    @Override
+    public void setLastUsed(String identifier, long lastUsed) {
+        Realm realm = getRealm();
+        CachedFile cachedFile = findCachedFile(realm, identifier);
+        if (cachedFile != null) {
+            realm.beginTransaction();
+            cachedFile.setLastUsed(lastUsed);
+            realm.commitTransaction();
+        }
+        realm.close();
+    }
+
+    @Override
+    public CacheEntry remove(String identifier) {
+        Realm realm = getRealm();
+        CachedFile cachedFile = findCachedFile(realm, identifier);
+        CacheEntry removed = null;
+        if (cachedFile != null) {
+            removed = toCacheEntry(cachedFile);
+            realm.beginTransaction();
+            cachedFile.deleteFromRealm();
+            realm.commitTransaction();
+        }
+        realm.close();
+        return removed;
+    }
+
+    private static CachedFile findCachedFile(Realm realm, String identifier) {
+        return realm.where(CachedFile.class)
+                .equalTo("id", identifier)
+                .findFirst();
+    }
+
+    private static CacheEntry toCacheEntry(CachedFile cachedFile) {
+        return new CacheEntry(cachedFile.getId(), cachedFile.getValidUntil(),
+                cachedFile.getStaleUntil(), cachedFile.getLastUsed(), cachedFile.getSize(), cachedFile.getFilePath(),
+                cachedFile.getEtag(), cachedFile.getLastModified());
+    }
+}
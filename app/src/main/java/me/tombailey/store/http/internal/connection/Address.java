@@ -0,0 +1,85 @@
+package me.tombailey.store.http.internal.connection;
+
+import javax.net.ssl.SSLSocketFactory;
+
+import me.tombailey.store.http.Proxy;
+
+/**
+ * Identifies where a {@link Connection} leads so that idle connections can be matched up with
+ * later requests for the same destination.
+ */
+public class Address {
+
+    private Proxy mProxy;
+    private String mHost;
+    private int mPort;
+    private boolean mSecure;
+
+    //connections made with different isolation tokens use different Tor circuits
+    private String mIsolationToken;
+
+    //null unless the connection is secure
+    private SSLSocketFactory mSSLSocketFactory;
+
+    public Address(Proxy proxy, String host, int port, boolean secure, String isolationToken,
+                   SSLSocketFactory sslSocketFactory) {
+        mProxy = proxy;
+        mHost = host;
+        mPort = port;
+        mSecure = secure;
+        mIsolationToken = isolationToken;
+        mSSLSocketFactory = sslSocketFactory;
+    }
+
+    public Proxy getProxy() {
+        return mProxy;
+    }
+
+    public String getHost() {
+        return mHost;
+    }
+
+    public int getPort() {
+        return mPort;
+    }
+
+    public boolean isSecure() {
+        return mSecure;
+    }
+
+    public String getIsolationToken() {
+        return mIsolationToken;
+    }
+
+    public SSLSocketFactory getSSLSocketFactory() {
+        return mSSLSocketFactory;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        } else if (other instanceof Address) {
+            Address otherAddress = (Address) other;
+            return mPort == otherAddress.mPort && mSecure == otherAddress.mSecure &&
+                    mHost.equalsIgnoreCase(otherAddress.mHost) &&
+                    mProxy.equals(otherAddress.mProxy) &&
+                    (mIsolationToken == null ? otherAddress.mIsolationToken == null :
+                            mIsolationToken.equals(otherAddress.mIsolationToken)) &&
+                    mSSLSocketFactory == otherAddress.mSSLSocketFactory;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        int hashCode = mProxy.hashCode();
+        hashCode = 31 * hashCode + mHost.toLowerCase().hashCode();
+        hashCode = 31 * hashCode + mPort;
+        hashCode = 31 * hashCode + (mSecure ? 1 : 0);
+        hashCode = 31 * hashCode + (mIsolationToken == null ? 0 : mIsolationToken.hashCode());
+        hashCode = 31 * hashCode + (mSSLSocketFactory == null ? 0 : mSSLSocketFactory.hashCode());
+        return hashCode;
+    }
+}
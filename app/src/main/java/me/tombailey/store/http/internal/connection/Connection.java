@@ -0,0 +1,105 @@
+package me.tombailey.store.http.internal.connection;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import me.tombailey.store.http.internal.io.HttpInputStream;
+import me.tombailey.store.http.internal.io.RequestBuffer;
+
+/**
+ * A socket (already through the proxy and, for HTTPS, the TLS handshake) along with the streams
+ * used to talk over it. Streams are kept for the lifetime of the socket so that bytes buffered
+ * while reading one response are not lost before the next one.
+ */
+public class Connection {
+
+    private Address mAddress;
+    private Socket mSocket;
+
+    private HttpInputStream mInputStream;
+    private OutputStream mOutputStream;
+    //reused by each request made over the connection
+    private RequestBuffer mRequestBuffer;
+
+    private long mIdleSince;
+    private boolean mReused;
+
+    public Connection(Address address, Socket socket) throws IOException {
+        mAddress = address;
+        mSocket = socket;
+
+        mInputStream = new HttpInputStream(socket.getInputStream());
+        mOutputStream = socket.getOutputStream();
+        mRequestBuffer = new RequestBuffer();
+    }
+
+    public Address getAddress() {
+        return mAddress;
+    }
+
+    public HttpInputStream getInputStream() {
+        return mInputStream;
+    }
+
+    public OutputStream getOutputStream() {
+        return mOutputStream;
+    }
+
+    public RequestBuffer getRequestBuffer() {
+        return mRequestBuffer;
+    }
+
+    public long getIdleSince() {
+        return mIdleSince;
+    }
+
+    /**
+     * @return true if this connection was previously used for another request (and so may have
+     * been closed by the server in the meantime)
+     */
+    public boolean isReused() {
+        return mReused;
+    }
+
+    public void markIdle(long now) {
+        mIdleSince = now;
+        mReused = true;
+    }
+
+    /**
+     * Checks that an idle connection can still be written to. A server that has given up on the
+     * connection will have closed it (read produces -1) and a server that is out of step will
+     * have sent unexpected data, so only a read that times out means the connection is usable.
+     * @return true if the connection can be used for another request
+     */
+    public boolean isHealthy() {
+        if (mSocket.isClosed() || mSocket.isInputShutdown() || mSocket.isOutputShutdown()) {
+            return false;
+        }
+
+        try {
+            int readTimeout = mSocket.getSoTimeout();
+            try {
+                mSocket.setSoTimeout(1);
+                mInputStream.read();
+                return false;
+            } finally {
+                mSocket.setSoTimeout(readTimeout);
+            }
+        } catch (SocketTimeoutException ste) {
+            return true;
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    public void close() {
+        try {
+            mSocket.close();
+        } catch (IOException ioe) {
+            //nothing else can be done, the socket is being discarded anyway
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package me.tombailey.store.http.internal.connection;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Layers TLS over connections made through the proxy, in a way which lets later connections to
+ * the same host resume an earlier session with an abbreviated handshake.
+ */
+public class TlsSockets {
+
+    private static final int SESSION_CACHE_SIZE = 64;
+    private static final int SESSION_TIMEOUT = 24 * 60 * 60; //24 hours, in seconds
+
+
+    private static SSLSocketFactory sDefaultSocketFactory;
+
+    /**
+     * @return a factory whose client sessions are cached (by host and port) and shared by every
+     * request which doesn't set its own factory
+     */
+    public static synchronized SSLSocketFactory getDefaultSocketFactory() {
+        if (sDefaultSocketFactory == null) {
+            try {
+                SSLContext sslContext = SSLContext.getInstance("TLS");
+                sslContext.init(null, null, null);
+
+                SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+                sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+                sessionContext.setSessionTimeout(SESSION_TIMEOUT);
+
+                sDefaultSocketFactory = sslContext.getSocketFactory();
+            } catch (GeneralSecurityException gse) {
+                sDefaultSocketFactory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+            }
+        }
+        return sDefaultSocketFactory;
+    }
+
+    /**
+     * @param sslSocketFactory the factory to create the TLS socket with
+     * @param socket the connection to the destination, through the proxy
+     * @param host the host of the destination, used to find a session to resume and for SNI
+     * @param port the port of the destination
+     * @return the TLS socket
+     * @throws IOException if the TLS socket could not be created
+     */
+    public static Socket createSocket(SSLSocketFactory sslSocketFactory, Socket socket, String host,
+                                      int port) throws IOException {
+        Socket sslSocket = sslSocketFactory.createSocket(socket, host, port, true);
+        if (sslSocket instanceof SSLSocket) {
+            //Android's OpenSSL backed sockets only ask for session tickets, which let the server
+            //resume sessions it no longer has cached, and send SNI when told to
+            invokeIfPresent(sslSocket, "setUseSessionTickets", boolean.class, true);
+            invokeIfPresent(sslSocket, "setHostname", String.class, host);
+        }
+        return sslSocket;
+    }
+
+    private static void invokeIfPresent(Object target, String methodName, Class<?> parameterType,
+                                        Object argument) {
+        try {
+            Method method = target.getClass().getMethod(methodName, parameterType);
+            method.invoke(target, argument);
+        } catch (Exception e) {
+            //not supported by this TLS implementation
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package me.tombailey.store.http.internal.download;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The byte range each segment of a download covers and how much of it has been written, kept in
+ * a file alongside the download so that an interrupted download can be resumed.
+ */
+public class DownloadState {
+
+    private static final int MAGIC = 0x73676D74; //"sgmt"
+    private static final int VERSION = 1;
+
+
+    private long mLength;
+    private String mValidator;
+
+    private long[] mStarts;
+    private long[] mEnds;
+    private long[] mPositions;
+
+    private DownloadState(long length, String validator, long[] starts, long[] ends,
+                          long[] positions) {
+        mLength = length;
+        mValidator = validator;
+
+        mStarts = starts;
+        mEnds = ends;
+        mPositions = positions;
+    }
+
+    /**
+     * Splits a download into segments of (nearly) equal length
+     * @param length the length, in bytes, of the download
+     * @param validator the ETag or Last-Modified date of the download, or null if it has neither
+     * @param segments the number of segments
+     * @return the state of a download which hasn't been started
+     */
+    public static DownloadState plan(long length, String validator, int segments) {
+        long[] starts = new long[segments];
+        long[] ends = new long[segments];
+        long[] positions = new long[segments];
+        for (int segment = 0; segment < segments; segment++) {
+            starts[segment] = length * segment / segments;
+            ends[segment] = length * (segment + 1) / segments;
+            positions[segment] = starts[segment];
+        }
+        return new DownloadState(length, validator, starts, ends, positions);
+    }
+
+    /**
+     * @param stateFile the file the state was saved to
+     * @return the saved state or null if it doesn't exist or couldn't be read
+     */
+    public static DownloadState load(File stateFile) {
+        if (!stateFile.exists()) {
+            return null;
+        }
+
+        try {
+            DataInputStream inputStream = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(stateFile)));
+            try {
+                if (inputStream.readInt() != MAGIC || inputStream.readInt() != VERSION) {
+                    return null;
+                }
+
+                long length = inputStream.readLong();
+                String validator = inputStream.readBoolean() ? inputStream.readUTF() : null;
+                int segments = inputStream.readInt();
+                if (segments <= 0) {
+                    return null;
+                }
+
+                long[] starts = new long[segments];
+                long[] ends = new long[segments];
+                long[] positions = new long[segments];
+                for (int segment = 0; segment < segments; segment++) {
+                    starts[segment] = inputStream.readLong();
+                    ends[segment] = inputStream.readLong();
+                    positions[segment] = inputStream.readLong();
+                    if (positions[segment] < starts[segment] || positions[segment] > ends[segment]) {
+                        return null;
+                    }
+                }
+                return new DownloadState(length, validator, starts, ends, positions);
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    /**
+     * Saves the state, replacing the file rather than overwriting it so that a save which is
+     * interrupted leaves the previous state intact
+     * @param stateFile the file to save the state to
+     * @throws IOException if the state couldn't be saved
+     */
+    public synchronized void save(File stateFile) throws IOException {
+        File temporaryFile = new File(stateFile.getPath() + ".tmp");
+        DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temporaryFile)));
+        try {
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(VERSION);
+            outputStream.writeLong(mLength);
+            outputStream.writeBoolean(mValidator != null);
+            if (mValidator != null) {
+                outputStream.writeUTF(mValidator);
+            }
+            outputStream.writeInt(mStarts.length);
+            for (int segment = 0; segment < mStarts.length; segment++) {
+                outputStream.writeLong(mStarts[segment]);
+                outputStream.writeLong(mEnds[segment]);
+                outputStream.writeLong(mPositions[segment]);
+            }
+        } finally {
+            outputStream.close();
+        }
+
+        if (!temporaryFile.renameTo(stateFile)) {
+            temporaryFile.delete();
+            throw new IOException("failed to rename " + temporaryFile + " to " + stateFile);
+        }
+    }
+
+    /**
+     * @param length the length, in bytes, of the download
+     * @param validator the ETag or Last-Modified date of the download, or null if it has neither
+     * @return true if the saved state is for the same version of the download, which can't be
+     * known without a validator
+     */
+    public boolean matches(long length, String validator) {
+        return mLength == length && validator != null && validator.equals(mValidator);
+    }
+
+    public long getLength() {
+        return mLength;
+    }
+
+    public int getSegments() {
+        return mStarts.length;
+    }
+
+    /**
+     * @param segment the index of the segment
+     * @return the offset, in bytes, to write the segment's next byte to
+     */
+    public synchronized long getPosition(int segment) {
+        return mPositions[segment];
+    }
+
+    /**
+     * @param segment the index of the segment
+     * @param position the offset, in bytes, to write the segment's next byte to
+     */
+    public synchronized void setPosition(int segment, long position) {
+        mPositions[segment] = position;
+    }
+
+    /**
+     * @param segment the index of the segment
+     * @return the offset, in bytes, the segment ends before
+     */
+    public long getEnd(int segment) {
+        return mEnds[segment];
+    }
+
+    /**
+     * @return the number of bytes which have been written
+     */
+    public synchronized long getBytesWritten() {
+        long bytesWritten = 0;
+        for (int segment = 0; segment < mStarts.length; segment++) {
+            bytesWritten += mPositions[segment] - mStarts[segment];
+        }
+        return bytesWritten;
+    }
+}
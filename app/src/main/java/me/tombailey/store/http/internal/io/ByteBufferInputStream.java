@@ -0,0 +1,50 @@
+package me.tombailey.store.http.internal.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the remaining bytes of a buffer, such as a memory-mapped cache file, without copying
+ * them onto the heap first. Reading moves the position of the buffer.
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    private ByteBuffer mByteBuffer;
+
+    public ByteBufferInputStream(ByteBuffer byteBuffer) {
+        mByteBuffer = byteBuffer;
+    }
+
+    @Override
+    public int read() {
+        if (!mByteBuffer.hasRemaining()) {
+            return -1;
+        }
+        return mByteBuffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        } else if (!mByteBuffer.hasRemaining()) {
+            return -1;
+        }
+
+        int bytesToRead = Math.min(length, mByteBuffer.remaining());
+        mByteBuffer.get(buffer, offset, bytesToRead);
+        return bytesToRead;
+    }
+
+    @Override
+    public long skip(long count) {
+        int bytesToSkip = (int) Math.max(0, Math.min(count, mByteBuffer.remaining()));
+        mByteBuffer.position(mByteBuffer.position() + bytesToSkip);
+        return bytesToSkip;
+    }
+
+    @Override
+    public int available() {
+        return mByteBuffer.remaining();
+    }
+}
@@ -0,0 +1,131 @@
+package me.tombailey.store.http.internal.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import me.tombailey.store.http.Header;
+
+/**
+ * Decodes a message body sent with "Transfer-Encoding: chunked", producing -1 as soon as the
+ * zero length chunk (and any trailers after it) has been read.
+ */
+public class ChunkedInputStream extends InputStream {
+
+    private static final int MAX_CHUNK_SIZE_DIGITS = 15;
+
+
+    private HttpInputStream mInputStream;
+
+    //-1 before the first chunk size has been read
+    private long mChunkRemaining;
+    private boolean mEnded;
+
+    private Header[] mTrailers;
+
+    public ChunkedInputStream(HttpInputStream inputStream) {
+        mInputStream = inputStream;
+        mChunkRemaining = -1;
+        mTrailers = new Header[0];
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!hasChunkRemaining()) {
+            return -1;
+        }
+
+        int nextByte = mInputStream.read();
+        if (nextByte == -1) {
+            throw new EOFException("stream ended part way through a chunk");
+        }
+
+        mChunkRemaining--;
+        return nextByte;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        } else if (!hasChunkRemaining()) {
+            return -1;
+        }
+
+        int bytesRead = mInputStream.read(buffer, offset, (int) Math.min(length, mChunkRemaining));
+        if (bytesRead == -1) {
+            throw new EOFException("stream ended part way through a chunk");
+        }
+
+        mChunkRemaining -= bytesRead;
+        return bytesRead;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (mEnded || mChunkRemaining <= 0) {
+            return 0;
+        }
+        return (int) Math.min(mInputStream.available(), mChunkRemaining);
+    }
+
+    @Override
+    public void close() throws IOException {
+        //the underlying stream belongs to the connection, not to this message body
+        mEnded = true;
+    }
+
+    /**
+     * @return the trailers sent after the last chunk, which are only available once the stream
+     * has produced -1
+     */
+    public Header[] getTrailers() {
+        return mTrailers;
+    }
+
+    private boolean hasChunkRemaining() throws IOException {
+        if (mEnded) {
+            return false;
+        } else if (mChunkRemaining > 0) {
+            return true;
+        }
+
+        if (mChunkRemaining == 0) {
+            //chunk data is followed by CRLF before the next chunk size
+            if (mInputStream.readLine() != 0) {
+                throw new IOException("expected CRLF after chunk");
+            }
+        }
+
+        mChunkRemaining = readChunkSize();
+        if (mChunkRemaining == 0) {
+            mTrailers = ResponseHeadParser.parseHeaders(mInputStream);
+            mEnded = true;
+            return false;
+        }
+        return true;
+    }
+
+    private long readChunkSize() throws IOException {
+        int lineLength = mInputStream.readLine();
+        byte[] line = mInputStream.getLine();
+
+        long chunkSize = 0;
+        int digits = 0;
+        for (int index = 0; index < lineLength; index++) {
+            int digit = Character.digit(line[index], 16);
+            if (digit == -1) {
+                //chunk extensions (after ';') and whitespace are ignored
+                break;
+            } else if (++digits > MAX_CHUNK_SIZE_DIGITS) {
+                throw new IOException("chunk size is too large");
+            }
+            chunkSize = (chunkSize << 4) | digit;
+        }
+
+        if (digits == 0) {
+            throw new IOException("malformed chunk size: " + new String(line, 0, lineLength, "ISO-8859-1"));
+        }
+        return chunkSize;
+    }
+}
@@ -0,0 +1,103 @@
+package me.tombailey.store.http.internal.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes a message body with "Transfer-Encoding: chunked", for form bodies whose length isn't
+ * known until they have been written. Writes are collected into chunks of up to a fixed size, so
+ * small writes don't each become a chunk. {@link #finish()} writes the zero length chunk which
+ * ends the message body and, like {@link #close()}, doesn't close the underlying stream.
+ */
+public class ChunkedOutputStream extends OutputStream {
+
+    private static final int DEFAULT_CHUNK_SIZE = 8 * 1024; //8kb
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+
+    private OutputStream mOutputStream;
+
+    private byte[] mChunk;
+    private int mChunkLength;
+
+    private boolean mFinished;
+
+    public ChunkedOutputStream(OutputStream outputStream) {
+        this(outputStream, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ChunkedOutputStream(OutputStream outputStream, int chunkSize) {
+        mOutputStream = outputStream;
+        mChunk = new byte[chunkSize];
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+        throwIfFinished();
+        if (mChunkLength == mChunk.length) {
+            writeChunk();
+        }
+        mChunk[mChunkLength++] = (byte) oneByte;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        throwIfFinished();
+        while (length > 0) {
+            if (mChunkLength == mChunk.length) {
+                writeChunk();
+            }
+
+            int copyLength = Math.min(length, mChunk.length - mChunkLength);
+            System.arraycopy(buffer, offset, mChunk, mChunkLength, copyLength);
+            mChunkLength += copyLength;
+            offset += copyLength;
+            length -= copyLength;
+        }
+    }
+
+    /**
+     * Writes any collected bytes as a chunk, without ending the message body
+     */
+    @Override
+    public void flush() throws IOException {
+        throwIfFinished();
+        writeChunk();
+        mOutputStream.flush();
+    }
+
+    /**
+     * Writes any collected bytes and then the zero length chunk which ends the message body
+     * @throws IOException if the underlying stream couldn't be written to
+     */
+    public void finish() throws IOException {
+        if (!mFinished) {
+            writeChunk();
+            mOutputStream.write(LAST_CHUNK);
+            mFinished = true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+    private void writeChunk() throws IOException {
+        if (mChunkLength > 0) {
+            mOutputStream.write(Integer.toHexString(mChunkLength).getBytes("ISO-8859-1"));
+            mOutputStream.write(CRLF);
+            mOutputStream.write(mChunk, 0, mChunkLength);
+            mOutputStream.write(CRLF);
+            mChunkLength = 0;
+        }
+    }
+
+    private void throwIfFinished() throws IOException {
+        if (mFinished) {
+            throw new IOException("chunked message body has already been finished");
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package me.tombailey.store.http.internal.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decompresses a message body sent with "Content-Encoding: gzip" or "deflate". The decoder is
+ * only created on the first read, so that a streamed response can be returned before any of the
+ * message body has arrived. Once the decoder ends, the rest of the encoded stream is read so that
+ * a keep-alive connection sees the end of the message body.
+ */
+public class ContentDecodingInputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 8 * 1024; //8kb
+
+
+    private InputStream mEncodedInputStream;
+    private boolean mGzip;
+
+    private InputStream mDecodedInputStream;
+
+    private ContentDecodingInputStream(InputStream encodedInputStream, boolean gzip) {
+        mEncodedInputStream = encodedInputStream;
+        mGzip = gzip;
+    }
+
+    /**
+     *
+     * @param contentEncoding the value of the Content-Encoding header or null
+     * @return true if message bodies with the content encoding can be decoded
+     */
+    public static boolean isSupported(String contentEncoding) {
+        return isGzip(contentEncoding) || isDeflate(contentEncoding);
+    }
+
+    /**
+     *
+     * @param encodedInputStream the message body as it was sent
+     * @param contentEncoding the value of the Content-Encoding header or null
+     * @return a stream producing the decoded message body, or the message body as it was sent if
+     * the content encoding isn't supported
+     */
+    public static InputStream decode(InputStream encodedInputStream, String contentEncoding) {
+        if (isSupported(contentEncoding)) {
+            return new ContentDecodingInputStream(encodedInputStream, isGzip(contentEncoding));
+        } else {
+            return encodedInputStream;
+        }
+    }
+
+    private static boolean isGzip(String contentEncoding) {
+        return contentEncoding != null && (contentEncoding.equalsIgnoreCase("gzip") ||
+                contentEncoding.equalsIgnoreCase("x-gzip"));
+    }
+
+    private static boolean isDeflate(String contentEncoding) {
+        return contentEncoding != null && contentEncoding.equalsIgnoreCase("deflate");
+    }
+
+    @Override
+    public int read() throws IOException {
+        int nextByte = getDecodedInputStream().read();
+        if (nextByte == -1) {
+            drainEncodedInputStream();
+        }
+        return nextByte;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int bytesRead = getDecodedInputStream().read(buffer, offset, length);
+        if (bytesRead == -1) {
+            drainEncodedInputStream();
+        }
+        return bytesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mDecodedInputStream == null) {
+            mEncodedInputStream.close();
+        } else {
+            mDecodedInputStream.close();
+        }
+    }
+
+    private InputStream getDecodedInputStream() throws IOException {
+        if (mDecodedInputStream == null) {
+            if (mGzip) {
+                mDecodedInputStream = new GZIPInputStream(mEncodedInputStream, BUFFER_SIZE);
+            } else {
+                mDecodedInputStream = createInflaterInputStream();
+            }
+        }
+        return mDecodedInputStream;
+    }
+
+    private InputStream createInflaterInputStream() throws IOException {
+        //"deflate" should be zlib wrapped but some servers send raw deflate data, so check for a
+        //zlib header before choosing how to inflate
+        PushbackInputStream pushbackInputStream = new PushbackInputStream(mEncodedInputStream, 2);
+        int firstByte = pushbackInputStream.read();
+        int secondByte = pushbackInputStream.read();
+        if (secondByte != -1) {
+            pushbackInputStream.unread(secondByte);
+        }
+        if (firstByte != -1) {
+            pushbackInputStream.unread(firstByte);
+        }
+
+        boolean zlibWrapped = firstByte != -1 && secondByte != -1 && (firstByte & 0x0F) == 8 &&
+                ((firstByte << 8) | secondByte) % 31 == 0;
+        return new EndingInflaterInputStream(pushbackInputStream, new Inflater(!zlibWrapped));
+    }
+
+    private void drainEncodedInputStream() throws IOException {
+        byte[] buffer = new byte[64];
+        while (mEncodedInputStream.read(buffer) != -1) {
+            //nothing should be left after the compressed data, this just reaches the end
+        }
+    }
+
+    /**
+     * InflaterInputStream only ends inflaters which it created itself, so this ends the one it is
+     * given when it is closed, like GZIPInputStream does, rather than leaving its native zlib
+     * memory until the inflater is finalized
+     */
+    private static class EndingInflaterInputStream extends InflaterInputStream {
+
+        private boolean mClosed;
+
+        private EndingInflaterInputStream(InputStream inputStream, Inflater inflater) {
+            super(inputStream, inflater, BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!mClosed) {
+                mClosed = true;
+                try {
+                    super.close();
+                } finally {
+                    inf.end();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package me.tombailey.store.http.internal.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a message body which is framed by a Content-length, producing -1 once that many bytes
+ * have been read even though the underlying stream might continue with the next response.
+ */
+public class FixedLengthInputStream extends InputStream {
+
+    private InputStream mInputStream;
+    private long mRemaining;
+
+    public FixedLengthInputStream(InputStream inputStream, long length) {
+        mInputStream = inputStream;
+        mRemaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (mRemaining == 0) {
+            return -1;
+        }
+
+        int nextByte = mInputStream.read();
+        if (nextByte == -1) {
+            throw new EOFException("stream ended with " + mRemaining + " bytes of the message body remaining");
+        }
+
+        mRemaining--;
+        return nextByte;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (mRemaining == 0) {
+            return -1;
+        } else if (length == 0) {
+            return 0;
+        }
+
+        int bytesRead = mInputStream.read(buffer, offset, (int) Math.min(length, mRemaining));
+        if (bytesRead == -1) {
+            throw new EOFException("stream ended with " + mRemaining + " bytes of the message body remaining");
+        }
+
+        mRemaining -= bytesRead;
+        return bytesRead;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(mInputStream.available(), mRemaining);
+    }
+
+    @Override
+    public void close() throws IOException {
+        //the underlying stream belongs to the connection, not to this message body
+        mRemaining = 0;
+    }
+}
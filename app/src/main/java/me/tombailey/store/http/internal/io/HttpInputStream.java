@@ -0,0 +1,149 @@
+package me.tombailey.store.http.internal.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A buffered stream which can also read CRLF terminated lines, for the status line, headers and
+ * chunk sizes of a response. Unlike {@link java.io.BufferedInputStream} reads aren't
+ * synchronized, as a connection is only used by one request at a time, and lines are scanned for
+ * in bulk rather than a byte at a time.
+ */
+public class HttpInputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 8 * 1024; //8kb
+    private static final int INITIAL_LINE_SIZE = 256;
+    private static final int MAX_LINE_SIZE = 64 * 1024; //64kb
+
+    private static final byte CARRIAGE_RETURN = 0x0D;
+    private static final byte LINE_FEED = 0x0A;
+
+
+    private InputStream mInputStream;
+
+    private byte[] mBuffer;
+    private int mPosition;
+    private int mLimit;
+
+    //reused for every line read
+    private byte[] mLine;
+
+    public HttpInputStream(InputStream inputStream) {
+        mInputStream = inputStream;
+
+        mBuffer = new byte[BUFFER_SIZE];
+        mLine = new byte[INITIAL_LINE_SIZE];
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (mPosition == mLimit && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+
+        if (mPosition == mLimit) {
+            if (length >= mBuffer.length) {
+                //nothing buffered and a large read, so avoid copying through the buffer
+                int bytesRead = mInputStream.read(buffer, offset, length);
+                return bytesRead <= 0 ? -1 : bytesRead;
+            } else if (!fill()) {
+                return -1;
+            }
+        }
+
+        int bytesToCopy = Math.min(length, mLimit - mPosition);
+        System.arraycopy(mBuffer, mPosition, buffer, offset, bytesToCopy);
+        mPosition += bytesToCopy;
+        return bytesToCopy;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (mLimit - mPosition) + mInputStream.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInputStream.close();
+    }
+
+    /**
+     * Reads up to and including the next LF. The line, without its CRLF (or bare LF), is left at
+     * the start of {@link #getLine()} which is reused by the next call.
+     * @return the length of the line
+     * @throws IOException if the stream ended before the line did or the line is too long
+     */
+    public int readLine() throws IOException {
+        int lineLength = 0;
+        while (true) {
+            if (mPosition == mLimit && !fill()) {
+                throw new EOFException("stream ended part way through a line");
+            }
+
+            int lineFeedIndex = -1;
+            for (int index = mPosition; index < mLimit; index++) {
+                if (mBuffer[index] == LINE_FEED) {
+                    lineFeedIndex = index;
+                    break;
+                }
+            }
+
+            int end = lineFeedIndex == -1 ? mLimit : lineFeedIndex;
+            lineLength = appendToLine(lineLength, end - mPosition);
+
+            if (lineFeedIndex == -1) {
+                mPosition = mLimit;
+            } else {
+                mPosition = lineFeedIndex + 1;
+                if (lineLength > 0 && mLine[lineLength - 1] == CARRIAGE_RETURN) {
+                    lineLength--;
+                }
+                return lineLength;
+            }
+        }
+    }
+
+    /**
+     * @return the buffer holding the line produced by the last call to {@link #readLine()}
+     */
+    public byte[] getLine() {
+        return mLine;
+    }
+
+    private int appendToLine(int lineLength, int count) throws IOException {
+        int required = lineLength + count;
+        if (required > mLine.length) {
+            if (required > MAX_LINE_SIZE) {
+                throw new IOException("line is longer than " + MAX_LINE_SIZE + " bytes");
+            }
+
+            byte[] line = new byte[Math.min(Math.max(required, mLine.length * 2), MAX_LINE_SIZE)];
+            System.arraycopy(mLine, 0, line, 0, lineLength);
+            mLine = line;
+        }
+
+        System.arraycopy(mBuffer, mPosition, mLine, lineLength, count);
+        return required;
+    }
+
+    private boolean fill() throws IOException {
+        int bytesRead = mInputStream.read(mBuffer, 0, mBuffer.length);
+        //a read of nothing is treated like the end of the stream
+        if (bytesRead <= 0) {
+            return false;
+        }
+
+        mPosition = 0;
+        mLimit = bytesRead;
+        return true;
+    }
+}
@@ -0,0 +1,91 @@
+package me.tombailey.store.http.internal.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Wraps a framed message body read from a connection so that whoever owns the connection can be
+ * told when the body has ended, either because it was completely read or because it was closed
+ * part way through.
+ */
+public class MessageBodyInputStream extends InputStream {
+
+    private InputStream mInputStream;
+    private boolean mKeepAlive;
+    private Listener mListener;
+
+    private boolean mEnded;
+
+    /**
+     *
+     * @param inputStream the framed message body
+     * @param keepAlive true if the connection can be reused once the message body is completely
+     *                  read
+     * @param listener to be told when the message body has ended
+     */
+    public MessageBodyInputStream(InputStream inputStream, boolean keepAlive, Listener listener) {
+        mInputStream = inputStream;
+        mKeepAlive = keepAlive;
+        mListener = listener;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (mEnded) {
+            return -1;
+        }
+
+        return readOrEnd(null, 0, 1);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (mEnded) {
+            return -1;
+        }
+
+        return readOrEnd(buffer, offset, length);
+    }
+
+    private int readOrEnd(byte[] buffer, int offset, int length) throws IOException {
+        int result;
+        try {
+            result = buffer == null ? mInputStream.read() : mInputStream.read(buffer, offset, length);
+        } catch (IOException ioe) {
+            end(false);
+            throw ioe;
+        }
+
+        if (result == -1) {
+            end(true);
+        }
+        return result;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return mEnded ? 0 : mInputStream.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        end(false);
+    }
+
+    private void end(boolean complete) {
+        if (!mEnded) {
+            mEnded = true;
+            mListener.onMessageBodyEnd(complete && mKeepAlive);
+        }
+    }
+
+    public interface Listener {
+
+        /**
+         * @param reusable true if the message body was completely read and the connection can be
+         *                 used for another request
+         */
+        void onMessageBodyEnd(boolean reusable);
+
+    }
+}
@@ -0,0 +1,59 @@
+package me.tombailey.store.http.internal.io;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Collects a request head (and a small form body) so that it can be sent in a single write,
+ * rather than a write per line which, under TLS and over Tor, can each become their own record
+ * and cell. A connection keeps one buffer for all of its requests.
+ */
+public class RequestBuffer extends ByteArrayOutputStream {
+
+    private static final int DEFAULT_SIZE = 1024; //1kb
+
+    //buffers which grew past this to hold an unusually large request aren't kept at that size
+    private static final int MAX_RETAINED_SIZE = 32 * 1024; //32kb
+
+    public RequestBuffer() {
+        super(DEFAULT_SIZE);
+    }
+
+    /**
+     * Writes a string as ISO-8859-1 without encoding it to a separate array first. Characters
+     * which ISO-8859-1 can't represent are written as ?, like {@link String#getBytes(String)}
+     * @param value the string to write
+     */
+    public synchronized void writeLatin1(String value) {
+        int length = value.length();
+        if (count + length > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + length));
+        }
+
+        for (int index = 0; index < length; index++) {
+            char c = value.charAt(index);
+            if (Character.isHighSurrogate(c) && index + 1 < length &&
+                    Character.isLowSurrogate(value.charAt(index + 1))) {
+                //a pair of surrogates is one character
+                index++;
+            }
+            buf[count++] = c <= 0xFF ? (byte) c : (byte) '?';
+        }
+    }
+
+    /**
+     * Writes an array, without the checked exception of {@link java.io.OutputStream#write(byte[])}
+     * @param bytes the bytes to write
+     */
+    public void writeBytes(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public synchronized void reset() {
+        super.reset();
+        if (buf.length > MAX_RETAINED_SIZE) {
+            buf = new byte[DEFAULT_SIZE];
+        }
+    }
+}
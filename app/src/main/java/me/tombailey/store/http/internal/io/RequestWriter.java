@@ -0,0 +1,153 @@
+package me.tombailey.store.http.internal.io;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import me.tombailey.store.http.Header;
+import me.tombailey.store.http.form.body.FormBody;
+
+/**
+ * Serializes the request line, headers and form body of a request. The head, and a small form
+ * body, are collected in a {@link RequestBuffer} and sent in a single write.
+ */
+public class RequestWriter {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    //the parts of the head which are the same for every request are only encoded once
+    private static final byte[] CRLF = "\r\n".getBytes(ISO_8859_1);
+    private static final byte[] HTTP_VERSION = " HTTP/1.1\r\n".getBytes(ISO_8859_1);
+    private static final byte[] CONNECTION_CLOSE = "Connection: close\r\n".getBytes(ISO_8859_1);
+    private static final byte[] HOST = "Host: ".getBytes(ISO_8859_1);
+    private static final byte[] HEADER_SEPARATOR = ": ".getBytes(ISO_8859_1);
+    private static final byte[] ACCEPT_ENCODING =
+            "Accept-Encoding: gzip, deflate\r\n".getBytes(ISO_8859_1);
+    private static final byte[] CONTENT_TYPE = "Content-type: ".getBytes(ISO_8859_1);
+    private static final byte[] CONTENT_LENGTH = "Content-length: ".getBytes(ISO_8859_1);
+    private static final byte[] TRANSFER_ENCODING_CHUNKED =
+            "Transfer-Encoding: chunked\r\n".getBytes(ISO_8859_1);
+
+    //form bodies up to this size are sent in the same write as the head
+    private static final int MAX_BUFFERED_FORM_BODY_SIZE = 8 * 1024; //8kb
+
+    private static final int FORM_BODY_BUFFER_SIZE = 8 * 1024; //8kb
+
+    /**
+     * Like {@link #write(OutputStream, RequestBuffer, String, URL, boolean, List, List, FormBody)}
+     * with a buffer which isn't reused
+     */
+    public static void write(OutputStream outputStream, String method, URL url, boolean keepAlive,
+                             List<Header> headers, List<Header> extraHeaders, FormBody formBody)
+            throws IOException {
+        write(outputStream, new RequestBuffer(), method, url, keepAlive, headers, extraHeaders,
+                formBody);
+    }
+
+    /**
+     *
+     * @param outputStream where to write the request
+     * @param requestBuffer where to collect the head before it is written, which is reset first
+     * @param method the request method, like GET
+     * @param url the url being requested
+     * @param keepAlive false to ask the server to close the connection after responding
+     * @param headers the headers set by the caller
+     * @param extraHeaders headers added by the library, like conditional headers for the cache
+     * @param formBody the form body or null if there isn't one
+     * @throws IOException if the request couldn't be written
+     */
+    public static void write(OutputStream outputStream, RequestBuffer requestBuffer, String method,
+                             URL url, boolean keepAlive, List<Header> headers,
+                             List<Header> extraHeaders, FormBody formBody) throws IOException {
+        String file = url.getFile();
+        if (file.equals("")) {
+            file = "/";
+        }
+
+        requestBuffer.reset();
+        requestBuffer.writeLatin1(method);
+        requestBuffer.write(' ');
+        requestBuffer.writeLatin1(file);
+        requestBuffer.writeBytes(HTTP_VERSION);
+
+        if (!keepAlive) {
+            //avoid keep-alive when connections aren't pooled
+            requestBuffer.writeBytes(CONNECTION_CLOSE);
+        }
+        requestBuffer.writeBytes(HOST);
+        requestBuffer.writeLatin1(url.getHost());
+        requestBuffer.writeBytes(CRLF);
+
+        boolean acceptEncodingSet = writeHeaders(requestBuffer, headers);
+        acceptEncodingSet |= writeHeaders(requestBuffer, extraHeaders);
+
+        if (!acceptEncodingSet) {
+            //compressed responses are decompressed by Response
+            requestBuffer.writeBytes(ACCEPT_ENCODING);
+        }
+
+        if (formBody != null) {
+            requestBuffer.writeBytes(CONTENT_TYPE);
+            requestBuffer.writeLatin1(formBody.getContentType());
+            requestBuffer.writeBytes(CRLF);
+
+            long contentLength = formBody.getContentLength();
+            if (contentLength >= 0 && contentLength <= MAX_BUFFERED_FORM_BODY_SIZE) {
+                writeContentLength(requestBuffer, contentLength);
+                formBody.writeTo(requestBuffer);
+                requestBuffer.writeTo(outputStream);
+            } else if (contentLength >= 0) {
+                writeContentLength(requestBuffer, contentLength);
+                requestBuffer.writeTo(outputStream);
+
+                //form bodies which stream themselves, like files in a multipart form, may write
+                //a little at a time
+                BufferedOutputStream bufferedOutputStream =
+                        new BufferedOutputStream(outputStream, FORM_BODY_BUFFER_SIZE);
+                formBody.writeTo(bufferedOutputStream);
+                bufferedOutputStream.flush();
+            } else {
+                requestBuffer.writeBytes(TRANSFER_ENCODING_CHUNKED);
+                requestBuffer.writeBytes(CRLF);
+                requestBuffer.writeTo(outputStream);
+
+                //chunks already collect small writes
+                ChunkedOutputStream chunkedOutputStream = new ChunkedOutputStream(outputStream);
+                formBody.writeTo(chunkedOutputStream);
+                chunkedOutputStream.finish();
+            }
+        } else {
+            requestBuffer.writeBytes(CRLF);
+            requestBuffer.writeTo(outputStream);
+        }
+
+        outputStream.flush();
+        //don't explicitly close OutputStream as keep-alive might be used
+    }
+
+    /**
+     * @return true if one of the headers was Accept-Encoding
+     */
+    private static boolean writeHeaders(RequestBuffer requestBuffer, List<Header> headers) {
+        boolean acceptEncodingSet = false;
+        for (int index = 0; index < headers.size(); index++) {
+            Header header = headers.get(index);
+            requestBuffer.writeLatin1(header.getName());
+            requestBuffer.writeBytes(HEADER_SEPARATOR);
+            requestBuffer.writeLatin1(header.getValue());
+            requestBuffer.writeBytes(CRLF);
+            acceptEncodingSet |= header.getName().equalsIgnoreCase("accept-encoding");
+        }
+        return acceptEncodingSet;
+    }
+
+    private static void writeContentLength(RequestBuffer requestBuffer, long contentLength) {
+        requestBuffer.writeBytes(CONTENT_LENGTH);
+        requestBuffer.writeLatin1(Long.toString(contentLength));
+        requestBuffer.writeBytes(CRLF);
+        requestBuffer.writeBytes(CRLF);
+    }
+}
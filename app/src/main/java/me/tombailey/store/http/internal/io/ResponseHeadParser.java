@@ -0,0 +1,173 @@
+package me.tombailey.store.http.internal.io;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import me.tombailey.store.http.Header;
+
+/**
+ * Parses the status line and headers of a response straight from a {@link HttpInputStream},
+ * stopping at the blank line which ends the headers so that the message body is left unread.
+ * Interim (1xx) responses are skipped over.
+ */
+public class ResponseHeadParser {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final byte SPACE = ' ';
+    private static final byte TAB = '\t';
+    private static final byte COLON = ':';
+
+    private static final int STATE_STATUS_LINE = 0;
+    private static final int STATE_HEADERS = 1;
+    private static final int STATE_DONE = 2;
+
+
+    private String mHttpVersion;
+    private int mStatusCode;
+    private String mStatusText;
+    private List<Header> mHeaders;
+
+    public ResponseHeadParser() {
+
+    }
+
+    /**
+     *
+     * @param inputStream a stream positioned at the start of a response
+     * @throws IOException if the stream could not be read or the status line or a header was
+     * malformed
+     */
+    public void parse(HttpInputStream inputStream) throws IOException {
+        int state = STATE_STATUS_LINE;
+        while (state != STATE_DONE) {
+            int lineLength = inputStream.readLine();
+            byte[] line = inputStream.getLine();
+
+            if (state == STATE_STATUS_LINE) {
+                parseStatusLine(line, lineLength);
+                mHeaders = new ArrayList<Header>(16);
+                state = STATE_HEADERS;
+            } else if (lineLength > 0) {
+                parseHeader(line, lineLength, mHeaders);
+            } else if (mStatusCode >= 100 && mStatusCode < 200 && mStatusCode != 101) {
+                //an interim response, the final response follows it
+                state = STATE_STATUS_LINE;
+            } else {
+                state = STATE_DONE;
+            }
+        }
+    }
+
+    /**
+     * Parses header lines up to and including the blank line which ends them, as used for the
+     * trailers after a chunked message body
+     * @param inputStream a stream positioned at the start of a header line (or the blank line)
+     * @return the headers
+     * @throws IOException if the stream could not be read or a header was malformed
+     */
+    public static Header[] parseHeaders(HttpInputStream inputStream) throws IOException {
+        List<Header> headers = new ArrayList<Header>(0);
+
+        int lineLength = inputStream.readLine();
+        while (lineLength > 0) {
+            parseHeader(inputStream.getLine(), lineLength, headers);
+            lineLength = inputStream.readLine();
+        }
+
+        return headers.toArray(new Header[headers.size()]);
+    }
+
+    public String getHttpVersion() {
+        return mHttpVersion;
+    }
+
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    public String getStatusText() {
+        return mStatusText;
+    }
+
+    public Header[] getHeaders() {
+        return mHeaders.toArray(new Header[mHeaders.size()]);
+    }
+
+    private void parseStatusLine(byte[] line, int lineLength) throws IOException {
+        //status line looks like "HTTP/1.1 200 OK", the status text is optional
+        int versionEnd = indexOf(line, 0, lineLength, SPACE);
+        int statusCodeEnd = versionEnd + 4;
+        if (versionEnd == -1 || statusCodeEnd > lineLength ||
+                (statusCodeEnd < lineLength && line[statusCodeEnd] != SPACE)) {
+            throw new IOException("malformed status line: " + new String(line, 0, lineLength, ISO_8859_1));
+        }
+
+        int statusCode = 0;
+        for (int index = versionEnd + 1; index < statusCodeEnd; index++) {
+            int digit = line[index] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IOException("malformed status code: " + new String(line, 0, lineLength, ISO_8859_1));
+            }
+            statusCode = statusCode * 10 + digit;
+        }
+
+        mHttpVersion = new String(line, 0, versionEnd, ISO_8859_1);
+        mStatusCode = statusCode;
+        if (statusCodeEnd < lineLength) {
+            mStatusText = new String(line, statusCodeEnd + 1, lineLength - statusCodeEnd - 1, ISO_8859_1);
+        } else {
+            mStatusText = "";
+        }
+    }
+
+    private static void parseHeader(byte[] line, int lineLength, List<Header> headers)
+            throws IOException {
+        if ((line[0] == SPACE || line[0] == TAB) && !headers.isEmpty()) {
+            //obsolete line folding, the line continues the value of the previous header
+            Header previous = headers.remove(headers.size() - 1);
+            int valueStart = skipWhitespace(line, 0, lineLength);
+            int valueEnd = trimWhitespace(line, valueStart, lineLength);
+            headers.add(new Header(previous.getName(), previous.getValue() + " " +
+                    new String(line, valueStart, valueEnd - valueStart, ISO_8859_1)));
+            return;
+        }
+
+        int colonIndex = indexOf(line, 0, lineLength, COLON);
+        if (colonIndex <= 0) {
+            throw new IOException("malformed header: " + new String(line, 0, lineLength, ISO_8859_1));
+        }
+
+        int nameEnd = trimWhitespace(line, 0, colonIndex);
+        int valueStart = skipWhitespace(line, colonIndex + 1, lineLength);
+        int valueEnd = trimWhitespace(line, valueStart, lineLength);
+
+        headers.add(new Header(new String(line, 0, nameEnd, ISO_8859_1),
+                new String(line, valueStart, valueEnd - valueStart, ISO_8859_1)));
+    }
+
+    private static int indexOf(byte[] line, int start, int end, byte value) {
+        for (int index = start; index < end; index++) {
+            if (line[index] == value) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipWhitespace(byte[] line, int start, int end) {
+        while (start < end && (line[start] == SPACE || line[start] == TAB)) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimWhitespace(byte[] line, int start, int end) {
+        while (end > start && (line[end - 1] == SPACE || line[end - 1] == TAB)) {
+            end--;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,93 @@
+package me.tombailey.store.http;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CacheControlTest {
+
+    private static CacheControl parse(Header... headers) {
+        return CacheControl.parse(new Headers(headers));
+    }
+
+    @Test
+    public void whenDirectivesGiven_shouldParseEachOne() {
+        //act
+        CacheControl cacheControl = parse(
+                new Header("Cache-Control", "Private=\"Set-Cookie, Authorization\", MAX-AGE=120"),
+                new Header("cache-control", "s-maxage=\"30\", must-revalidate, no-cache"));
+
+        //assert
+        assertThat(cacheControl.isPrivate(), is(true));
+        assertThat(cacheControl.isPublic(), is(false));
+        assertThat(cacheControl.getMaxAge(), is(120));
+        assertThat(cacheControl.getSMaxAge(), is(30));
+        assertThat(cacheControl.isMustRevalidate(), is(true));
+        assertThat(cacheControl.isNoCache(), is(true));
+        assertThat(cacheControl.isNoStore(), is(false));
+    }
+
+    @Test
+    public void whenMaxAgeAndAge_shouldSubtractAgeFromLifetime() {
+        //act
+        CacheControl cacheControl = parse(
+                new Header("Cache-Control", "public, max-age=600"),
+                new Header("Age", "100"),
+                new Header("Expires", "Thu, 01 Jan 1970 00:00:00 GMT"));
+
+        //assert
+        assertThat(cacheControl.getFreshnessLifetime(0), is(500));
+    }
+
+    @Test
+    public void whenOnlyExpires_shouldUseLifetimeFromDate() {
+        //act
+        CacheControl cacheControl = parse(
+                new Header("Date", "Sun, 06 Nov 1994 08:49:37 GMT"),
+                new Header("Expires", "Sun, 06 Nov 1994 09:49:37 GMT"));
+        CacheControl invalidExpires = parse(new Header("Expires", "0"));
+        CacheControl noFreshness = parse(new Header("Cache-Control", "public"));
+
+        //assert
+        assertThat(cacheControl.getFreshnessLifetime(0), is(3600));
+        assertThat(invalidExpires.getFreshnessLifetime(0), is(0));
+        assertThat(noFreshness.getFreshnessLifetime(0), is(-1));
+    }
+
+    @Test
+    public void whenNoStoreOrMalformedMaxAge_shouldNotBeFresh() {
+        //act
+        CacheControl noStore = parse(new Header("Cache-Control", "public, no-store, max-age=60"));
+        CacheControl malformed = parse(new Header("Cache-Control", "public, max-age=6o"));
+        CacheControl huge = parse(new Header("Cache-Control", "max-age=99999999999999"));
+
+        //assert
+        assertThat(noStore.getFreshnessLifetime(0), is(0));
+        assertThat(malformed.getMaxAge(), is(-1));
+        assertThat(huge.getMaxAge(), is(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void whenStaleDirectives_shouldAllowServingStaleUnlessMustRevalidate() {
+        //act
+        CacheControl cacheControl = parse(new Header("Cache-Control",
+                "max-age=60, stale-while-revalidate=30, stale-if-error=\"86400\""));
+        CacheControl mustRevalidate = parse(new Header("Cache-Control",
+                "max-age=60, stale-while-revalidate=30, must-revalidate"));
+        CacheControl noStaleDirectives = parse(new Header("Cache-Control", "max-age=60"));
+
+        //assert
+        assertThat(cacheControl.getStaleWhileRevalidate(), is(30));
+        assertThat(cacheControl.getStaleIfError(), is(86400));
+        assertThat(cacheControl.getStaleLifetime(), is(86400));
+        assertThat(mustRevalidate.getStaleWhileRevalidate(), is(-1));
+        assertThat(mustRevalidate.getStaleLifetime(), is(0));
+        assertThat(noStaleDirectives.getStaleIfError(), is(-1));
+        assertThat(noStaleDirectives.getStaleLifetime(), is(0));
+    }
+
+}
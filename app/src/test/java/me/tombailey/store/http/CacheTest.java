@@ -0,0 +1,221 @@
+package me.tombailey.store.http;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.File;
+import java.io.IOException;
+
+import me.tombailey.store.http.internal.cache.JournalCacheStore;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Cache createCache(int maxSize) {
+        File cacheDirectory = temporaryFolder.getRoot();
+        return new Cache.Builder()
+                .cacheDirectory(cacheDirectory)
+                .maxSize(maxSize)
+                .cacheStore(new JournalCacheStore(new File(cacheDirectory, "journal")))
+                .sweepInterval(0)
+                .build();
+    }
+
+    private CacheEntry addCachedFile(Cache cache, String identifier, long validUntil, long lastUsed,
+                                     int size, String etag) throws IOException {
+        File file = temporaryFolder.newFile(identifier);
+        CacheEntry cacheEntry = new CacheEntry(identifier, validUntil, lastUsed, size,
+                file.getAbsolutePath(), etag, null);
+        cache.addCachedFile(cacheEntry);
+        return cacheEntry;
+    }
+
+    @Test
+    public void whenSweep_shouldRemoveExpiredFilesWhichCannotBeRevalidated() throws IOException {
+        //arrange
+        Cache underTest = createCache(1000);
+        long now = System.currentTimeMillis();
+        CacheEntry expired = addCachedFile(underTest, "expired", now - 1000, now, 10, null);
+        addCachedFile(underTest, "revalidatable", now - 1000, now, 10, "\"etag\"");
+        addCachedFile(underTest, "valid", now + 60000, now, 10, null);
+
+        //act
+        underTest.sweep();
+
+        //assert
+        assertThat(underTest.getCachedFile("expired"), is(nullValue()));
+        assertThat(new File(expired.getFilePath()).exists(), is(false));
+        assertThat(underTest.getCachedFile("revalidatable"), is(notNullValue()));
+        assertThat(underTest.getCachedFile("valid"), is(notNullValue()));
+        assertThat(underTest.getSizeInUse(), is(20L));
+    }
+
+    @Test
+    public void whenSweep_shouldRemoveRevalidatableFilesLongPastStale() throws IOException {
+        //arrange
+        Cache underTest = createCache(1000);
+        long now = System.currentTimeMillis();
+        long eightDaysAgo = now - 8 * 24 * 60 * 60 * 1000L;
+        CacheEntry old = addCachedFile(underTest, "old", eightDaysAgo, now, 10, "\"etag\"");
+
+        //act
+        underTest.sweep();
+
+        //assert
+        assertThat(underTest.getCachedFile("old"), is(nullValue()));
+        assertThat(new File(old.getFilePath()).exists(), is(false));
+    }
+
+    @Test
+    public void whenSweep_shouldKeepExpiredFilesWhichCanBeServedStale() throws IOException {
+        //arrange
+        Cache underTest = createCache(1000);
+        long now = System.currentTimeMillis();
+        File file = temporaryFolder.newFile("stale");
+        underTest.addCachedFile(new CacheEntry("stale", now - 1000, now + 60000, now, 10,
+                file.getAbsolutePath(), null, null));
+
+        //act
+        underTest.sweep();
+
+        //assert
+        assertThat(underTest.getCachedFile("stale"), is(notNullValue()));
+        assertThat(file.exists(), is(true));
+    }
+
+    @Test
+    public void whenSweepFullCache_shouldRemoveLeastRecentlyUsedFiles() throws IOException {
+        //arrange
+        Cache underTest = createCache(100);
+        long validUntil = System.currentTimeMillis() + 60000;
+        addCachedFile(underTest, "oldest", validUntil, 1, 40, null);
+        addCachedFile(underTest, "older", validUntil, 2, 40, null);
+        addCachedFile(underTest, "newest", validUntil, 3, 15, null);
+
+        //act
+        underTest.sweep();
+
+        //assert
+        assertThat(underTest.getCachedFile("oldest"), is(nullValue()));
+        assertThat(underTest.getCachedFile("older"), is(notNullValue()));
+        assertThat(underTest.getCachedFile("newest"), is(notNullValue()));
+        assertThat(underTest.getRemainingSpace(), is(45L));
+    }
+
+    @Test
+    public void whenServedFromMemory_shouldNotBeRemovedAsLeastRecentlyUsed() throws IOException {
+        //arrange
+        Cache underTest = createCache(100);
+        long validUntil = System.currentTimeMillis() + 60000;
+        addCachedFile(underTest, "inMemory", validUntil, 1, 40, null);
+        addCachedFile(underTest, "onDisk", validUntil, 2, 40, null);
+        underTest.putInMemory("inMemory", new Response("HTTP/1.1", 200, "OK", new Header[0],
+                new byte[0]), validUntil);
+        underTest.getFromMemory("inMemory");
+
+        //act
+        underTest.removeCachedFilesForSpace(40);
+
+        //assert
+        assertThat(underTest.getCachedFile("inMemory"), is(notNullValue()));
+        assertThat(underTest.getCachedFile("onDisk"), is(nullValue()));
+    }
+
+    @Test
+    public void whenSweep_shouldRemoveAbandonedTemporaryFiles() throws IOException {
+        //arrange
+        Cache underTest = createCache(1000);
+        File abandoned = temporaryFolder.newFile("abandoned.tmp");
+        abandoned.setLastModified(System.currentTimeMillis() - 2 * 60 * 60 * 1000);
+        File inProgress = temporaryFolder.newFile("in-progress.tmp");
+
+        //act
+        underTest.sweep();
+
+        //assert
+        assertThat(abandoned.exists(), is(false));
+        assertThat(inProgress.exists(), is(true));
+    }
+
+    @Test
+    public void whenOutOfDateEntryRemoved_shouldKeepReplacementFile() throws IOException {
+        //arrange
+        Cache underTest = createCache(1000);
+        long now = System.currentTimeMillis();
+        CacheEntry original = addCachedFile(underTest, "response", now - 1000, now, 10, null);
+        File replacement = temporaryFolder.newFile("replacement.tmp");
+        underTest.moveCachedFile(replacement, new CacheEntry("response", now + 60000, now, 20,
+                original.getFilePath(), null, null));
+
+        //act
+        underTest.removeCachedFile(original);
+
+        //assert
+        assertThat(underTest.getCachedFile("response").getSize(), is(20));
+        assertThat(new File(original.getFilePath()).exists(), is(true));
+        assertThat(replacement.exists(), is(false));
+        assertThat(underTest.getSizeInUse(), is(20L));
+    }
+
+    @Test
+    public void whenReplacedByFileWithDifferentName_shouldDeleteOldFile() throws IOException {
+        //arrange
+        Cache underTest = createCache(1000);
+        long now = System.currentTimeMillis();
+        CacheEntry original = addCachedFile(underTest, "response", now + 60000, now, 10, null);
+        File replacement = temporaryFolder.newFile("replacement.tmp");
+        File renamed = new File(temporaryFolder.getRoot(), "renamed");
+
+        //act
+        underTest.moveCachedFile(replacement, new CacheEntry("response", now + 60000, now, 20,
+                renamed.getAbsolutePath(), null, null));
+
+        //assert
+        assertThat(new File(original.getFilePath()).exists(), is(false));
+        assertThat(renamed.exists(), is(true));
+        assertThat(underTest.getSizeInUse(), is(20L));
+    }
+
+    @Test
+    public void whenClosed_shouldStopSweeper() throws IOException, InterruptedException {
+        //arrange
+        File cacheDirectory = temporaryFolder.getRoot();
+        Cache underTest = new Cache.Builder()
+                .cacheDirectory(cacheDirectory)
+                .maxSize(1000)
+                .cacheStore(new JournalCacheStore(new File(cacheDirectory, "journal")))
+                .sweepInterval(60000)
+                .build();
+
+        //act
+        underTest.close();
+
+        //assert
+        long deadline = System.currentTimeMillis() + 1000;
+        while (isSweeperRunning() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(isSweeperRunning(), is(false));
+    }
+
+    private static boolean isSweeperRunning() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("store-http-cache-sweeper") && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,162 @@
+package me.tombailey.store.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import me.tombailey.store.http.internal.connection.Address;
+import me.tombailey.store.http.internal.connection.Connection;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConnectionPoolTest {
+
+    private static final Proxy PROXY = new Proxy("127.0.0.1", 9050);
+    private static final Address ADDRESS = new Address(PROXY, "store.onion", 80, false, null, null);
+
+    private ServerSocket mServerSocket;
+    //both ends of every connection, so that they can be closed
+    private List<Socket> mSockets;
+
+    @Before
+    public void setUp() throws IOException {
+        mServerSocket = new ServerSocket(0);
+        mSockets = new ArrayList<Socket>();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Socket socket : mSockets) {
+            socket.close();
+        }
+        mServerSocket.close();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("127.0.0.1", mServerSocket.getLocalPort());
+        mSockets.add(socket);
+        mSockets.add(mServerSocket.accept());
+        return socket;
+    }
+
+    @Test
+    public void whenPut_shouldGetConnectionForSameAddressOnly() throws IOException {
+        //arrange
+        ConnectionPool underTest = new ConnectionPool.Builder().build();
+        Connection connection = new Connection(ADDRESS, connect());
+        Address otherAddress = new Address(PROXY, "other.onion", 80, false, null, null);
+
+        //act
+        underTest.put(connection);
+
+        //assert
+        assertThat(underTest.get(otherAddress), is(nullValue()));
+        assertThat(underTest.get(ADDRESS), is(sameInstance(connection)));
+        assertThat(underTest.getIdleConnectionCount(), is(0));
+    }
+
+    @Test
+    public void whenIdleTimeoutPassedWithoutUse_shouldCloseConnectionInBackground()
+            throws IOException, InterruptedException {
+        //arrange
+        ConnectionPool underTest = new ConnectionPool.Builder().idleTimeout(10).build();
+        Socket socket = connect();
+
+        //act
+        underTest.put(new Connection(ADDRESS, socket));
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!socket.isClosed() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        //assert
+        assertThat(socket.isClosed(), is(true));
+        assertThat(underTest.getIdleConnectionCount(), is(0));
+    }
+
+    @Test
+    public void whenIdleTimeoutPassed_shouldCloseConnection()
+            throws IOException, InterruptedException {
+        //arrange
+        ConnectionPool underTest = new ConnectionPool.Builder().idleTimeout(10).build();
+        Socket socket = connect();
+        underTest.put(new Connection(ADDRESS, socket));
+        Thread.sleep(50);
+
+        //act
+        Connection connection = underTest.get(ADDRESS);
+
+        //assert
+        assertThat(connection, is(nullValue()));
+        assertThat(socket.isClosed(), is(true));
+        assertThat(underTest.getIdleConnectionCount(), is(0));
+    }
+
+    @Test
+    public void whenOverMaxIdlePerHost_shouldCloseLeastRecentlyUsed() throws IOException {
+        //arrange
+        ConnectionPool underTest = new ConnectionPool.Builder().maxIdlePerHost(1).build();
+        Socket leastRecentlyUsed = connect();
+        Connection mostRecentlyUsed = new Connection(ADDRESS, connect());
+
+        //act
+        underTest.put(new Connection(ADDRESS, leastRecentlyUsed));
+        underTest.put(mostRecentlyUsed);
+
+        //assert
+        assertThat(underTest.getIdleConnectionCount(), is(1));
+        assertThat(leastRecentlyUsed.isClosed(), is(true));
+        assertThat(underTest.get(ADDRESS), is(sameInstance(mostRecentlyUsed)));
+    }
+
+    @Test
+    public void whenEvictAll_shouldCloseEveryConnection() throws IOException {
+        //arrange
+        ConnectionPool underTest = new ConnectionPool.Builder().build();
+        Socket socket = connect();
+        Socket otherSocket = connect();
+        underTest.put(new Connection(ADDRESS, socket));
+        underTest.put(new Connection(new Address(PROXY, "other.onion", 80, false, null, null),
+                otherSocket));
+
+        //act
+        underTest.evictAll();
+
+        //assert
+        assertThat(underTest.getIdleConnectionCount(), is(0));
+        assertThat(socket.isClosed(), is(true));
+        assertThat(otherSocket.isClosed(), is(true));
+    }
+
+    @Test
+    public void whenPooledConnectionClosedByServer_shouldNotGetIt()
+            throws IOException, InterruptedException {
+        //arrange
+        ConnectionPool underTest = new ConnectionPool.Builder().build();
+        Socket socket = connect();
+        underTest.put(new Connection(ADDRESS, socket));
+        //the server's end of the connection
+        mSockets.get(1).close();
+        Thread.sleep(50);
+
+        //act
+        Connection connection = underTest.get(ADDRESS);
+
+        //assert
+        assertThat(connection, is(nullValue()));
+        assertThat(socket.isClosed(), is(true));
+    }
+
+}
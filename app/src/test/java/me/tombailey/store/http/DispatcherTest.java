@@ -0,0 +1,174 @@
+package me.tombailey.store.http;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DispatcherTest {
+
+    /**
+     * Holds on to the calls the dispatcher runs until the test runs them
+     */
+    private static class QueuedExecutorService extends AbstractExecutorService {
+
+        private List<Runnable> mQueued = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            mQueued.add(runnable);
+        }
+
+        private void runAll() {
+            while (!mQueued.isEmpty()) {
+                mQueued.remove(0).run();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return mQueued;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return false;
+        }
+    }
+
+    private static Request mockRequest(String host) {
+        Request request = mock(Request.class);
+        when(request.getHost()).thenReturn(host);
+        return request;
+    }
+
+    private static Call enqueue(Dispatcher dispatcher, Request request, Callback callback) {
+        Call call = new Call(request, callback, dispatcher);
+        dispatcher.enqueue(call);
+        return call;
+    }
+
+    @Test
+    public void whenEnqueued_shouldTellCallbackOfResponse() throws IOException {
+        //arrange
+        QueuedExecutorService executorService = new QueuedExecutorService();
+        Dispatcher underTest = new Dispatcher.Builder().executorService(executorService).build();
+        Request request = mockRequest("store.onion");
+        Response response = mock(Response.class);
+        when(request.execute()).thenReturn(response);
+        Callback callback = mock(Callback.class);
+
+        //act
+        enqueue(underTest, request, callback);
+        executorService.runAll();
+
+        //assert
+        verify(callback).onResponse(request, response);
+        assertThat(underTest.getRunningCallCount(), is(0));
+    }
+
+    @Test
+    public void whenOverPerHostLimit_shouldWaitForRunningCallToFinish() throws IOException {
+        //arrange
+        QueuedExecutorService executorService = new QueuedExecutorService();
+        Dispatcher underTest = new Dispatcher.Builder()
+                .maxRequestsPerHost(1)
+                .executorService(executorService)
+                .build();
+        Request waiting = mockRequest("store.onion");
+
+        //act
+        enqueue(underTest, mockRequest("store.onion"), null);
+        enqueue(underTest, waiting, null);
+        enqueue(underTest, mockRequest("other.onion"), null);
+        int runningBefore = underTest.getRunningCallCount();
+        int queuedBefore = underTest.getQueuedCallCount();
+        executorService.runAll();
+
+        //assert
+        assertThat(runningBefore, is(2));
+        assertThat(queuedBefore, is(1));
+        verify(waiting).execute();
+        assertThat(underTest.getQueuedCallCount(), is(0));
+        assertThat(underTest.getRunningCallCount(), is(0));
+    }
+
+    @Test
+    public void whenQueuedCallCanceled_shouldTellCallbackFromDispatcher() throws IOException {
+        //arrange
+        QueuedExecutorService executorService = new QueuedExecutorService();
+        Dispatcher underTest = new Dispatcher.Builder()
+                .maxRequests(1)
+                .executorService(executorService)
+                .build();
+        enqueue(underTest, mockRequest("store.onion"), null);
+        Request canceled = mockRequest("store.onion");
+        Callback callback = mock(Callback.class);
+        Call call = enqueue(underTest, canceled, callback);
+
+        //act
+        call.cancel();
+        int queuedAfterCancel = underTest.getQueuedCallCount();
+        verify(callback, never()).onFailure(any(Request.class), any(IOException.class));
+        executorService.runAll();
+
+        //assert
+        assertThat(queuedAfterCancel, is(0));
+        verify(callback).onFailure(eq(canceled), any(IOException.class));
+        verify(canceled).cancel();
+        verify(canceled, never()).execute();
+        assertThat(call.isCancelled(), is(true));
+    }
+
+    @Test
+    public void whenRequestFailsUnexpectedly_shouldTellCallbackOfFailure() throws IOException {
+        //arrange
+        QueuedExecutorService executorService = new QueuedExecutorService();
+        Dispatcher underTest = new Dispatcher.Builder().executorService(executorService).build();
+        Request request = mockRequest("store.onion");
+        when(request.execute()).thenThrow(new IllegalStateException());
+        Callback callback = mock(Callback.class);
+
+        //act
+        enqueue(underTest, request, callback);
+        executorService.runAll();
+
+        //assert
+        ArgumentCaptor<IOException> failure = ArgumentCaptor.forClass(IOException.class);
+        verify(callback).onFailure(eq(request), failure.capture());
+        assertThat(failure.getValue().getCause(), is(instanceOf(IllegalStateException.class)));
+        assertThat(underTest.getRunningCallCount(), is(0));
+    }
+
+}
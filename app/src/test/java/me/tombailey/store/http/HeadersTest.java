@@ -0,0 +1,56 @@
+package me.tombailey.store.http;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HeadersTest {
+
+    @Test
+    public void whenGetWithDifferentCase_shouldFindHeader() {
+        //arrange
+        Headers headers = new Headers(new Header[]{
+                new Header("Content-Type", "text/plain"),
+                new Header("ETag", "\"v1\"")
+        });
+
+        //act
+        Header contentType = headers.get("content-type");
+        String etag = headers.getValue("ETAG");
+        Header missing = headers.get("content-length");
+
+        //assert
+        assertThat(contentType.getValue(), is("text/plain"));
+        assertThat(etag, is("\"v1\""));
+        assertThat(missing, is(nullValue()));
+    }
+
+    @Test
+    public void whenHeaderRepeated_shouldKeepOrder() {
+        //arrange
+        Headers headers = new Headers(new Header[]{
+                new Header("Cache-Control", "public"),
+                new Header("Vary", "Accept"),
+                new Header("cache-control", "max-age=60")
+        });
+
+        //act
+        List<Header> cacheControl = headers.getAll("Cache-Control");
+
+        //assert
+        assertThat(cacheControl.size(), is(2));
+        assertThat(cacheControl.get(0).getValue(), is("public"));
+        assertThat(cacheControl.get(1).getValue(), is("max-age=60"));
+        assertThat(headers.getValue("cache-control"), is("public"));
+        assertThat(headers.getAll("age").size(), is(0));
+        assertThat(headers.size(), is(3));
+    }
+
+}
@@ -0,0 +1,262 @@
+package me.tombailey.store.http;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A SOCKS4a proxy which answers the HTTP requests sent through it itself, so that requests can be
+ * tested without Tor. Every request is recorded and then answered by a {@link Handler}.
+ * Connections are kept alive until the client or the handler closes them.
+ */
+class HttpTestServer implements Closeable {
+
+    interface Handler {
+
+        /**
+         * @param request the request which was received
+         * @param outputStream where to write the response
+         * @throws IOException to close the connection, after anything already written
+         */
+        void handle(RecordedRequest request, OutputStream outputStream) throws IOException;
+
+    }
+
+    static class RecordedRequest {
+
+        private String mMethod;
+        private String mPath;
+        //lowercase name to value
+        private Map<String, String> mHeaders;
+        private byte[] mBody;
+        private int mConnectionIndex;
+
+        private RecordedRequest(String method, String path, Map<String, String> headers,
+                                byte[] body, int connectionIndex) {
+            mMethod = method;
+            mPath = path;
+            mHeaders = headers;
+            mBody = body;
+            mConnectionIndex = connectionIndex;
+        }
+
+        String getMethod() {
+            return mMethod;
+        }
+
+        String getPath() {
+            return mPath;
+        }
+
+        String getHeader(String name) {
+            return mHeaders.get(name.toLowerCase(Locale.US));
+        }
+
+        byte[] getBody() {
+            return mBody;
+        }
+
+        /**
+         * @return which connection, counting from 0, the request was sent over
+         */
+        int getConnectionIndex() {
+            return mConnectionIndex;
+        }
+    }
+
+    private ServerSocket mServerSocket;
+    private Handler mHandler;
+
+    private List<RecordedRequest> mRequests;
+    private AtomicInteger mConnectionCount;
+    private List<Socket> mSockets;
+
+    HttpTestServer(Handler handler) throws IOException {
+        mServerSocket = new ServerSocket(0);
+        mHandler = handler;
+
+        mRequests = Collections.synchronizedList(new ArrayList<RecordedRequest>());
+        mConnectionCount = new AtomicInteger();
+        mSockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "http-test-server");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * @return a proxy which connects to this server, whatever the destination
+     */
+    Proxy getProxy() {
+        return new Proxy("127.0.0.1", mServerSocket.getLocalPort());
+    }
+
+    List<RecordedRequest> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<RecordedRequest>(mRequests);
+        }
+    }
+
+    int getRequestCount() {
+        return mRequests.size();
+    }
+
+    int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mServerSocket.close();
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) {
+                socket.close();
+            }
+        }
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                final Socket socket = mServerSocket.accept();
+                mSockets.add(socket);
+                final int connectionIndex = mConnectionCount.getAndIncrement();
+                Thread connectionThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            serve(socket, connectionIndex);
+                        } catch (IOException ioe) {
+                            //the handler or the client closed the connection
+                        } finally {
+                            try {
+                                socket.close();
+                            } catch (IOException ioe) {
+                                //already closed
+                            }
+                        }
+                    }
+                }, "http-test-server-connection");
+                connectionThread.setDaemon(true);
+                connectionThread.start();
+            }
+        } catch (IOException ioe) {
+            //the server was closed
+        }
+    }
+
+    private void serve(Socket socket, int connectionIndex) throws IOException {
+        DataInputStream inputStream = new DataInputStream(new BufferedInputStream(
+                socket.getInputStream()));
+        OutputStream outputStream = socket.getOutputStream();
+
+        //SOCKS4a connect request: version, command, port, ip, user id and host, then a reply
+        //granting it
+        inputStream.readFully(new byte[8]);
+        skipNullTerminated(inputStream);
+        skipNullTerminated(inputStream);
+        outputStream.write(new byte[] {0x00, 0x5A, 0, 0, 0, 0, 0, 0});
+        outputStream.flush();
+
+        String requestLine;
+        while ((requestLine = readLine(inputStream)) != null) {
+            String[] parts = requestLine.split(" ");
+            Map<String, String> headers = new HashMap<String, String>();
+            String line;
+            while ((line = readLine(inputStream)) != null && line.length() > 0) {
+                int colonIndex = line.indexOf(':');
+                headers.put(line.substring(0, colonIndex).trim().toLowerCase(Locale.US),
+                        line.substring(colonIndex + 1).trim());
+            }
+
+            RecordedRequest request = new RecordedRequest(parts[0], parts[1], headers,
+                    readBody(inputStream, headers), connectionIndex);
+            mRequests.add(request);
+            mHandler.handle(request, outputStream);
+            outputStream.flush();
+        }
+    }
+
+    private static byte[] readBody(DataInputStream inputStream, Map<String, String> headers)
+            throws IOException {
+        String contentLength = headers.get("content-length");
+        if (contentLength != null) {
+            byte[] body = new byte[Integer.parseInt(contentLength)];
+            inputStream.readFully(body);
+            return body;
+        } else if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            int chunkSize;
+            while ((chunkSize = Integer.parseInt(readLine(inputStream), 16)) > 0) {
+                byte[] chunk = new byte[chunkSize];
+                inputStream.readFully(chunk);
+                body.write(chunk);
+                readLine(inputStream);
+            }
+            readLine(inputStream);
+            return body.toByteArray();
+        } else {
+            return new byte[0];
+        }
+    }
+
+    private static void skipNullTerminated(InputStream inputStream) throws IOException {
+        while (inputStream.read() > 0) {
+            //skip until the terminating 0 (or the end of the stream)
+        }
+    }
+
+    /**
+     * @return the line without its CRLF or null if the stream ended first
+     */
+    private static String readLine(InputStream inputStream) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int read;
+        while ((read = inputStream.read()) != -1) {
+            if (read == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) read);
+        }
+        return null;
+    }
+
+    /**
+     * @return a complete response with the status, headers and message body
+     */
+    static byte[] response(String statusLine, String body, String... headers) {
+        StringBuilder response = new StringBuilder("HTTP/1.1 ").append(statusLine).append("\r\n");
+        for (String header : headers) {
+            response.append(header).append("\r\n");
+        }
+        response.append("Content-Length: ").append(body.length()).append("\r\n\r\n")
+                .append(body);
+        try {
+            return response.toString().getBytes("ISO-8859-1");
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    }
+}
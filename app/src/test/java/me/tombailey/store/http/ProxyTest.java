@@ -0,0 +1,202 @@
+package me.tombailey.store.http;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ProxyTest {
+
+    /**
+     * Accepts one SOCKS5 connection which authenticates with a username and password, recording
+     * what it was sent, then replies "hello" through the tunnel
+     */
+    private static class Socks5Server extends Thread {
+
+        private ServerSocket mServerSocket;
+
+        private String mUsername;
+        private String mPassword;
+        private String mDestinationHost;
+        private int mDestinationPort;
+
+        private Socks5Server() throws IOException {
+            mServerSocket = new ServerSocket(0);
+        }
+
+        @Override
+        public void run() {
+            try {
+                Socket socket = mServerSocket.accept();
+                DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+                OutputStream outputStream = socket.getOutputStream();
+
+                //version, method count and the method
+                inputStream.readFully(new byte[3]);
+                outputStream.write(new byte[]{5, 2});
+
+                inputStream.readByte();
+                mUsername = readLengthPrefixed(inputStream);
+                mPassword = readLengthPrefixed(inputStream);
+                outputStream.write(new byte[]{1, 0});
+
+                //version, command, reserved and address type
+                inputStream.readFully(new byte[4]);
+                mDestinationHost = readLengthPrefixed(inputStream);
+                mDestinationPort = inputStream.readUnsignedShort();
+                outputStream.write(new byte[]{5, 0, 0, 1, 127, 0, 0, 1, 0, 80});
+
+                outputStream.write("hello".getBytes("ISO-8859-1"));
+                socket.close();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }
+
+        private static String readLengthPrefixed(DataInputStream inputStream) throws IOException {
+            byte[] value = new byte[inputStream.readUnsignedByte()];
+            inputStream.readFully(value);
+            return new String(value, "UTF-8");
+        }
+    }
+
+    @Test
+    public void whenSocks5WithIsolation_shouldAuthenticateWithIsolationToken() throws Exception {
+        //arrange
+        Socks5Server server = new Socks5Server();
+        server.start();
+        Proxy underTest = new Proxy.Builder()
+                .host("127.0.0.1")
+                .port(server.mServerSocket.getLocalPort())
+                .socks5()
+                .isolation(Proxy.Isolation.PER_HOST)
+                .build();
+
+        //act
+        Socket socket = underTest.getSocketFor("Example.onion", 443, 1000);
+        byte[] tunnelled = new byte[5];
+        new DataInputStream(socket.getInputStream()).readFully(tunnelled);
+        socket.close();
+        server.join();
+
+        //assert
+        assertThat(server.mUsername, is("example.onion"));
+        assertThat(server.mPassword, is("example.onion"));
+        assertThat(server.mDestinationHost, is("Example.onion"));
+        assertThat(server.mDestinationPort, is(443));
+        assertThat(new String(tunnelled, "ISO-8859-1"), is("hello"));
+    }
+
+    @Test
+    public void whenRoundRobinIsolation_shouldCycleThroughCircuits() {
+        //arrange
+        Proxy underTest = new Proxy.Builder()
+                .host("127.0.0.1")
+                .port(9050)
+                .socks5()
+                .isolation(Proxy.Isolation.ROUND_ROBIN)
+                .circuits(2)
+                .build();
+
+        //act
+        String first = underTest.getIsolationToken("example.onion");
+        String second = underTest.getIsolationToken("example.onion");
+        String third = underTest.getIsolationToken("example.onion");
+
+        //assert
+        assertThat(first.equals(second), is(false));
+        assertThat(third, is(first));
+    }
+
+    @Test
+    public void whenRoundRobinIsolation_shouldReuseConnectionsOnAnyCircuit() {
+        //arrange
+        Proxy roundRobin = new Proxy.Builder()
+                .host("127.0.0.1")
+                .port(9050)
+                .socks5()
+                .isolation(Proxy.Isolation.ROUND_ROBIN)
+                .circuits(2)
+                .build();
+        Proxy perHost = new Proxy.Builder()
+                .host("127.0.0.1")
+                .port(9050)
+                .socks5()
+                .isolation(Proxy.Isolation.PER_HOST)
+                .build();
+
+        //act
+        String roundRobinToken = roundRobin.getReusableIsolationToken("example.onion");
+        String perHostToken = perHost.getReusableIsolationToken("Example.onion");
+
+        //assert
+        assertThat(roundRobinToken, is(nullValue()));
+        assertThat(perHostToken, is("example.onion"));
+    }
+
+    @Test
+    public void whenNoIsolation_shouldNotHaveIsolationToken() {
+        //arrange
+        Proxy underTest = new Proxy("127.0.0.1", 9050);
+
+        //act
+        String isolationToken = underTest.getIsolationToken("example.onion");
+
+        //assert
+        assertThat(isolationToken, is(nullValue()));
+    }
+
+    @Test
+    public void whenOptimisticData_shouldSendRequestBeforeConnectReply() throws Exception {
+        //arrange
+        final ServerSocket serverSocket = new ServerSocket(0);
+        Thread server = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = serverSocket.accept();
+                    DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+
+                    //the SOCKS4a connect request and then the request, before any reply is sent
+                    inputStream.readFully(new byte[9 + "example.onion".length() + 1]);
+                    inputStream.readFully(new byte[4]);
+
+                    socket.getOutputStream().write(new byte[]{0, 90, 0, 80, 127, 0, 0, 1});
+                    socket.getOutputStream().write("pong".getBytes("ISO-8859-1"));
+                    socket.close();
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                }
+            }
+        };
+        server.start();
+        Proxy underTest = new Proxy.Builder()
+                .host("127.0.0.1")
+                .port(serverSocket.getLocalPort())
+                .optimisticData(true)
+                .build();
+
+        //act
+        Socket socket = underTest.getSocketFor("example.onion", 80, 1000, null, true);
+        socket.setSoTimeout(1000);
+        socket.getOutputStream().write("ping".getBytes("ISO-8859-1"));
+        byte[] response = new byte[4];
+        new DataInputStream(socket.getInputStream()).readFully(response);
+        socket.close();
+        server.join();
+
+        //assert
+        assertThat(new String(response, "ISO-8859-1"), is("pong"));
+    }
+
+}
@@ -0,0 +1,417 @@
+package me.tombailey.store.http;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import me.tombailey.store.http.form.body.UrlEncodedForm;
+import me.tombailey.store.http.internal.cache.JournalCacheStore;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RequestTest {
+
+    private static final String URL = "http://store.onion/apps";
+    private static final String IDENTIFIER = "GET" + URL;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private HttpTestServer mServer;
+    private Cache mCache;
+    private ExecutorService mExecutorService = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() throws IOException {
+        mExecutorService.shutdownNow();
+        Request.setConnectionPool(null);
+        Request.setCache(null);
+        if (mCache != null) {
+            mCache.close();
+        }
+        if (mServer != null) {
+            mServer.close();
+        }
+    }
+
+    /**
+     * Answers the first request on each connection and closes the connection when it receives a
+     * second one, like a server which has given up on an idle connection
+     */
+    private static class ClosesReusedConnections implements HttpTestServer.Handler {
+
+        private int mLastConnectionIndex = -1;
+
+        @Override
+        public synchronized void handle(HttpTestServer.RecordedRequest request,
+                                        OutputStream outputStream) throws IOException {
+            if (request.getConnectionIndex() == mLastConnectionIndex) {
+                throw new IOException("closing a reused connection");
+            }
+            mLastConnectionIndex = request.getConnectionIndex();
+            outputStream.write(HttpTestServer.response("200 OK", "hello"));
+        }
+    }
+
+    @Test
+    public void whenPooledConnectionFailsForGet_shouldRetryWithNewConnection()
+            throws IOException {
+        //arrange
+        mServer = new HttpTestServer(new ClosesReusedConnections());
+        Request.setConnectionPool(new ConnectionPool.Builder().build());
+        new Request.Builder().proxy(mServer.getProxy()).url(URL).get().build().execute();
+
+        //act
+        Response response = new Request.Builder().proxy(mServer.getProxy()).url(URL).get().build()
+                .execute();
+
+        //assert
+        assertThat(response.getMessageBodyString(), is("hello"));
+        assertThat(mServer.getRequestCount(), is(3));
+        assertThat(mServer.getConnectionCount(), is(2));
+    }
+
+    @Test
+    public void whenPooledConnectionFailsForPost_shouldNotSendItAgain() throws IOException {
+        //arrange
+        mServer = new HttpTestServer(new ClosesReusedConnections());
+        Request.setConnectionPool(new ConnectionPool.Builder().build());
+        new Request.Builder().proxy(mServer.getProxy()).url(URL).get().build().execute();
+        Request post = new Request.Builder().proxy(mServer.getProxy()).url(URL)
+                .post(new UrlEncodedForm.Builder().add("rating", 5).build()).build();
+
+        //act
+        try {
+            post.execute();
+            fail("the post should have failed");
+        } catch (IOException ioe) {
+            //expected
+        }
+
+        //assert
+        assertThat(mServer.getRequestCount(), is(2));
+        assertThat(mServer.getConnectionCount(), is(1));
+    }
+
+    private Cache createCache() {
+        File cacheDirectory = temporaryFolder.getRoot();
+        mCache = new Cache.Builder()
+                .cacheDirectory(cacheDirectory)
+                .maxSize(1024 * 1024)
+                .cacheStore(new JournalCacheStore(new File(cacheDirectory, "journal")))
+                .sweepInterval(0)
+                .build();
+        Request.setCache(mCache);
+        return mCache;
+    }
+
+    /**
+     * Caches a response which went stale a second ago and can be served stale for a minute
+     */
+    private CacheEntry cacheStaleResponse(String cacheControl, String etag) throws IOException {
+        File file = temporaryFolder.newFile("stale");
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        fileOutputStream.write(HttpTestServer.response("200 OK", "stale",
+                "Cache-Control: " + cacheControl));
+        fileOutputStream.close();
+
+        long now = System.currentTimeMillis();
+        CacheEntry cacheEntry = new CacheEntry(IDENTIFIER, now - 1000, now + 60000, now,
+                (int) file.length(), file.getAbsolutePath(), etag, null);
+        mCache.addCachedFile(cacheEntry);
+        return cacheEntry;
+    }
+
+    private static Request get(HttpTestServer server) throws IOException {
+        return new Request.Builder().proxy(server.getProxy()).url(URL).get().build();
+    }
+
+    @Test
+    public void whenStaleWhileRevalidate_shouldServeStaleAndRefreshInBackground()
+            throws IOException, InterruptedException {
+        //arrange
+        final CountDownLatch refreshAllowed = new CountDownLatch(1);
+        mServer = new HttpTestServer(new HttpTestServer.Handler() {
+            @Override
+            public void handle(HttpTestServer.RecordedRequest request, OutputStream outputStream)
+                    throws IOException {
+                try {
+                    refreshAllowed.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ie) {
+                    throw new IOException(ie);
+                }
+                outputStream.write(HttpTestServer.response("200 OK", "fresh",
+                        "Cache-Control: public, max-age=60"));
+            }
+        });
+        createCache();
+        cacheStaleResponse("public, max-age=60, stale-while-revalidate=60", null);
+
+        //act
+        Response staleResponse = get(mServer).execute();
+        refreshAllowed.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mCache.getCachedFile(IDENTIFIER).getValidUntil() <= System.currentTimeMillis() &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Response refreshedResponse = get(mServer).execute();
+
+        //assert
+        assertThat(staleResponse.getMessageBodyString(), is("stale"));
+        assertThat(refreshedResponse.getMessageBodyString(), is("fresh"));
+        assertThat(mServer.getRequestCount(), is(1));
+    }
+
+    @Test
+    public void whenStaleIfErrorAndServerFails_shouldServeStale() throws IOException {
+        //arrange
+        mServer = new HttpTestServer(new HttpTestServer.Handler() {
+            @Override
+            public void handle(HttpTestServer.RecordedRequest request, OutputStream outputStream)
+                    throws IOException {
+                if (mServer.getRequestCount() == 1) {
+                    throw new IOException("closing without a response");
+                }
+                outputStream.write(HttpTestServer.response("503 Service Unavailable", ""));
+            }
+        });
+        createCache();
+        cacheStaleResponse("public, max-age=60, stale-if-error=60", null);
+
+        //act
+        Response networkFailureResponse = get(mServer).execute();
+        Response serverErrorResponse = get(mServer).execute();
+
+        //assert
+        assertThat(networkFailureResponse.getMessageBodyString(), is("stale"));
+        assertThat(serverErrorResponse.getMessageBodyString(), is("stale"));
+        assertThat(mServer.getRequestCount(), is(2));
+    }
+
+    @Test
+    public void whenStaleCachedFileIsMissing_shouldRequestResponse() throws IOException {
+        //arrange
+        mServer = new HttpTestServer(new HttpTestServer.Handler() {
+            @Override
+            public void handle(HttpTestServer.RecordedRequest request, OutputStream outputStream)
+                    throws IOException {
+                outputStream.write(HttpTestServer.response("200 OK", "fresh"));
+            }
+        });
+        createCache();
+        CacheEntry cacheEntry = cacheStaleResponse(
+                "public, max-age=60, stale-while-revalidate=60", "\"v1\"");
+        new File(cacheEntry.getFilePath()).delete();
+
+        //act
+        Response response = get(mServer).execute();
+
+        //assert
+        assertThat(response.getMessageBodyString(), is("fresh"));
+        assertThat(mServer.getRequests().get(0).getHeader("If-None-Match"), is(nullValue()));
+        assertThat(mCache.getCachedFile(IDENTIFIER), is(nullValue()));
+    }
+
+    /**
+     * Answers once it has been told to, so that identical requests can be made while it waits
+     */
+    private static class WaitingHandler implements HttpTestServer.Handler {
+
+        private CountDownLatch mReceived = new CountDownLatch(1);
+        private CountDownLatch mAnswer = new CountDownLatch(1);
+        private boolean mFail;
+
+        private WaitingHandler(boolean fail) {
+            mFail = fail;
+        }
+
+        @Override
+        public void handle(HttpTestServer.RecordedRequest request, OutputStream outputStream)
+                throws IOException {
+            mReceived.countDown();
+            try {
+                mAnswer.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ie) {
+                throw new IOException(ie);
+            }
+            if (mFail) {
+                throw new IOException("closing without a response");
+            }
+            outputStream.write(HttpTestServer.response("200 OK", "hello"));
+        }
+
+        private void awaitReceived() throws InterruptedException {
+            mReceived.await(5, TimeUnit.SECONDS);
+        }
+
+        private void answer() {
+            mAnswer.countDown();
+        }
+    }
+
+    private Future<Response> submit(final Request request) {
+        return mExecutorService.submit(new Callable<Response>() {
+            @Override
+            public Response call() throws IOException {
+                return request.execute();
+            }
+        });
+    }
+
+    /**
+     * Starts a request and then identical requests which wait for it
+     */
+    private List<Future<Response>> submitIdentical(WaitingHandler handler, Request... requests)
+            throws InterruptedException {
+        List<Future<Response>> responses = new ArrayList<Future<Response>>(requests.length);
+        responses.add(submit(requests[0]));
+        handler.awaitReceived();
+        for (int index = 1; index < requests.length; index++) {
+            responses.add(submit(requests[index]));
+        }
+        //gives the identical requests time to start waiting
+        Thread.sleep(200);
+        return responses;
+    }
+
+    @Test
+    public void whenIdenticalGetsInFlight_shouldShareOneResponse() throws Exception {
+        //arrange
+        WaitingHandler handler = new WaitingHandler(false);
+        mServer = new HttpTestServer(handler);
+        List<Future<Response>> responses = submitIdentical(handler, get(mServer), get(mServer),
+                get(mServer));
+
+        //act
+        handler.answer();
+
+        //assert
+        for (Future<Response> response : responses) {
+            assertThat(response.get(5, TimeUnit.SECONDS).getMessageBodyString(), is("hello"));
+        }
+        assertThat(mServer.getRequestCount(), is(1));
+    }
+
+    @Test
+    public void whenSharedRequestFails_shouldFailEveryIdenticalRequest() throws Exception {
+        //arrange
+        WaitingHandler handler = new WaitingHandler(true);
+        mServer = new HttpTestServer(handler);
+        List<Future<Response>> responses = submitIdentical(handler, get(mServer), get(mServer),
+                get(mServer));
+
+        //act
+        handler.answer();
+
+        //assert
+        for (Future<Response> response : responses) {
+            try {
+                response.get(5, TimeUnit.SECONDS);
+                fail("every identical request should fail");
+            } catch (ExecutionException ee) {
+                assertThat(ee.getCause(), is(instanceOf(IOException.class)));
+            }
+        }
+        assertThat(mServer.getRequestCount(), is(1));
+    }
+
+    @Test
+    public void whenIdenticalRequestCanceled_shouldStillShareResponseWithOthers()
+            throws Exception {
+        //arrange
+        WaitingHandler handler = new WaitingHandler(false);
+        mServer = new HttpTestServer(handler);
+        Request canceled = get(mServer);
+        List<Future<Response>> responses = submitIdentical(handler, get(mServer), canceled,
+                get(mServer));
+
+        //act
+        canceled.cancel();
+        handler.answer();
+
+        //assert
+        assertThat(responses.get(0).get(5, TimeUnit.SECONDS).getMessageBodyString(), is("hello"));
+        assertThat(responses.get(2).get(5, TimeUnit.SECONDS).getMessageBodyString(), is("hello"));
+        try {
+            responses.get(1).get(5, TimeUnit.SECONDS);
+            fail("the canceled request should fail");
+        } catch (ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(IOException.class)));
+        }
+        assertThat(mServer.getRequestCount(), is(1));
+    }
+
+    @Test
+    public void whenSharedRequestFinished_shouldMakeNextIdenticalRequestAgain() throws Exception {
+        //arrange
+        WaitingHandler handler = new WaitingHandler(false);
+        mServer = new HttpTestServer(handler);
+        handler.answer();
+        get(mServer).execute();
+
+        //act
+        Response response = get(mServer).execute();
+
+        //assert
+        assertThat(response.getMessageBodyString(), is("hello"));
+        assertThat(mServer.getRequestCount(), is(2));
+    }
+
+    @Test
+    public void whenNotModified_shouldServeCachedResponseAndRefreshItsEntry() throws IOException {
+        //arrange
+        mServer = new HttpTestServer(new HttpTestServer.Handler() {
+            @Override
+            public void handle(HttpTestServer.RecordedRequest request, OutputStream outputStream)
+                    throws IOException {
+                outputStream.write(HttpTestServer.response("304 Not Modified", "",
+                        "ETag: \"v2\"",
+                        "Cache-Control: public, max-age=120, stale-while-revalidate=30"));
+            }
+        });
+        createCache();
+        cacheStaleResponse("public, max-age=60", "\"v1\"");
+        long now = System.currentTimeMillis();
+
+        //act
+        Response response = get(mServer).execute();
+
+        //assert
+        assertThat(response.getMessageBodyString(), is("stale"));
+        assertThat(mServer.getRequests().get(0).getHeader("If-None-Match"), is("\"v1\""));
+
+        mCache.close();
+        JournalCacheStore reopened = new JournalCacheStore(
+                new File(temporaryFolder.getRoot(), "journal"));
+        CacheEntry refreshed = reopened.get(IDENTIFIER);
+        reopened.close();
+        assertThat(refreshed.getEtag(), is("\"v2\""));
+        assertThat(refreshed.getValidUntil() >= now + 120000, is(true));
+        assertThat(refreshed.getValidUntil() < now + 125000, is(true));
+        assertThat(refreshed.getStaleUntil(), is(refreshed.getValidUntil() + 30000));
+    }
+
+}
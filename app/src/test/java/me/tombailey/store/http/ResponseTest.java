@@ -2,16 +2,26 @@ package me.tombailey.store.http;
 
 import org.hamcrest.core.Is;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import me.tombailey.store.http.internal.io.HttpInputStream;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
@@ -26,6 +36,9 @@ import static org.mockito.Mockito.when;
 @PrepareForTest(Response.class)
 public class ResponseTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test
     public void whenGetHttpVersion_shouldGetHttpVersionCorrectly() {
         //arrange
@@ -188,4 +201,152 @@ public class ResponseTest {
         Assert.assertThat(actual.getMessageBody(), Is.is(expected.getMessageBody()));
     }
 
+    @Test
+    public void whenStreamFromInputStream_shouldStopAtContentLength() throws IOException {
+        //arrange
+        byte[] expected = "hello world".getBytes("utf-8");
+
+        HttpInputStream inputStream = new HttpInputStream(new ByteArrayInputStream(("HTTP/1.1 200 OK\r\n" +
+                "content-length: 11\r\n\r\n" +
+                "hello world" +
+                "HTTP/1.1 200 OK\r\n").getBytes("ISO-8859-1")));
+
+        //act
+        Response actual = Response.fromHttpInputStream(inputStream, null);
+        ByteArrayOutputStream messageBody = new ByteArrayOutputStream();
+        InputStream messageBodyStream = actual.getMessageBodyStream();
+        int nextByte = messageBodyStream.read();
+        while (nextByte != -1) {
+            messageBody.write(nextByte);
+            nextByte = messageBodyStream.read();
+        }
+
+        //assert
+        Assert.assertThat(messageBody.toByteArray(), Is.is(expected));
+        Assert.assertThat(inputStream.read(), Is.is((int) 'H'));
+    }
+
+    @Test
+    public void whenStreamWithContentLength_shouldKnowMessageBodyLength() throws IOException {
+        //arrange
+        HttpInputStream inputStream = new HttpInputStream(new ByteArrayInputStream(("HTTP/1.1 200 OK\r\n" +
+                "content-length: 11\r\n\r\n" +
+                "hello world").getBytes("ISO-8859-1")));
+
+        //act
+        Response actual = Response.fromHttpInputStream(inputStream, null);
+
+        //assert
+        Assert.assertThat(actual.getMessageBodyLength(), Is.is(11L));
+    }
+
+    @Test
+    public void whenStreamOver2GB_shouldKnowMessageBodyLength() throws IOException {
+        //arrange
+        HttpInputStream inputStream = new HttpInputStream(new ByteArrayInputStream(("HTTP/1.1 200 OK\r\n" +
+                "content-length: 3000000000\r\n\r\n").getBytes("ISO-8859-1")));
+
+        //act
+        Response actual = Response.fromHttpInputStream(inputStream, null);
+
+        //assert
+        Assert.assertThat(actual.getMessageBodyLength(), Is.is(3000000000L));
+    }
+
+    @Test(expected = IOException.class)
+    public void whenStreamWithInvalidContentLength_shouldThrowIOException() throws IOException {
+        //arrange
+        HttpInputStream inputStream = new HttpInputStream(new ByteArrayInputStream(("HTTP/1.1 200 OK\r\n" +
+                "content-length: eleven\r\n\r\n" +
+                "hello world").getBytes("ISO-8859-1")));
+
+        //act
+        Response.fromHttpInputStream(inputStream, null);
+    }
+
+    @Test
+    public void whenStreamChunkedOrCompressed_shouldNotKnowMessageBodyLength() throws IOException {
+        //arrange
+        HttpInputStream chunkedInputStream = new HttpInputStream(new ByteArrayInputStream(("HTTP/1.1 200 OK\r\n" +
+                "transfer-encoding: chunked\r\n\r\n" +
+                "b\r\nhello world\r\n0\r\n\r\n").getBytes("ISO-8859-1")));
+        HttpInputStream compressedInputStream = new HttpInputStream(new ByteArrayInputStream(("HTTP/1.1 200 OK\r\n" +
+                "content-encoding: gzip\r\n" +
+                "content-length: 31\r\n\r\n").getBytes("ISO-8859-1")));
+
+        //act
+        Response chunked = Response.fromHttpInputStream(chunkedInputStream, null);
+        Response compressed = Response.fromHttpInputStream(compressedInputStream, null);
+
+        //assert
+        Assert.assertThat(chunked.getMessageBodyLength(), Is.is(-1L));
+        Assert.assertThat(compressed.getMessageBodyLength(), Is.is(-1L));
+    }
+
+    @Test
+    public void whenGetFromGzipInputStream_shouldDecompressMessageBody() throws IOException {
+        //arrange
+        byte[] expected = "hello world".getBytes("utf-8");
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed);
+        gzipOutputStream.write(expected);
+        gzipOutputStream.close();
+
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        response.write(("HTTP/1.1 200 OK\r\n" +
+                "content-encoding: gzip\r\n" +
+                "content-length: " + compressed.size() + "\r\n\r\n").getBytes("ISO-8859-1"));
+        response.write(compressed.toByteArray());
+
+        //act
+        Response actual = Response.fromInputStream(new ByteArrayInputStream(response.toByteArray()));
+
+        //assert
+        Assert.assertThat(actual.getMessageBody(), Is.is(expected));
+    }
+
+    @Test
+    public void whenCacheAndGetFromSmallFile_shouldProduceResponseCorrectly() throws IOException {
+        //arrange
+        Response expected = new Response("HTTP/1.1", 200, "OK", new Header[]{
+                new Header("content-length", "11")
+        }, "hello world".getBytes("utf-8"));
+        File cacheFile = new File(temporaryFolder.getRoot(), "cached");
+
+        //act
+        expected.cache(cacheFile);
+        Response actual = Response.fromFile(cacheFile);
+
+        //assert
+        Assert.assertThat(actual.getStatusCode(), Is.is(expected.getStatusCode()));
+        Assert.assertThat(actual.getHeader("content-length").getValue(), Is.is("11"));
+        Assert.assertThat(actual.getMessageBody(), Is.is(expected.getMessageBody()));
+        Assert.assertThat(actual.length(), Is.is(expected.length()));
+    }
+
+    @Test
+    public void whenCacheAndGetFromLargeFile_shouldMapMessageBody() throws IOException {
+        //arrange
+        byte[] expected = new byte[256 * 1024];
+        Arrays.fill(expected, (byte) 'a');
+        File cacheFile = new File(temporaryFolder.getRoot(), "cached");
+        new Response("HTTP/1.1", 200, "OK", new Header[]{
+                new Header("content-length", String.valueOf(expected.length))
+        }, expected).cache(cacheFile);
+
+        //act
+        Response actual = Response.fromFile(cacheFile);
+        ByteBuffer messageBodyBuffer = actual.getMessageBodyBuffer();
+        byte[] messageBody = new byte[messageBodyBuffer.remaining()];
+        messageBodyBuffer.get(messageBody);
+
+        //assert
+        Assert.assertThat(messageBodyBuffer.isReadOnly(), Is.is(true));
+        Assert.assertThat(messageBodyBuffer.hasArray(), Is.is(false));
+        Assert.assertThat(messageBody, Is.is(expected));
+        Assert.assertThat(actual.getMessageBody(), Is.is(expected));
+        Assert.assertThat(actual.sizeInMemory() < 1024, Is.is(true));
+    }
+
 }
@@ -0,0 +1,305 @@
+package me.tombailey.store.http;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SegmentedDownloadTest {
+
+    private static final String URL = "http://store.onion/app.apk";
+    private static final String CONTENT = createContent(4000);
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private HttpTestServer mServer;
+
+    @After
+    public void tearDown() throws IOException {
+        if (mServer != null) {
+            mServer.close();
+        }
+    }
+
+    private static String createContent(int length) {
+        Random random = new Random(1);
+        StringBuilder content = new StringBuilder(length);
+        for (int index = 0; index < length; index++) {
+            content.append((char) ('a' + random.nextInt(26)));
+        }
+        return content.toString();
+    }
+
+    /**
+     * Answers range requests with 206 and anything else with the whole file
+     */
+    private static class RangeHandler implements HttpTestServer.Handler {
+
+        private String mValidatorHeader;
+
+        private RangeHandler(String validatorHeader) {
+            mValidatorHeader = validatorHeader;
+        }
+
+        @Override
+        public void handle(HttpTestServer.RecordedRequest request, OutputStream outputStream)
+                throws IOException {
+            String range = request.getHeader("Range");
+            if (range == null || !acceptsRange(request)) {
+                outputStream.write(response("200 OK", CONTENT));
+                return;
+            }
+
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            int first = Integer.parseInt(bounds[0]);
+            int last = Integer.parseInt(bounds[1]);
+            writeRange(outputStream, first, last);
+        }
+
+        protected boolean acceptsRange(HttpTestServer.RecordedRequest request) {
+            return true;
+        }
+
+        protected void writeRange(OutputStream outputStream, int first, int last)
+                throws IOException {
+            outputStream.write(response("206 Partial Content", CONTENT.substring(first, last + 1),
+                    "Content-Range: bytes " + first + "-" + last + "/" + CONTENT.length()));
+        }
+
+        protected byte[] response(String statusLine, String body, String... headers) {
+            if (mValidatorHeader == null) {
+                return HttpTestServer.response(statusLine, body, headers);
+            }
+
+            String[] withValidator = new String[headers.length + 1];
+            System.arraycopy(headers, 0, withValidator, 0, headers.length);
+            withValidator[headers.length] = mValidatorHeader;
+            return HttpTestServer.response(statusLine, body, withValidator);
+        }
+    }
+
+    /**
+     * Loses the connection half way through the second segment the first time it is asked for
+     */
+    private static class FailsPartWayThroughSecondSegment extends RangeHandler {
+
+        private boolean mFailed;
+
+        private FailsPartWayThroughSecondSegment(String validatorHeader) {
+            super(validatorHeader);
+        }
+
+        @Override
+        protected void writeRange(OutputStream outputStream, int first, int last)
+                throws IOException {
+            synchronized (this) {
+                if (first == 1000 && !mFailed) {
+                    mFailed = true;
+                    byte[] complete = response("206 Partial Content",
+                            CONTENT.substring(first, last + 1),
+                            "Content-Range: bytes " + first + "-" + last + "/" +
+                                    CONTENT.length());
+                    outputStream.write(complete, 0, complete.length - 500);
+                    outputStream.flush();
+                    throw new IOException("losing the connection part way through");
+                }
+            }
+            super.writeRange(outputStream, first, last);
+        }
+    }
+
+    private SegmentedDownload createDownload(File file) throws IOException {
+        Request request = new Request.Builder().proxy(mServer.getProxy()).url(URL).get().build();
+        return new SegmentedDownload.Builder()
+                .request(request)
+                .file(file)
+                .segments(4)
+                .minSegmentSize(1000)
+                .retries(0)
+                .build();
+    }
+
+    private static String read(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        DataInputStream inputStream = new DataInputStream(new FileInputStream(file));
+        try {
+            inputStream.readFully(content);
+        } finally {
+            inputStream.close();
+        }
+        return new String(content, "ISO-8859-1");
+    }
+
+    private int countRequestsWithRange(String range) {
+        int count = 0;
+        for (HttpTestServer.RecordedRequest request : mServer.getRequests()) {
+            if (range.equals(request.getHeader("Range"))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void whenRangesSupported_shouldDownloadEachSegment() throws IOException {
+        //arrange
+        mServer = new HttpTestServer(new RangeHandler("ETag: \"v1\""));
+        File file = mTemporaryFolder.newFile("app.apk");
+
+        //act
+        createDownload(file).download();
+
+        //assert
+        assertThat(read(file), is(CONTENT));
+        assertThat(mServer.getRequestCount(), is(5));
+        assertThat(countRequestsWithRange("bytes=0-0"), is(1));
+        assertThat(countRequestsWithRange("bytes=1000-1999"), is(1));
+        assertThat(mServer.getRequests().get(1).getHeader("If-Range"), is("\"v1\""));
+        assertThat(new File(file.getPath() + ".segments").exists(), is(false));
+    }
+
+    @Test
+    public void whenDownloadedAgainAfterFailing_shouldResumeFromProgressMade()
+            throws IOException {
+        //arrange
+        mServer = new HttpTestServer(new FailsPartWayThroughSecondSegment("ETag: \"v1\""));
+        File file = mTemporaryFolder.newFile("app.apk");
+        SegmentedDownload segmentedDownload = createDownload(file);
+        try {
+            segmentedDownload.download();
+            fail("the first attempt should fail");
+        } catch (IOException ioe) {
+            assertThat(new File(file.getPath() + ".segments").exists(), is(true));
+        }
+
+        //act
+        segmentedDownload.download();
+
+        //assert
+        assertThat(read(file), is(CONTENT));
+        assertThat(countRequestsWithRange("bytes=1500-1999"), is(1));
+        assertThat(new File(file.getPath() + ".segments").exists(), is(false));
+    }
+
+    @Test
+    public void whenDownloadedAgainWithoutValidator_shouldStartAgain() throws IOException {
+        //arrange
+        mServer = new HttpTestServer(new FailsPartWayThroughSecondSegment(null));
+        File file = mTemporaryFolder.newFile("app.apk");
+        SegmentedDownload segmentedDownload = createDownload(file);
+        try {
+            segmentedDownload.download();
+            fail("the first attempt should fail");
+        } catch (IOException ioe) {
+            //expected
+        }
+
+        //act
+        segmentedDownload.download();
+
+        //assert
+        assertThat(read(file), is(CONTENT));
+        assertThat(countRequestsWithRange("bytes=1000-1999"), is(2));
+        assertThat(countRequestsWithRange("bytes=1500-1999"), is(0));
+    }
+
+    @Test
+    public void whenProbeFails_shouldNotRequestWholeFile() throws IOException {
+        //arrange
+        mServer = new HttpTestServer(new HttpTestServer.Handler() {
+            @Override
+            public void handle(HttpTestServer.RecordedRequest request, OutputStream outputStream)
+                    throws IOException {
+                outputStream.write(HttpTestServer.response("404 Not Found", ""));
+            }
+        });
+        File file = mTemporaryFolder.newFile("app.apk");
+
+        //act
+        try {
+            createDownload(file).download();
+            fail("the download should fail");
+        } catch (IOException ioe) {
+            //expected
+        }
+
+        //assert
+        assertThat(mServer.getRequestCount(), is(1));
+    }
+
+    @Test
+    public void whenDownloadedAgainAfterCancel_shouldComplete() throws IOException {
+        //arrange
+        mServer = new HttpTestServer(new RangeHandler("ETag: \"v1\""));
+        File file = mTemporaryFolder.newFile("app.apk");
+        SegmentedDownload segmentedDownload = createDownload(file);
+        segmentedDownload.cancel();
+
+        //act
+        segmentedDownload.download();
+
+        //assert
+        assertThat(segmentedDownload.isCanceled(), is(false));
+        assertThat(read(file), is(CONTENT));
+    }
+
+    @Test
+    public void whenRangesNotSupported_shouldDownloadOverSingleConnection() throws IOException {
+        //arrange
+        mServer = new HttpTestServer(new RangeHandler(null) {
+            @Override
+            protected boolean acceptsRange(HttpTestServer.RecordedRequest request) {
+                return false;
+            }
+        });
+        File file = mTemporaryFolder.newFile("app.apk");
+
+        //act
+        createDownload(file).download();
+
+        //assert
+        assertThat(read(file), is(CONTENT));
+        assertThat(mServer.getRequestCount(), is(1));
+    }
+
+    @Test
+    public void whenRangeIgnoredWithoutValidator_shouldRestartOverSingleConnection()
+            throws IOException {
+        //arrange
+        mServer = new HttpTestServer(new RangeHandler(null) {
+            @Override
+            protected boolean acceptsRange(HttpTestServer.RecordedRequest request) {
+                //only the probe is answered with a range
+                return "bytes=0-0".equals(request.getHeader("Range"));
+            }
+        });
+        File file = mTemporaryFolder.newFile("app.apk");
+
+        //act
+        createDownload(file).download();
+
+        //assert
+        assertThat(read(file), is(CONTENT));
+        HttpTestServer.RecordedRequest lastRequest =
+                mServer.getRequests().get(mServer.getRequestCount() - 1);
+        assertThat(lastRequest.getHeader("Range"), is(nullValue()));
+        assertThat(new File(file.getPath() + ".segments").exists(), is(false));
+    }
+
+}
@@ -0,0 +1,74 @@
+package me.tombailey.store.http.form.body;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.StringContains.containsString;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MultipartFormTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void whenWritten_shouldSeparatePartsWithBoundary() throws IOException {
+        //arrange
+        MultipartForm multipartForm = new MultipartForm.Builder()
+                .add("name", "value")
+                .add("screenshot", "screen.png", new byte[]{1, 2, 3}, "image/png")
+                .build();
+        String contentType = multipartForm.getContentType();
+        String boundary = contentType.substring(contentType.indexOf("boundary=") + 9);
+        String expected = "--" + boundary + "\r\n" +
+                "Content-Disposition: form-data; name=\"name\"\r\n\r\n" +
+                "value\r\n" +
+                "--" + boundary + "\r\n" +
+                "Content-Disposition: form-data; name=\"screenshot\"; filename=\"screen.png\"\r\n" +
+                "Content-Type: image/png\r\n\r\n" +
+                "\u0001\u0002\u0003\r\n" +
+                "--" + boundary + "--\r\n";
+
+        //act
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        multipartForm.writeTo(actual);
+
+        //assert
+        assertThat(contentType, containsString("multipart/form-data; boundary="));
+        assertThat(actual.toString("UTF-8"), is(expected));
+    }
+
+    @Test
+    public void whenFilePart_shouldKnowContentLengthWithoutReadingFile() throws IOException {
+        //arrange
+        File file = mTemporaryFolder.newFile("crash.dmp");
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        fileOutputStream.write(new byte[100 * 1024]);
+        fileOutputStream.close();
+
+        MultipartForm multipartForm = new MultipartForm.Builder()
+                .add("dump", file, "application/octet-stream")
+                .add("version", 3)
+                .build();
+
+        //act
+        long contentLength = multipartForm.getContentLength();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        multipartForm.writeTo(actual);
+
+        //assert
+        assertThat(contentLength, is((long) actual.size()));
+        assertThat(multipartForm.getBytes().length, is(actual.size()));
+    }
+
+}
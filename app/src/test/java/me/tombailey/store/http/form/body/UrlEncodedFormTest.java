@@ -131,4 +131,79 @@ public class UrlEncodedFormTest {
         assertThat(encodedForm.getBytes(), is(expected));
     }
 
+    @Test
+    public void whenCreateBodyWithUnicodeAndReservedCharacters_shouldEncodeLikeURLEncoder() throws IOException {
+        //arrange
+        String paramName = "q&a=*._-~";
+        String paramValue = "caf\u00e9 \u20ac100 \ud83d\ude00 +/?%";
+        byte[] expected = (URLEncoder.encode(paramName, "UTF-8") + "=" +
+                URLEncoder.encode(paramValue, "UTF-8")).getBytes("UTF-8");
+
+        //act
+        UrlEncodedForm encodedForm = new UrlEncodedForm.Builder()
+                .add(paramName, paramValue)
+                .build();
+
+        //assert
+        assertThat(encodedForm.getBytes(), is(expected));
+    }
+
+    @Test
+    public void whenCreateBodyWithUnpairedSurrogates_shouldEncodeLikeURLEncoder() throws IOException {
+        //arrange
+        String paramName = "name";
+        String paramValue = "a\ud83db\ude00c\ud83d";
+        byte[] expected = (paramName + "=" + URLEncoder.encode(paramValue, "UTF-8"))
+                .getBytes("UTF-8");
+
+        //act
+        UrlEncodedForm encodedForm = new UrlEncodedForm.Builder()
+                .add(paramName, paramValue)
+                .build();
+
+        //assert
+        assertThat(encodedForm.getBytes(), is(expected));
+    }
+
+    @Test
+    public void whenGetContentLength_shouldMatchEncodedLength() throws IOException {
+        //arrange
+        UrlEncodedForm encodedForm = new UrlEncodedForm.Builder()
+                .add("query", "free text search & more, caf\u00e9 \ud83d\ude00")
+                .add("page", 2)
+                .add("includeBeta", true)
+                .build();
+
+        //act
+        long contentLength = encodedForm.getContentLength();
+
+        //assert
+        assertThat(contentLength, is((long) encodedForm.getBytes().length));
+    }
+
+    @Test
+    public void whenParamAddedAfterBuild_shouldNotChangeForm() throws IOException {
+        //arrange
+        UrlEncodedForm.Builder builder = new UrlEncodedForm.Builder().add("name", "value");
+        UrlEncodedForm encodedForm = builder.build();
+        long contentLength = encodedForm.getContentLength();
+
+        //act
+        builder.add("other", "value");
+
+        //assert
+        assertThat(encodedForm.getBytes(), is("name=value".getBytes("UTF-8")));
+        assertThat(encodedForm.getContentLength(), is(contentLength));
+    }
+
+    @Test
+    public void whenCreateEmptyBody_shouldProduceEmptyForm() throws IOException {
+        //act
+        UrlEncodedForm encodedForm = new UrlEncodedForm.Builder().build();
+
+        //assert
+        assertThat(encodedForm.getContentLength(), is(0L));
+        assertThat(encodedForm.getBytes().length, is(0));
+    }
+
 }
@@ -0,0 +1,98 @@
+package me.tombailey.store.http.internal.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import io.realm.DynamicRealm;
+import io.realm.DynamicRealmObject;
+import io.realm.FieldAttribute;
+import io.realm.RealmObjectSchema;
+import io.realm.RealmSchema;
+
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({DynamicRealm.class, RealmSchema.class, RealmObjectSchema.class,
+        DynamicRealmObject.class})
+public class CacheMigrationTest {
+
+    private DynamicRealm mRealm;
+    private RealmObjectSchema mCachedFileSchema;
+
+    @Before
+    public void setUp() {
+        //the schema's methods return the schema itself so that they can be chained
+        mCachedFileSchema = mock(RealmObjectSchema.class, new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                if (invocation.getMethod().getReturnType() == RealmObjectSchema.class) {
+                    return invocation.getMock();
+                }
+                return RETURNS_DEFAULTS.answer(invocation);
+            }
+        });
+
+        RealmSchema realmSchema = mock(RealmSchema.class);
+        when(realmSchema.get("CachedFile")).thenReturn(mCachedFileSchema);
+        mRealm = mock(DynamicRealm.class);
+        when(mRealm.getSchema()).thenReturn(realmSchema);
+    }
+
+    @Test
+    public void whenMigratedFromFirstVersion_shouldAddValidatorsAndStaleUntil() {
+        //arrange
+        CacheMigration underTest = new CacheMigration();
+
+        //act
+        underTest.migrate(mRealm, 0, CacheMigration.SCHEMA_VERSION);
+
+        //assert
+        verify(mCachedFileSchema).addField("etag", String.class);
+        verify(mCachedFileSchema).addField("lastModified", String.class);
+        verify(mCachedFileSchema).addField("staleUntil", Long.class, FieldAttribute.REQUIRED);
+    }
+
+    @Test
+    public void whenMigratedFromVersion1_shouldSetStaleUntilToValidUntil() {
+        //arrange
+        CacheMigration underTest = new CacheMigration();
+        DynamicRealmObject cachedFile = mock(DynamicRealmObject.class);
+        when(cachedFile.getLong("validUntil")).thenReturn(1234L);
+
+        //act
+        underTest.migrate(mRealm, 1, CacheMigration.SCHEMA_VERSION);
+
+        //assert
+        verify(mCachedFileSchema, never()).addField("etag", String.class);
+        verify(mCachedFileSchema).addField("staleUntil", Long.class, FieldAttribute.REQUIRED);
+        ArgumentCaptor<RealmObjectSchema.Function> transform =
+                ArgumentCaptor.forClass(RealmObjectSchema.Function.class);
+        verify(mCachedFileSchema).transform(transform.capture());
+        transform.getValue().apply(cachedFile);
+        verify(cachedFile).setLong("staleUntil", 1234L);
+    }
+
+    @Test
+    public void whenAlreadyCurrent_shouldNotChangeSchema() {
+        //arrange
+        CacheMigration underTest = new CacheMigration();
+
+        //act
+        underTest.migrate(mRealm, CacheMigration.SCHEMA_VERSION, CacheMigration.SCHEMA_VERSION);
+
+        //assert
+        verifyZeroInteractions(mCachedFileSchema);
+    }
+
+}
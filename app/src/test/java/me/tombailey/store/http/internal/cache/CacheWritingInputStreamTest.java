@@ -0,0 +1,109 @@
+package me.tombailey.store.http.internal.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CacheWritingInputStreamTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static String readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3];
+        int bytesRead = inputStream.read(buffer);
+        while (bytesRead != -1) {
+            byteArrayOutputStream.write(buffer, 0, bytesRead);
+            bytesRead = inputStream.read(buffer);
+        }
+        return byteArrayOutputStream.toString("ISO-8859-1");
+    }
+
+    private static InputStream streamOf(String body) throws IOException {
+        return new ByteArrayInputStream(body.getBytes("ISO-8859-1"));
+    }
+
+    @Test
+    public void whenReadCompletely_shouldGiveWrittenFileToListener() throws IOException {
+        //arrange
+        File file = temporaryFolder.newFile();
+        final File[] writtenFile = {null};
+        CacheWritingInputStream.Listener listener = new CacheWritingInputStream.Listener() {
+            @Override
+            public void onCacheWritten(File file) {
+                writtenFile[0] = file;
+            }
+        };
+
+        //act
+        CacheWritingInputStream underTest = new CacheWritingInputStream(streamOf("hello world"),
+                file, "head\r\n".getBytes("ISO-8859-1"), 1024, listener);
+        String messageBody = readFully(underTest);
+
+        //assert
+        assertThat(messageBody, is("hello world"));
+        assertThat(writtenFile[0], is(file));
+        assertThat(readFully(new FileInputStream(file)), is("head\r\nhello world"));
+    }
+
+    @Test
+    public void whenClosedPartWayThrough_shouldDeleteFile() throws IOException {
+        //arrange
+        File file = temporaryFolder.newFile();
+        final boolean[] listenerCalled = {false};
+        CacheWritingInputStream.Listener listener = new CacheWritingInputStream.Listener() {
+            @Override
+            public void onCacheWritten(File file) {
+                listenerCalled[0] = true;
+            }
+        };
+
+        //act
+        CacheWritingInputStream underTest = new CacheWritingInputStream(streamOf("hello world"),
+                file, new byte[0], 1024, listener);
+        underTest.read(new byte[5]);
+        underTest.close();
+
+        //assert
+        assertThat(listenerCalled[0], is(false));
+        assertThat(file.exists(), is(false));
+    }
+
+    @Test
+    public void whenLongerThanMaxLength_shouldStillReadButDeleteFile() throws IOException {
+        //arrange
+        File file = temporaryFolder.newFile();
+        final boolean[] listenerCalled = {false};
+        CacheWritingInputStream.Listener listener = new CacheWritingInputStream.Listener() {
+            @Override
+            public void onCacheWritten(File file) {
+                listenerCalled[0] = true;
+            }
+        };
+
+        //act
+        CacheWritingInputStream underTest = new CacheWritingInputStream(streamOf("hello world"),
+                file, new byte[0], 5, listener);
+        String messageBody = readFully(underTest);
+
+        //assert
+        assertThat(messageBody, is("hello world"));
+        assertThat(listenerCalled[0], is(false));
+        assertThat(file.exists(), is(false));
+    }
+
+}
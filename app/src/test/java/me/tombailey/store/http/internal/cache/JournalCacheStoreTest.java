@@ -0,0 +1,126 @@
+package me.tombailey.store.http.internal.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import me.tombailey.store.http.CacheEntry;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class JournalCacheStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static CacheEntry entry(String identifier, int size) {
+        return new CacheEntry(identifier, 2000, 1000, size, "/cache/" + identifier, "\"etag\"", null);
+    }
+
+    @Test
+    public void whenReopened_shouldReplayEntries() throws IOException {
+        //arrange
+        File journalFile = new File(temporaryFolder.getRoot(), "journal");
+        JournalCacheStore original = new JournalCacheStore(journalFile);
+        original.put(entry("GEThttp://example.com/a", 10));
+        original.put(entry("GEThttp://example.com/b", 20));
+        original.setLastUsed("GEThttp://example.com/a", 3000);
+        original.remove("GEThttp://example.com/b");
+
+        //act
+        JournalCacheStore underTest = new JournalCacheStore(journalFile);
+
+        //assert
+        CacheEntry replayed = underTest.get("GEThttp://example.com/a");
+        assertThat(replayed.getSize(), is(10));
+        assertThat(replayed.getLastUsed(), is(3000L));
+        assertThat(replayed.getEtag(), is("\"etag\""));
+        assertThat(replayed.getLastModified(), is(nullValue()));
+        assertThat(underTest.get("GEThttp://example.com/b"), is(nullValue()));
+        assertThat(underTest.getAll().size(), is(1));
+    }
+
+    @Test
+    public void whenLastRecordIsIncomplete_shouldKeepEarlierEntries() throws IOException {
+        //arrange
+        File journalFile = new File(temporaryFolder.getRoot(), "journal");
+        JournalCacheStore original = new JournalCacheStore(journalFile);
+        original.put(entry("GEThttp://example.com/a", 10));
+        long completeLength = journalFile.length();
+        original.put(entry("GEThttp://example.com/b", 20));
+
+        FileOutputStream journal = new FileOutputStream(journalFile, true);
+        journal.getChannel().truncate(completeLength + 5);
+        journal.close();
+
+        //act
+        JournalCacheStore underTest = new JournalCacheStore(journalFile);
+        underTest.put(entry("GEThttp://example.com/c", 30));
+        JournalCacheStore reopened = new JournalCacheStore(journalFile);
+
+        //assert
+        assertThat(reopened.get("GEThttp://example.com/a").getSize(), is(10));
+        assertThat(reopened.get("GEThttp://example.com/b"), is(nullValue()));
+        assertThat(reopened.get("GEThttp://example.com/c").getSize(), is(30));
+    }
+
+    @Test
+    public void whenCompacted_shouldKeepOnlyCurrentEntries() throws IOException {
+        //arrange
+        File journalFile = new File(temporaryFolder.getRoot(), "journal");
+        JournalCacheStore underTest = new JournalCacheStore(journalFile);
+        underTest.put(entry("GEThttp://example.com/a", 10));
+        for (int index = 0; index < 100; index++) {
+            underTest.setLastUsed("GEThttp://example.com/a", index);
+        }
+        long uncompactedLength = journalFile.length();
+
+        //act
+        underTest.compact();
+        JournalCacheStore reopened = new JournalCacheStore(journalFile);
+
+        //assert
+        assertThat(journalFile.length() < uncompactedLength, is(true));
+        assertThat(reopened.get("GEThttp://example.com/a").getLastUsed(), is(99L));
+    }
+
+    @Test
+    public void whenVersionOneJournal_shouldReplayEntriesAsNotServableStale() throws IOException {
+        //arrange
+        File journalFile = new File(temporaryFolder.getRoot(), "journal");
+        DataOutputStream journal = new DataOutputStream(new FileOutputStream(journalFile));
+        journal.writeInt(0x6A726E6C);
+        journal.writeInt(1);
+        journal.writeByte(1);
+        journal.writeUTF("GEThttp://example.com/a");
+        journal.writeLong(2000);
+        journal.writeLong(1000);
+        journal.writeInt(10);
+        journal.writeUTF("/cache/a");
+        journal.writeBoolean(false);
+        journal.writeBoolean(false);
+        journal.close();
+
+        //act
+        JournalCacheStore underTest = new JournalCacheStore(journalFile);
+        underTest.put(new CacheEntry("GEThttp://example.com/b", 2000, 5000, 1000, 20, "/cache/b",
+                null, null));
+        JournalCacheStore reopened = new JournalCacheStore(journalFile);
+
+        //assert
+        assertThat(reopened.get("GEThttp://example.com/a").getStaleUntil(), is(2000L));
+        assertThat(reopened.get("GEThttp://example.com/a").getSize(), is(10));
+        assertThat(reopened.get("GEThttp://example.com/b").getStaleUntil(), is(5000L));
+    }
+
+}
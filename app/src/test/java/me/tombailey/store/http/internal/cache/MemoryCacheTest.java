@@ -0,0 +1,72 @@
+package me.tombailey.store.http.internal.cache;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MemoryCacheTest {
+
+    private static final long NOW = 1000;
+    private static final long LATER = 2000;
+
+    @Test
+    public void whenGetCachedValue_shouldProduceValue() {
+        //arrange
+        MemoryCache<String> underTest = new MemoryCache<String>(100);
+
+        //act
+        underTest.put("key", "value", 10, LATER);
+
+        //assert
+        assertThat(underTest.get("key", NOW), is("value"));
+    }
+
+    @Test
+    public void whenGetExpiredValue_shouldProduceNullAndRemoveValue() {
+        //arrange
+        MemoryCache<String> underTest = new MemoryCache<String>(100);
+        underTest.put("key", "value", 10, NOW);
+
+        //act
+        String actual = underTest.get("key", LATER);
+
+        //assert
+        assertThat(actual, is(nullValue()));
+        assertThat(underTest.size(), is(0));
+    }
+
+    @Test
+    public void whenSizeExceeded_shouldEvictLeastRecentlyUsed() {
+        //arrange
+        MemoryCache<String> underTest = new MemoryCache<String>(100);
+        underTest.put("first", "value", 40, LATER);
+        underTest.put("second", "value", 40, LATER);
+        underTest.get("first", NOW);
+
+        //act
+        underTest.put("third", "value", 40, LATER);
+
+        //assert
+        assertThat(underTest.get("first", NOW), is("value"));
+        assertThat(underTest.get("second", NOW), is(nullValue()));
+        assertThat(underTest.size(), is(80));
+    }
+
+    @Test
+    public void whenValueLargerThanMaxSize_shouldNotCache() {
+        //arrange
+        MemoryCache<String> underTest = new MemoryCache<String>(100);
+
+        //act
+        underTest.put("key", "value", 101, LATER);
+
+        //assert
+        assertThat(underTest.get("key", NOW), is(nullValue()));
+    }
+
+}
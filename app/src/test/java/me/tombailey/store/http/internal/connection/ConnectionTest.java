@@ -0,0 +1,99 @@
+package me.tombailey.store.http.internal.connection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import me.tombailey.store.http.Proxy;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConnectionTest {
+
+    private ServerSocket mServerSocket;
+    private Socket mClientSocket;
+    private Socket mServerSideSocket;
+
+    @Before
+    public void setUp() throws IOException {
+        mServerSocket = new ServerSocket(0);
+        mClientSocket = new Socket("127.0.0.1", mServerSocket.getLocalPort());
+        mServerSideSocket = mServerSocket.accept();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mClientSocket.close();
+        mServerSideSocket.close();
+        mServerSocket.close();
+    }
+
+    private Connection createConnection() throws IOException {
+        Address address = new Address(new Proxy("127.0.0.1", 9050), "store.onion", 80, false,
+                null, null);
+        return new Connection(address, mClientSocket);
+    }
+
+    @Test
+    public void whenIdleAndOpen_shouldBeHealthy() throws IOException {
+        //arrange
+        Connection underTest = createConnection();
+
+        //act
+        boolean healthy = underTest.isHealthy();
+
+        //assert
+        assertThat(healthy, is(true));
+    }
+
+    @Test
+    public void whenServerClosed_shouldNotBeHealthy() throws IOException, InterruptedException {
+        //arrange
+        Connection underTest = createConnection();
+        mServerSideSocket.close();
+        Thread.sleep(50);
+
+        //act
+        boolean healthy = underTest.isHealthy();
+
+        //assert
+        assertThat(healthy, is(false));
+    }
+
+    @Test
+    public void whenServerSentUnexpectedData_shouldNotBeHealthy()
+            throws IOException, InterruptedException {
+        //arrange
+        Connection underTest = createConnection();
+        mServerSideSocket.getOutputStream().write("HTTP/1.1 408 Request Timeout\r\n".getBytes());
+        Thread.sleep(50);
+
+        //act
+        boolean healthy = underTest.isHealthy();
+
+        //assert
+        assertThat(healthy, is(false));
+    }
+
+    @Test
+    public void whenClosed_shouldNotBeHealthy() throws IOException {
+        //arrange
+        Connection underTest = createConnection();
+
+        //act
+        underTest.close();
+
+        //assert
+        assertThat(underTest.isHealthy(), is(false));
+        assertThat(mClientSocket.isClosed(), is(true));
+    }
+
+}
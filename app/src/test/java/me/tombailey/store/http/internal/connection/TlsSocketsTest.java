@@ -0,0 +1,156 @@
+package me.tombailey.store.http.internal.connection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.Arrays;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+import me.tombailey.store.http.Proxy;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TlsSocketsTest {
+
+    //a self-signed certificate for localhost, which the tests' clients trust
+    private static final String KEY_STORE = "localhost.jks";
+    private static final char[] KEY_STORE_PASSWORD = "password".toCharArray();
+
+    private SSLServerSocket mServerSocket;
+
+    @Before
+    public void setUp() throws Exception {
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(
+                KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(loadKeyStore(), KEY_STORE_PASSWORD);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+        mServerSocket = (SSLServerSocket) sslContext.getServerSocketFactory().createServerSocket(0);
+        //TLS 1.2 resumes sessions by their id, which shows whether a session was resumed
+        mServerSocket.setEnabledProtocols(new String[] {"TLSv1.2"});
+
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "tls-test-server");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServerSocket.close();
+    }
+
+    private KeyStore loadKeyStore() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        InputStream inputStream = getClass().getResourceAsStream(KEY_STORE);
+        try {
+            keyStore.load(inputStream, KEY_STORE_PASSWORD);
+        } finally {
+            inputStream.close();
+        }
+        return keyStore;
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                SSLSocket socket = (SSLSocket) mServerSocket.accept();
+                try {
+                    socket.startHandshake();
+                    //waits for the client to close the connection
+                    socket.getInputStream().read();
+                } catch (IOException ioe) {
+                    //the client gave up on the connection
+                } finally {
+                    socket.close();
+                }
+            }
+        } catch (IOException ioe) {
+            //the server was closed
+        }
+    }
+
+    private SSLSocketFactory createTrustingSocketFactory() throws Exception {
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(
+                TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(loadKeyStore());
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, trustManagerFactory.getTrustManagers(), null);
+        return sslContext.getSocketFactory();
+    }
+
+    private SSLSession connect(SSLSocketFactory sslSocketFactory) throws IOException {
+        int port = mServerSocket.getLocalPort();
+        Socket socket = new Socket("127.0.0.1", port);
+        SSLSocket sslSocket = (SSLSocket) TlsSockets.createSocket(sslSocketFactory, socket,
+                "localhost", port);
+        try {
+            sslSocket.startHandshake();
+            return sslSocket.getSession();
+        } finally {
+            sslSocket.close();
+        }
+    }
+
+    @Test
+    public void whenConnectingAgainWithSameFactory_shouldResumeSession() throws Exception {
+        //arrange
+        SSLSocketFactory sslSocketFactory = createTrustingSocketFactory();
+        SSLSession firstSession = connect(sslSocketFactory);
+
+        //act
+        SSLSession secondSession = connect(sslSocketFactory);
+
+        //assert
+        assertThat(Arrays.equals(secondSession.getId(), firstSession.getId()), is(true));
+    }
+
+    @Test
+    public void whenConnectingAgainWithOtherFactory_shouldNotResumeSession() throws Exception {
+        //arrange
+        SSLSession firstSession = connect(createTrustingSocketFactory());
+
+        //act
+        SSLSession secondSession = connect(createTrustingSocketFactory());
+
+        //assert
+        assertThat(Arrays.equals(secondSession.getId(), firstSession.getId()), is(false));
+    }
+
+    @Test
+    public void whenAddressesUseDifferentFactories_shouldNotMatch() {
+        //arrange
+        Proxy proxy = new Proxy("127.0.0.1", 9050);
+        Address address = new Address(proxy, "example.com", 443, true, null,
+                TlsSockets.getDefaultSocketFactory());
+
+        //act
+        Address otherAddress = new Address(proxy, "example.com", 443, true, null,
+                (SSLSocketFactory) SSLSocketFactory.getDefault());
+
+        //assert
+        assertThat(address.equals(otherAddress), is(false));
+    }
+
+}
@@ -0,0 +1,87 @@
+package me.tombailey.store.http.internal.download;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.File;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DownloadStateTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void whenPlanned_shouldCoverWholeLengthWithoutGaps() {
+        //arrange
+        long length = 1001;
+
+        //act
+        DownloadState downloadState = DownloadState.plan(length, null, 4);
+
+        //assert
+        assertThat(downloadState.getSegments(), is(4));
+        assertThat(downloadState.getPosition(0), is(0L));
+        for (int segment = 1; segment < 4; segment++) {
+            assertThat(downloadState.getPosition(segment), is(downloadState.getEnd(segment - 1)));
+        }
+        assertThat(downloadState.getEnd(3), is(length));
+        assertThat(downloadState.getBytesWritten(), is(0L));
+    }
+
+    @Test
+    public void whenSavedAndLoaded_shouldKeepProgress() throws Exception {
+        //arrange
+        File stateFile = new File(mTemporaryFolder.getRoot(), "download.segments");
+        DownloadState downloadState = DownloadState.plan(1000, "\"etag\"", 2);
+        downloadState.setPosition(0, 100);
+        downloadState.setPosition(1, 600);
+
+        //act
+        downloadState.save(stateFile);
+        DownloadState loaded = DownloadState.load(stateFile);
+
+        //assert
+        assertThat(loaded.matches(1000, "\"etag\""), is(true));
+        assertThat(loaded.matches(1000, "\"other\""), is(false));
+        assertThat(loaded.matches(999, "\"etag\""), is(false));
+        assertThat(loaded.getPosition(0), is(100L));
+        assertThat(loaded.getPosition(1), is(600L));
+        assertThat(loaded.getBytesWritten(), is(200L));
+    }
+
+    @Test
+    public void whenSavedWithoutValidator_shouldNotMatch() throws Exception {
+        //arrange
+        File stateFile = new File(mTemporaryFolder.getRoot(), "download.segments");
+        DownloadState.plan(1000, null, 2).save(stateFile);
+
+        //act
+        DownloadState loaded = DownloadState.load(stateFile);
+
+        //assert
+        assertThat(loaded.matches(1000, null), is(false));
+    }
+
+    @Test
+    public void whenStateFileMissingOrCorrupt_shouldNotLoad() throws Exception {
+        //arrange
+        File missingFile = new File(mTemporaryFolder.getRoot(), "missing.segments");
+        File corruptFile = mTemporaryFolder.newFile("corrupt.segments");
+
+        //act
+        DownloadState missing = DownloadState.load(missingFile);
+        DownloadState corrupt = DownloadState.load(corruptFile);
+
+        //assert
+        assertThat(missing, is(nullValue()));
+        assertThat(corrupt, is(nullValue()));
+    }
+}
@@ -0,0 +1,81 @@
+package me.tombailey.store.http.internal.io;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ChunkedInputStreamTest {
+
+    private static HttpInputStream streamOf(String body) throws IOException {
+        return new HttpInputStream(new ByteArrayInputStream(body.getBytes("ISO-8859-1")));
+    }
+
+    private static String readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3];
+        int bytesRead = inputStream.read(buffer);
+        while (bytesRead != -1) {
+            byteArrayOutputStream.write(buffer, 0, bytesRead);
+            bytesRead = inputStream.read(buffer);
+        }
+        return byteArrayOutputStream.toString("ISO-8859-1");
+    }
+
+    @Test
+    public void whenReadChunks_shouldProduceDecodedBody() throws IOException {
+        //arrange
+        HttpInputStream inputStream = streamOf("5\r\nhello\r\n6;name=value\r\n world\r\n0\r\n\r\n");
+
+        //act
+        ChunkedInputStream underTest = new ChunkedInputStream(inputStream);
+
+        //assert
+        assertThat(readFully(underTest), is("hello world"));
+    }
+
+    @Test
+    public void whenReadLastChunk_shouldLeaveNextResponseUnread() throws IOException {
+        //arrange
+        HttpInputStream inputStream = streamOf("b\r\nhello world\r\n0\r\n\r\nHTTP/1.1");
+
+        //act
+        readFully(new ChunkedInputStream(inputStream));
+
+        //assert
+        assertThat(inputStream.read(), is((int) 'H'));
+    }
+
+    @Test
+    public void whenReadTrailers_shouldProduceTrailers() throws IOException {
+        //arrange
+        HttpInputStream inputStream = streamOf("2\r\nhi\r\n0\r\nContent-MD5: abc\r\n\r\n");
+
+        //act
+        ChunkedInputStream underTest = new ChunkedInputStream(inputStream);
+        readFully(underTest);
+
+        //assert
+        assertThat(underTest.getTrailers().length, is(1));
+        assertThat(underTest.getTrailers()[0].getName(), is("Content-MD5"));
+        assertThat(underTest.getTrailers()[0].getValue(), is("abc"));
+    }
+
+    @Test(expected = IOException.class)
+    public void whenStreamEndsPartWayThroughChunk_shouldThrow() throws IOException {
+        //arrange
+        HttpInputStream inputStream = streamOf("a\r\nhello");
+
+        //act
+        readFully(new ChunkedInputStream(inputStream));
+    }
+
+}
@@ -0,0 +1,72 @@
+package me.tombailey.store.http.internal.io;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ContentDecodingInputStreamTest {
+
+    private static byte[] deflate(String value, boolean zlibWrapped) throws IOException {
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(deflated,
+                new Deflater(Deflater.DEFAULT_COMPRESSION, !zlibWrapped));
+        deflaterOutputStream.write(value.getBytes("UTF-8"));
+        deflaterOutputStream.close();
+        return deflated.toByteArray();
+    }
+
+    private static String readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        int nextByte;
+        while ((nextByte = inputStream.read()) != -1) {
+            read.write(nextByte);
+        }
+        return read.toString("UTF-8");
+    }
+
+    @Test
+    public void whenDeflateIsZlibWrappedOrRaw_shouldDecodeBoth() throws IOException {
+        //arrange
+        InputStream zlibWrapped = ContentDecodingInputStream.decode(
+                new ByteArrayInputStream(deflate("wrapped", true)), "deflate");
+        InputStream raw = ContentDecodingInputStream.decode(
+                new ByteArrayInputStream(deflate("raw", false)), "deflate");
+
+        //act
+        String decodedZlibWrapped = readAll(zlibWrapped);
+        String decodedRaw = readAll(raw);
+        zlibWrapped.close();
+        raw.close();
+
+        //assert
+        assertThat(decodedZlibWrapped, is("wrapped"));
+        assertThat(decodedRaw, is("raw"));
+    }
+
+    @Test(expected = IOException.class)
+    public void whenClosed_shouldNotReadAgain() throws IOException {
+        //arrange
+        InputStream underTest = ContentDecodingInputStream.decode(
+                new ByteArrayInputStream(deflate("closed", true)), "deflate");
+        underTest.read();
+
+        //act
+        underTest.close();
+        underTest.close();
+
+        //assert
+        underTest.read();
+    }
+
+}
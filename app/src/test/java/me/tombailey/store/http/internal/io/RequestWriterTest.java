@@ -0,0 +1,153 @@
+package me.tombailey.store.http.internal.io;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import me.tombailey.store.http.Header;
+import me.tombailey.store.http.form.body.FormBody;
+import me.tombailey.store.http.form.body.UrlEncodedForm;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.StringContains.containsString;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RequestWriterTest {
+
+    @Test
+    public void whenFormBodyLengthKnown_shouldSendContentLength() throws IOException {
+        //arrange
+        FormBody formBody = new UrlEncodedForm.Builder()
+                .add("name", "value")
+                .build();
+
+        //act
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        RequestWriter.write(actual, "POST", new URL("https://example.com/form"), true,
+                new ArrayList<Header>(), new ArrayList<Header>(), formBody);
+
+        //assert
+        String request = actual.toString("ISO-8859-1");
+        assertThat(request, containsString("Content-length: 10\r\n"));
+        assertThat(request.endsWith("\r\n\r\nname=value"), is(true));
+    }
+
+    @Test
+    public void whenFormBodyOnlyHasBytes_shouldEncodeItOnce() throws IOException {
+        //arrange
+        final int[] encodings = new int[1];
+        FormBody formBody = new FormBody() {
+            @Override
+            public byte[] getBytes() throws IOException {
+                encodings[0]++;
+                return "name=value".getBytes("ISO-8859-1");
+            }
+
+            @Override
+            public String getContentType() {
+                return "text/plain";
+            }
+        };
+
+        //act
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        RequestWriter.write(actual, "POST", new URL("https://example.com/form"), true,
+                new ArrayList<Header>(), new ArrayList<Header>(), formBody);
+
+        //assert
+        String request = actual.toString("ISO-8859-1");
+        assertThat(encodings[0], is(1));
+        assertThat(request.endsWith("\r\n\r\na\r\nname=value\r\n0\r\n\r\n"), is(true));
+    }
+
+    @Test
+    public void whenFormBodyLengthUnknown_shouldSendChunked() throws IOException {
+        //arrange
+        FormBody formBody = new FormBody() {
+            @Override
+            public byte[] getBytes() throws IOException {
+                throw new IOException("should be streamed");
+            }
+
+            @Override
+            public String getContentType() {
+                return "text/plain";
+            }
+
+            @Override
+            public long getContentLength() {
+                return -1;
+            }
+
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                outputStream.write("hello ".getBytes("ISO-8859-1"));
+                outputStream.write("world".getBytes("ISO-8859-1"));
+            }
+        };
+
+        //act
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        RequestWriter.write(actual, "POST", new URL("https://example.com/form"), true,
+                new ArrayList<Header>(), new ArrayList<Header>(), formBody);
+
+        //assert
+        String request = actual.toString("ISO-8859-1");
+        assertThat(request, containsString("Transfer-Encoding: chunked\r\n"));
+        assertThat(request.endsWith("\r\n\r\nb\r\nhello world\r\n0\r\n\r\n"), is(true));
+    }
+
+    @Test
+    public void whenFormBodyIsSmall_shouldWriteHeadAndFormBodyTogether() throws IOException {
+        //arrange
+        FormBody formBody = new UrlEncodedForm.Builder()
+                .add("rating", 5)
+                .add("review", "works well")
+                .build();
+        List<Header> headers = new ArrayList<Header>();
+        headers.add(new Header("Accept", "application/json"));
+        RequestBuffer requestBuffer = new RequestBuffer();
+        final List<String> writes = new ArrayList<String>();
+        OutputStream outputStream = new OutputStream() {
+            @Override
+            public void write(int oneByte) {
+                writes.add(String.valueOf((char) oneByte));
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                writes.add(new String(buffer, offset, length, "ISO-8859-1"));
+            }
+        };
+
+        //act
+        RequestWriter.write(outputStream, requestBuffer, "POST", new URL("https://example.com/form"),
+                true, headers, new ArrayList<Header>(), formBody);
+        RequestWriter.write(outputStream, requestBuffer, "GET", new URL("https://example.com"),
+                false, headers, new ArrayList<Header>(), null);
+
+        //assert
+        assertThat(writes.size(), is(2));
+        assertThat(writes.get(0), is("POST /form HTTP/1.1\r\n" +
+                "Host: example.com\r\n" +
+                "Accept: application/json\r\n" +
+                "Accept-Encoding: gzip, deflate\r\n" +
+                "Content-type: application/x-www-form-urlencoded; charset=UTF-8\r\n" +
+                "Content-length: 26\r\n\r\n" +
+                "rating=5&review=works+well"));
+        assertThat(writes.get(1), is("GET / HTTP/1.1\r\n" +
+                "Connection: close\r\n" +
+                "Host: example.com\r\n" +
+                "Accept: application/json\r\n" +
+                "Accept-Encoding: gzip, deflate\r\n\r\n"));
+    }
+
+}
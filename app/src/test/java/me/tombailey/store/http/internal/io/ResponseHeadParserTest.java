@@ -0,0 +1,93 @@
+package me.tombailey.store.http.internal.io;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ResponseHeadParserTest {
+
+    private static HttpInputStream streamOf(String response) throws IOException {
+        return new HttpInputStream(new ByteArrayInputStream(response.getBytes("ISO-8859-1")));
+    }
+
+    @Test
+    public void whenParseStatusLine_shouldKeepWholeStatusText() throws IOException {
+        //arrange
+        HttpInputStream inputStream = streamOf("HTTP/1.1 404 Not Found\r\n\r\n");
+
+        //act
+        ResponseHeadParser underTest = new ResponseHeadParser();
+        underTest.parse(inputStream);
+
+        //assert
+        assertThat(underTest.getHttpVersion(), is("HTTP/1.1"));
+        assertThat(underTest.getStatusCode(), is(404));
+        assertThat(underTest.getStatusText(), is("Not Found"));
+    }
+
+    @Test
+    public void whenParseHeaders_shouldTrimWhitespaceAroundValues() throws IOException {
+        //arrange
+        HttpInputStream inputStream = streamOf("HTTP/1.1 200 OK\r\n" +
+                "Content-Type:text/plain\r\n" +
+                "Cache-Control:   max-age=60  \r\n\r\n");
+
+        //act
+        ResponseHeadParser underTest = new ResponseHeadParser();
+        underTest.parse(inputStream);
+
+        //assert
+        assertThat(underTest.getHeaders().length, is(2));
+        assertThat(underTest.getHeaders()[0].getValue(), is("text/plain"));
+        assertThat(underTest.getHeaders()[1].getName(), is("Cache-Control"));
+        assertThat(underTest.getHeaders()[1].getValue(), is("max-age=60"));
+    }
+
+    @Test
+    public void whenParseInterimResponse_shouldSkipToFinalResponse() throws IOException {
+        //arrange
+        HttpInputStream inputStream = streamOf("HTTP/1.1 100 Continue\r\n\r\n" +
+                "HTTP/1.1 201 Created\r\n" +
+                "Location: /apps/1\r\n\r\n");
+
+        //act
+        ResponseHeadParser underTest = new ResponseHeadParser();
+        underTest.parse(inputStream);
+
+        //assert
+        assertThat(underTest.getStatusCode(), is(201));
+        assertThat(underTest.getHeaders()[0].getValue(), is("/apps/1"));
+    }
+
+    @Test
+    public void whenParseHead_shouldLeaveMessageBodyUnread() throws IOException {
+        //arrange
+        HttpInputStream inputStream = streamOf("HTTP/1.1 200 OK\n" +
+                "Content-Length: 5\n\n" +
+                "hello");
+
+        //act
+        ResponseHeadParser underTest = new ResponseHeadParser();
+        underTest.parse(inputStream);
+
+        //assert
+        assertThat(inputStream.read(), is((int) 'h'));
+    }
+
+    @Test(expected = IOException.class)
+    public void whenParseMalformedStatusLine_shouldThrow() throws IOException {
+        //arrange
+        HttpInputStream inputStream = streamOf("HTTP/1.1 OK\r\n\r\n");
+
+        //act
+        new ResponseHeadParser().parse(inputStream);
+    }
+
+}
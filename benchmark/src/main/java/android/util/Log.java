@@ -0,0 +1,12 @@
+package android.util;
+
+/**
+ * Stands in for android.util.Log when the library is benchmarked on a desktop JVM.
+ */
+public class Log {
+
+    public static int w(String tag, String msg) {
+        return 0;
+    }
+
+}
@@ -0,0 +1,38 @@
+package me.tombailey.store.http.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import me.tombailey.store.http.internal.cache.CacheFileNames;
+
+/**
+ * Builds the cache identifier for a request and the file name it is cached under, which happens
+ * for every cache lookup and write.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheFileNameBenchmark {
+
+    public String method = "GET";
+    public String url = "https://store.example.onion/api/apps/me.tombailey.example/icon?size=192";
+
+    @Benchmark
+    public String fromIdentifier() {
+        String identifier = method + url;
+        return CacheFileNames.fromIdentifier(identifier);
+    }
+
+}
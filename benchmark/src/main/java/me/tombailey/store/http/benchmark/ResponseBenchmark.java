@@ -0,0 +1,78 @@
+package me.tombailey.store.http.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import me.tombailey.store.http.Response;
+
+/**
+ * Parses complete responses, as read from a socket or cache file, across message body sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    public int bodySize;
+
+    @Param({"false", "true"})
+    public boolean chunked;
+
+    private byte[] mResponse;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] body = new byte[bodySize];
+        Arrays.fill(body, (byte) 'a');
+
+        ByteArrayOutputStream response = new ByteArrayOutputStream(bodySize + 1024);
+        response.write(("HTTP/1.1 200 OK\r\n" +
+                "Date: Mon, 23 Jan 2017 10:00:00 GMT\r\n" +
+                "Server: nginx\r\n" +
+                "Content-Type: application/json; charset=utf-8\r\n" +
+                "Cache-Control: public, max-age=3600\r\n" +
+                "ETag: \"5885d5a0-400\"\r\n").getBytes("ISO-8859-1"));
+
+        if (chunked) {
+            response.write("Transfer-Encoding: chunked\r\n\r\n".getBytes("ISO-8859-1"));
+            int chunkSize = 8 * 1024;
+            for (int offset = 0; offset < bodySize; offset += chunkSize) {
+                int length = Math.min(chunkSize, bodySize - offset);
+                response.write((Integer.toHexString(length) + "\r\n").getBytes("ISO-8859-1"));
+                response.write(body, offset, length);
+                response.write("\r\n".getBytes("ISO-8859-1"));
+            }
+            response.write("0\r\n\r\n".getBytes("ISO-8859-1"));
+        } else {
+            response.write(("Content-Length: " + bodySize + "\r\n\r\n").getBytes("ISO-8859-1"));
+            response.write(body);
+        }
+
+        mResponse = response.toByteArray();
+    }
+
+    @Benchmark
+    public Response fromInputStream() throws IOException {
+        return Response.fromInputStream(new ByteArrayInputStream(mResponse));
+    }
+
+}
@@ -0,0 +1,66 @@
+package me.tombailey.store.http.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import me.tombailey.store.http.form.body.UrlEncodedForm;
+
+/**
+ * Encodes forms like the search and filter forms, which mix plain and escapable params.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlEncodedFormBenchmark {
+
+    @Param({"4", "32", "256"})
+    public int paramCount;
+
+    private UrlEncodedForm mForm;
+
+    @Setup
+    public void setUp() {
+        mForm = buildForm();
+    }
+
+    private UrlEncodedForm buildForm() {
+        UrlEncodedForm.Builder builder = new UrlEncodedForm.Builder();
+        for (int index = 0; index < paramCount; index++) {
+            if (index % 3 == 0) {
+                builder.add("query" + index, "free text search & more, caf\u00e9");
+            } else if (index % 3 == 1) {
+                builder.add("page" + index, index);
+            } else {
+                builder.add("includeBeta" + index, true);
+            }
+        }
+        return builder.build();
+    }
+
+    @Benchmark
+    public byte[] getBytes() throws IOException {
+        return mForm.getBytes();
+    }
+
+    @Benchmark
+    public byte[] buildAndGetBytes() throws IOException {
+        //search and filter forms are built again on every keystroke
+        return buildForm().getBytes();
+    }
+
+}